@@ -0,0 +1,87 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.content;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * ContentResolver
+ *
+ * Stand-in for the Android content resolver: hands each call to the
+ * {@link ContentProvider} registered for the authority of the uri. A query
+ * of an authority without a provider returns null, as on Android.
+ */
+public class ContentResolver
+{
+    private final ConcurrentHashMap<String, ContentProvider> providers = new ConcurrentHashMap<String, ContentProvider>();
+
+    public void registerProvider( String authority, ContentProvider provider )
+    {
+        providers.put( authority, provider );
+    }
+
+    public final Cursor query( Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder )
+    {
+        ContentProvider provider = providers.get( uri.getAuthority() );
+        return provider == null ? null : provider.query( uri, projection, selection, selectionArgs, sortOrder );
+    }
+
+    public final Uri insert( Uri uri, ContentValues values )
+    {
+        return acquireProvider( uri ).insert( uri, values );
+    }
+
+    public final int update( Uri uri, ContentValues values, String where, String[] selectionArgs )
+    {
+        return acquireProvider( uri ).update( uri, values, where, selectionArgs );
+    }
+
+    public final int delete( Uri uri, String where, String[] selectionArgs )
+    {
+        return acquireProvider( uri ).delete( uri, where, selectionArgs );
+    }
+
+    public final String getType( Uri uri )
+    {
+        ContentProvider provider = providers.get( uri.getAuthority() );
+        return provider == null ? null : provider.getType( uri );
+    }
+
+    public final InputStream openInputStream( Uri uri ) throws FileNotFoundException
+    {
+        ContentProvider provider = providers.get( uri.getAuthority() );
+        if ( provider == null )
+        {
+            throw new FileNotFoundException( "No content provider: " + uri );
+        }
+        return provider.openInputStream( uri );
+    }
+
+    private ContentProvider acquireProvider( Uri uri )
+    {
+        ContentProvider provider = providers.get( uri.getAuthority() );
+        if ( provider == null )
+        {
+            throw new IllegalArgumentException( "Unknown URL " + uri );
+        }
+        return provider;
+    }
+}
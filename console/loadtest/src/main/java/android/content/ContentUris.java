@@ -0,0 +1,44 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * ContentUris
+ *
+ * Stand-in for the Android helpers for content uris ending in a row id.
+ */
+public final class ContentUris
+{
+    private ContentUris()
+    {
+    }
+
+    public static Uri withAppendedId( Uri contentUri, long id )
+    {
+        return Uri.withAppendedPath( contentUri, String.valueOf( id ) );
+    }
+
+    /**
+     * @return the id in the last path segment, -1 if there is none
+     */
+    public static long parseId( Uri contentUri )
+    {
+        String last = contentUri.getLastPathSegment();
+        return last == null ? -1 : Long.parseLong( last );
+    }
+}
@@ -0,0 +1,175 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ContentValues
+ *
+ * Stand-in for the Android column to value map, converting values between
+ * numbers and strings as Android does.
+ */
+public final class ContentValues
+{
+    private final HashMap<String, Object> values;
+
+    public ContentValues()
+    {
+        values = new HashMap<String, Object>( 8 );
+    }
+
+    public ContentValues( ContentValues from )
+    {
+        values = new HashMap<String, Object>( from.values );
+    }
+
+    public void put( String key, String value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Byte value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Short value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Integer value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Long value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Float value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Double value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, Boolean value )
+    {
+        values.put( key, value );
+    }
+
+    public void put( String key, byte[] value )
+    {
+        values.put( key, value );
+    }
+
+    public void putNull( String key )
+    {
+        values.put( key, null );
+    }
+
+    public Object get( String key )
+    {
+        return values.get( key );
+    }
+
+    public boolean containsKey( String key )
+    {
+        return values.containsKey( key );
+    }
+
+    public void remove( String key )
+    {
+        values.remove( key );
+    }
+
+    public int size()
+    {
+        return values.size();
+    }
+
+    public Set<String> keySet()
+    {
+        return values.keySet();
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet()
+    {
+        return values.entrySet();
+    }
+
+    public String getAsString( String key )
+    {
+        Object value = values.get( key );
+        return value == null ? null : value.toString();
+    }
+
+    public Integer getAsInteger( String key )
+    {
+        Object value = values.get( key );
+        if ( value instanceof Number )
+        {
+            return Integer.valueOf( ((Number) value).intValue() );
+        }
+        if ( value instanceof String )
+        {
+            try
+            {
+                return Integer.valueOf( (String) value );
+            }
+            catch ( NumberFormatException e )
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public Long getAsLong( String key )
+    {
+        Object value = values.get( key );
+        if ( value instanceof Number )
+        {
+            return Long.valueOf( ((Number) value).longValue() );
+        }
+        if ( value instanceof String )
+        {
+            try
+            {
+                return Long.valueOf( (String) value );
+            }
+            catch ( NumberFormatException e )
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return values.toString();
+    }
+}
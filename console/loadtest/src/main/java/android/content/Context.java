@@ -0,0 +1,30 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.content;
+
+/**
+ * Context
+ *
+ * Stand-in for the Android application context. The console only casts the
+ * context attribute to it; the load test leaves that attribute unset.
+ */
+public abstract class Context
+{
+    public static final String LOCATION_SERVICE = "location";
+    public static final String POWER_SERVICE = "power";
+
+    public abstract Object getSystemService( String name );
+}
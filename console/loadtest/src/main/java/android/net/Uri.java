@@ -0,0 +1,224 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uri
+ *
+ * Stand-in for the Android Uri, limited to the hierarchical
+ * scheme://authority/path form of content uris. The path segments are kept
+ * decoded; {@link #toString()} encodes them as Android does.
+ */
+public final class Uri
+{
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String scheme;
+    private final String authority;
+    private final List<String> pathSegments;
+    private String string;
+
+    private Uri( String scheme, String authority, List<String> pathSegments )
+    {
+        this.scheme = scheme;
+        this.authority = authority;
+        this.pathSegments = Collections.unmodifiableList( pathSegments );
+    }
+
+    /**
+     * Parse an encoded uri of the form scheme://authority/path.
+     */
+    public static Uri parse( String uriString )
+    {
+        int colon = uriString.indexOf( "://" );
+        if ( colon < 0 )
+        {
+            throw new IllegalArgumentException( "Not a hierarchical uri: " + uriString );
+        }
+        String scheme = uriString.substring( 0, colon );
+        String rest = uriString.substring( colon + 3 );
+        int slash = rest.indexOf( '/' );
+        String authority = slash < 0 ? rest : rest.substring( 0, slash );
+
+        List<String> segments = new ArrayList<String>();
+        if ( slash >= 0 )
+        {
+            for ( String segment : rest.substring( slash + 1 ).split( "/" ) )
+            {
+                if ( segment.length() > 0 )
+                {
+                    segments.add( decode( segment ) );
+                }
+            }
+        }
+        return new Uri( scheme, authority, segments );
+    }
+
+    /**
+     * @return the uri with the given, not yet encoded, segment appended
+     */
+    public static Uri withAppendedPath( Uri baseUri, String pathSegment )
+    {
+        List<String> segments = new ArrayList<String>( baseUri.pathSegments );
+        segments.add( pathSegment );
+        return new Uri( baseUri.scheme, baseUri.authority, segments );
+    }
+
+    /**
+     * Percent-encode everything but the unreserved characters.
+     */
+    public static String encode( String s )
+    {
+        if ( s == null )
+        {
+            return null;
+        }
+
+        StringBuilder buf = null;
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            char c = s.charAt( i );
+            if ( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "_-!.~'()*".indexOf( c ) >= 0 )
+            {
+                if ( buf != null )
+                {
+                    buf.append( c );
+                }
+                continue;
+            }
+
+            if ( buf == null )
+            {
+                buf = new StringBuilder( s.length() + 16 );
+                buf.append( s, 0, i );
+            }
+            int end = Character.isHighSurrogate( c ) && i + 1 < s.length() ? i + 2 : i + 1;
+            byte[] bytes;
+            try
+            {
+                bytes = s.substring( i, end ).getBytes( "UTF-8" );
+                i = end - 1;
+            }
+            catch ( UnsupportedEncodingException e )
+            {
+                throw new IllegalStateException( e );
+            }
+            for ( byte b : bytes )
+            {
+                buf.append( '%' ).append( HEX[(b >> 4) & 0xF] ).append( HEX[b & 0xF] );
+            }
+        }
+        return buf == null ? s : buf.toString();
+    }
+
+    public static String decode( String s )
+    {
+        if ( s == null || s.indexOf( '%' ) < 0 )
+        {
+            return s;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( s.length() );
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            char c = s.charAt( i );
+            if ( c == '%' && i + 2 < s.length() )
+            {
+                out.write( Integer.parseInt( s.substring( i + 1, i + 3 ), 16 ) );
+                i += 2;
+            }
+            else
+            {
+                out.write( c );
+            }
+        }
+        try
+        {
+            return out.toString( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public String getScheme()
+    {
+        return scheme;
+    }
+
+    public String getAuthority()
+    {
+        return authority;
+    }
+
+    /**
+     * @return the decoded path segments
+     */
+    public List<String> getPathSegments()
+    {
+        return pathSegments;
+    }
+
+    public String getLastPathSegment()
+    {
+        return pathSegments.isEmpty() ? null : pathSegments.get( pathSegments.size() - 1 );
+    }
+
+    public String getPath()
+    {
+        StringBuilder buf = new StringBuilder();
+        for ( String segment : pathSegments )
+        {
+            buf.append( '/' ).append( segment );
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return o instanceof Uri && toString().equals( o.toString() );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        if ( string == null )
+        {
+            StringBuilder buf = new StringBuilder();
+            buf.append( scheme ).append( "://" ).append( authority );
+            for ( String segment : pathSegments )
+            {
+                buf.append( '/' ).append( encode( segment ) );
+            }
+            string = buf.toString();
+        }
+        return string;
+    }
+}
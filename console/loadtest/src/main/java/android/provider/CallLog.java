@@ -0,0 +1,54 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.provider;
+
+import android.net.Uri;
+
+/**
+ * CallLog
+ *
+ * Stand-in for the contract of the Android call log provider.
+ */
+public final class CallLog
+{
+    public static final String AUTHORITY = "call_log";
+
+    private CallLog()
+    {
+    }
+
+    public static final class Calls implements BaseColumns
+    {
+        public static final Uri CONTENT_URI = Uri.parse( "content://call_log/calls" );
+        public static final String DEFAULT_SORT_ORDER = "date DESC";
+
+        public static final String TYPE = "type";
+        public static final int INCOMING_TYPE = 1;
+        public static final int OUTGOING_TYPE = 2;
+        public static final int MISSED_TYPE = 3;
+        public static final String NUMBER = "number";
+        public static final String DATE = "date";
+        public static final String DURATION = "duration";
+        public static final String NEW = "new";
+        public static final String CACHED_NAME = "name";
+        public static final String CACHED_NUMBER_TYPE = "numbertype";
+        public static final String CACHED_NUMBER_LABEL = "numberlabel";
+
+        private Calls()
+        {
+        }
+    }
+}
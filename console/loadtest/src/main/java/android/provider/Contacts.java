@@ -0,0 +1,142 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.provider;
+
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+/**
+ * Contacts
+ *
+ * Stand-in for the contract of the Android 1.x contacts provider: the uris
+ * and column names of the people, phones and contact methods tables.
+ */
+public final class Contacts
+{
+    public static final String AUTHORITY = "contacts";
+    public static final Uri CONTENT_URI = Uri.parse( "content://" + AUTHORITY );
+
+    public static final int KIND_EMAIL = 1;
+    public static final int KIND_POSTAL = 2;
+    public static final int KIND_IM = 3;
+
+    private Contacts()
+    {
+    }
+
+    public interface PeopleColumns
+    {
+        String NAME = "name";
+        String DISPLAY_NAME = "display_name";
+        String TIMES_CONTACTED = "times_contacted";
+        String LAST_TIME_CONTACTED = "last_time_contacted";
+        String CUSTOM_RINGTONE = "custom_ringtone";
+        String SEND_TO_VOICEMAIL = "send_to_voicemail";
+        String STARRED = "starred";
+        String NOTES = "notes";
+    }
+
+    public interface PhonesColumns
+    {
+        String TYPE = "type";
+        int TYPE_CUSTOM = 0;
+        int TYPE_HOME = 1;
+        int TYPE_MOBILE = 2;
+        int TYPE_WORK = 3;
+        String LABEL = "label";
+        String NUMBER = "number";
+        String NUMBER_KEY = "number_key";
+        String ISPRIMARY = "isprimary";
+    }
+
+    public interface ContactMethodsColumns
+    {
+        String KIND = "kind";
+        String TYPE = "type";
+        int TYPE_CUSTOM = 0;
+        int TYPE_HOME = 1;
+        int TYPE_WORK = 2;
+        int TYPE_OTHER = 3;
+        String LABEL = "label";
+        String DATA = "data";
+        String AUX_DATA = "aux_data";
+        String ISPRIMARY = "isprimary";
+    }
+
+    public static final class People implements BaseColumns, PeopleColumns
+    {
+        public static final Uri CONTENT_URI = Uri.parse( "content://contacts/people" );
+        public static final Uri CONTENT_FILTER_URI = Uri.parse( "content://contacts/people/filter" );
+        public static final String DEFAULT_SORT_ORDER = NAME + " ASC";
+
+        private People()
+        {
+        }
+
+        /**
+         * @return null, the load test seeds no photos
+         */
+        public static InputStream openContactPhotoInputStream( ContentResolver cr, Uri person )
+        {
+            return null;
+        }
+
+        public static void setPhotoData( ContentResolver cr, Uri person, byte[] data )
+        {
+            throw new UnsupportedOperationException( "Photos are not stored" );
+        }
+
+        public static final class Phones implements BaseColumns, PhonesColumns, PeopleColumns
+        {
+            public static final String CONTENT_DIRECTORY = "phones";
+
+            private Phones()
+            {
+            }
+        }
+
+        public static final class ContactMethods implements BaseColumns, ContactMethodsColumns, PeopleColumns
+        {
+            public static final String CONTENT_DIRECTORY = "contact_methods";
+
+            private ContactMethods()
+            {
+            }
+        }
+    }
+
+    public static final class Phones implements BaseColumns, PhonesColumns, PeopleColumns
+    {
+        public static final Uri CONTENT_URI = Uri.parse( "content://contacts/phones" );
+        public static final String PERSON_ID = "person";
+
+        private Phones()
+        {
+        }
+    }
+
+    public static final class ContactMethods implements BaseColumns, ContactMethodsColumns, PeopleColumns
+    {
+        public static final Uri CONTENT_URI = Uri.parse( "content://contacts/contact_methods" );
+        public static final String PERSON_ID = "person";
+
+        private ContactMethods()
+        {
+        }
+    }
+}
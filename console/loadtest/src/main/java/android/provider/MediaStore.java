@@ -0,0 +1,103 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.provider;
+
+import android.net.Uri;
+
+/**
+ * MediaStore
+ *
+ * Stand-in for the contract of the Android media provider: the images, audio
+ * and video tables on external and internal storage.
+ */
+public final class MediaStore
+{
+    public static final String AUTHORITY = "media";
+
+    private MediaStore()
+    {
+    }
+
+    public interface MediaColumns extends BaseColumns
+    {
+        String DATA = "_data";
+        String SIZE = "_size";
+        String DISPLAY_NAME = "_display_name";
+        String TITLE = "title";
+        String DATE_ADDED = "date_added";
+        String DATE_MODIFIED = "date_modified";
+        String MIME_TYPE = "mime_type";
+    }
+
+    public static final class Images
+    {
+        private Images()
+        {
+        }
+
+        public static final class Media implements MediaColumns
+        {
+            public static final Uri EXTERNAL_CONTENT_URI = Uri.parse( "content://media/external/images/media" );
+            public static final Uri INTERNAL_CONTENT_URI = Uri.parse( "content://media/internal/images/media" );
+
+            private Media()
+            {
+            }
+        }
+    }
+
+    public static final class Audio
+    {
+        private Audio()
+        {
+        }
+
+        public interface AudioColumns extends MediaColumns
+        {
+            String DURATION = "duration";
+            String ARTIST = "artist";
+            String ALBUM = "album";
+            String IS_MUSIC = "is_music";
+        }
+
+        public static final class Media implements AudioColumns
+        {
+            public static final Uri EXTERNAL_CONTENT_URI = Uri.parse( "content://media/external/audio/media" );
+            public static final Uri INTERNAL_CONTENT_URI = Uri.parse( "content://media/internal/audio/media" );
+
+            private Media()
+            {
+            }
+        }
+    }
+
+    public static final class Video
+    {
+        private Video()
+        {
+        }
+
+        public static final class Media implements MediaColumns
+        {
+            public static final Uri EXTERNAL_CONTENT_URI = Uri.parse( "content://media/external/video/media" );
+            public static final Uri INTERNAL_CONTENT_URI = Uri.parse( "content://media/internal/video/media" );
+
+            private Media()
+            {
+            }
+        }
+    }
+}
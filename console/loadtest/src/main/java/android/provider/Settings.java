@@ -0,0 +1,47 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.provider;
+
+import android.net.Uri;
+
+/**
+ * Settings
+ *
+ * Stand-in for the contract of the Android system settings provider.
+ */
+public final class Settings
+{
+    public static final String AUTHORITY = "settings";
+
+    private Settings()
+    {
+    }
+
+    public static class NameValueTable implements BaseColumns
+    {
+        public static final String NAME = "name";
+        public static final String VALUE = "value";
+    }
+
+    public static final class System extends NameValueTable
+    {
+        public static final Uri CONTENT_URI = Uri.parse( "content://settings/system" );
+
+        private System()
+        {
+        }
+    }
+}
@@ -0,0 +1,34 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.util;
+
+/**
+ * Config
+ *
+ * Stand-in for the Android build configuration flags.
+ */
+public final class Config
+{
+    public static final boolean DEBUG = false;
+    public static final boolean RELEASE = true;
+    public static final boolean PROFILE = false;
+    public static final boolean LOGV = false;
+    public static final boolean LOGD = false;
+
+    private Config()
+    {
+    }
+}
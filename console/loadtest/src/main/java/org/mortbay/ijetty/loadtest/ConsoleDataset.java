@@ -0,0 +1,270 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import android.content.ContentResolver;
+import android.provider.CallLog;
+import android.provider.Contacts;
+import android.provider.MediaStore;
+import android.provider.Settings;
+
+/**
+ * ConsoleDataset
+ *
+ * A ContentResolver over in-memory contacts, call log, settings and media
+ * tables, seeded with the given volumes. The same seed gives the same data,
+ * so that runs compare.
+ *
+ * Tables are known by authority and path, e.g. "contacts/people" or
+ * "media/external/images/media".
+ */
+public class ConsoleDataset
+{
+    private static final String[] FIRST_NAMES = { "Anna", "Ben", "Carla", "David", "Eva", "Felix", "Grace", "Hugo", "Ines", "Jan", "Karin",
+            "Leo", "Maria", "Nils", "Olga", "Paul", "Quinn", "Rosa", "Sam", "Tina", "Ugo", "Vera", "Will", "Xenia", "Yann", "Zoe" };
+    private static final String[] LAST_NAMES = { "Adams", "Bauer", "Costa", "Dubois", "Evans", "Fischer", "Garcia", "Hansen", "Ivanov", "Jones",
+            "Kowalski", "Larsen", "Martin", "Novak", "O'Brien", "Petrov", "Quinn", "Rossi", "Schmidt", "Taylor", "Urban", "Varga", "Weber",
+            "Young", "Zimmer" };
+    private static final String[] WORDS = { "summer", "city", "night", "river", "light", "blue", "road", "home", "garden", "winter", "song",
+            "party", "beach", "snow", "morning", "train" };
+    private static final String[] SETTINGS = { "airplane_mode_on", "bluetooth_on", "wifi_on", "screen_brightness", "screen_off_timeout",
+            "volume_ring", "volume_music", "volume_alarm", "ringtone", "notification_sound", "date_format", "time_12_24", "auto_time",
+            "stay_on_while_plugged_in", "usb_mass_storage_enabled", "haptic_feedback_enabled", "sound_effects_enabled", "dtmf_tone",
+            "accelerometer_rotation", "font_scale" };
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private final ContentResolver resolver = new ContentResolver();
+    private final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    private final Random random;
+    private final long now = System.currentTimeMillis();
+
+    public ConsoleDataset( int contacts, int calls, int media, long seed )
+    {
+        random = new Random( seed );
+        List<String> names = seedContacts( contacts );
+        seedCallLog( calls, names );
+        seedSettings();
+        seedMedia( media );
+    }
+
+    public ContentResolver getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @param key
+     *            authority and path, e.g. "contacts/people"
+     */
+    public Table getTable( String key )
+    {
+        return tables.get( key );
+    }
+
+    public Map<String, Table> getTables()
+    {
+        return tables;
+    }
+
+    private TableProvider newProvider( String authority )
+    {
+        TableProvider provider = new TableProvider();
+        resolver.registerProvider( authority, provider );
+        return provider;
+    }
+
+    private Table addTable( String authority, TableProvider provider, String path, Table table )
+    {
+        tables.put( authority + "/" + path, table );
+        return provider.addTable( path, table );
+    }
+
+    /**
+     * @return the names of the contacts, in id order
+     */
+    private List<String> seedContacts( int count )
+    {
+        TableProvider provider = newProvider( Contacts.AUTHORITY );
+        Table people = addTable( Contacts.AUTHORITY, provider, "people", new Table( "people", Contacts.PeopleColumns.NAME,
+                Contacts.PeopleColumns.DISPLAY_NAME, Contacts.PeopleColumns.NOTES, Contacts.PeopleColumns.STARRED,
+                Contacts.PeopleColumns.SEND_TO_VOICEMAIL, Contacts.PeopleColumns.CUSTOM_RINGTONE, Contacts.PeopleColumns.TIMES_CONTACTED,
+                Contacts.PeopleColumns.LAST_TIME_CONTACTED ) );
+        Table phones = addTable( Contacts.AUTHORITY, provider, "phones", new Table( "phones", Contacts.Phones.PERSON_ID,
+                Contacts.PhonesColumns.TYPE, Contacts.PhonesColumns.LABEL, Contacts.PhonesColumns.NUMBER, Contacts.PhonesColumns.NUMBER_KEY,
+                Contacts.PhonesColumns.ISPRIMARY ) );
+        Table methods = addTable( Contacts.AUTHORITY, provider, "contact_methods", new Table( "contact_methods",
+                Contacts.ContactMethods.PERSON_ID, Contacts.ContactMethodsColumns.KIND, Contacts.ContactMethodsColumns.TYPE,
+                Contacts.ContactMethodsColumns.LABEL, Contacts.ContactMethodsColumns.DATA, Contacts.ContactMethodsColumns.AUX_DATA,
+                Contacts.ContactMethodsColumns.ISPRIMARY ) );
+        provider.addFilter( "people/filter", people, Contacts.PeopleColumns.NAME );
+
+        List<String> names = new ArrayList<String>( count );
+        List<Object[]> peopleRows = new ArrayList<Object[]>( count );
+        List<Object[]> phoneRows = new ArrayList<Object[]>( count * 2 );
+        List<Object[]> methodRows = new ArrayList<Object[]>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            Long person = Long.valueOf( i + 1 );
+            String first = pick( FIRST_NAMES );
+            String last = pick( LAST_NAMES );
+            String name = first + " " + last;
+            names.add( name );
+            peopleRows.add( new Object[]{ name, name, random.nextInt( 5 ) == 0 ? "Met at the " + pick( WORDS ) + " " + pick( WORDS ) : null,
+                    Integer.valueOf( random.nextInt( 10 ) == 0 ? 1 : 0 ), Integer.valueOf( 0 ), null, Integer.valueOf( random.nextInt( 50 ) ),
+                    Long.valueOf( now - random.nextInt( 365 ) * DAY_MS ) } );
+
+            int phoneCount = 1 + random.nextInt( 3 );
+            for ( int p = 0; p < phoneCount; p++ )
+            {
+                String number = "+1 555 " + (100 + random.nextInt( 900 )) + " " + (1000 + random.nextInt( 9000 ));
+                phoneRows.add( new Object[]{ person, Integer.valueOf( 1 + random.nextInt( 3 ) ), null, number,
+                        new StringBuilder( number.replaceAll( "[^0-9]", "" ) ).reverse().toString(), Integer.valueOf( p == 0 ? 1 : 0 ) } );
+            }
+
+            int methodCount = random.nextInt( 3 );
+            for ( int m = 0; m < methodCount; m++ )
+            {
+                boolean email = m == 0 || random.nextBoolean();
+                String data = (first + "." + last).toLowerCase().replace( "'", "" ) + i + (email ? "@example.com" : "@im.example.com");
+                methodRows.add( new Object[]{ person, Integer.valueOf( email ? Contacts.KIND_EMAIL : Contacts.KIND_IM ),
+                        Integer.valueOf( 1 + random.nextInt( 3 ) ), null, data, null, Integer.valueOf( m == 0 ? 1 : 0 ) } );
+            }
+        }
+        people.insertAll( peopleRows );
+        phones.insertAll( phoneRows );
+        methods.insertAll( methodRows );
+        return names;
+    }
+
+    /**
+     * Most calls are with a contact, and carry the cached name the console
+     * looks up again for every row.
+     */
+    private void seedCallLog( int count, List<String> names )
+    {
+        TableProvider provider = newProvider( CallLog.AUTHORITY );
+        Table calls = addTable( CallLog.AUTHORITY, provider, "calls", new Table( "calls", CallLog.Calls.DATE, CallLog.Calls.TYPE,
+                CallLog.Calls.DURATION, CallLog.Calls.NEW, CallLog.Calls.NUMBER, CallLog.Calls.CACHED_NUMBER_TYPE,
+                CallLog.Calls.CACHED_NAME ) );
+
+        List<Object[]> rows = new ArrayList<Object[]>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            int type = 1 + random.nextInt( 3 );
+            String name = names.isEmpty() || random.nextInt( 10 ) < 3 ? null : names.get( random.nextInt( names.size() ) );
+            rows.add( new Object[]{ Long.valueOf( now - (long) (random.nextDouble() * 90 * DAY_MS) ), Integer.valueOf( type ),
+                    Integer.valueOf( type == CallLog.Calls.MISSED_TYPE ? 0 : random.nextInt( 1200 ) ),
+                    Integer.valueOf( random.nextInt( 10 ) == 0 ? 1 : 0 ), "+1 555 " + (100 + random.nextInt( 900 )) + " " + (1000 + random.nextInt( 9000 )),
+                    Integer.valueOf( 1 + random.nextInt( 3 ) ), name } );
+        }
+        calls.insertAll( rows );
+    }
+
+    private void seedSettings()
+    {
+        TableProvider provider = newProvider( Settings.AUTHORITY );
+        Table system = addTable( Settings.AUTHORITY, provider, "system", new Table( "system", Settings.System.NAME, Settings.System.VALUE ) );
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for ( String name : SETTINGS )
+        {
+            rows.add( new Object[]{ name, String.valueOf( random.nextInt( 256 ) ) } );
+        }
+        for ( int i = rows.size(); i < 100; i++ )
+        {
+            rows.add( new Object[]{ "vendor_setting_" + i, pick( WORDS ) } );
+        }
+        system.insertAll( rows );
+    }
+
+    /**
+     * Half the items are images, 30% audio and 20% video, four in five of
+     * them on external storage.
+     */
+    private void seedMedia( int count )
+    {
+        TableProvider provider = newProvider( MediaStore.AUTHORITY );
+        String[] locations = { "external", "internal" };
+        for ( String location : locations )
+        {
+            addTable( MediaStore.AUTHORITY, provider, location + "/images/media", new Table( "images", MediaStore.MediaColumns.DATA,
+                    MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.TITLE,
+                    MediaStore.MediaColumns.MIME_TYPE, MediaStore.MediaColumns.DATE_ADDED ) );
+            addTable( MediaStore.AUTHORITY, provider, location + "/audio/media", new Table( "audio", MediaStore.MediaColumns.DATA,
+                    MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.TITLE,
+                    MediaStore.MediaColumns.MIME_TYPE, MediaStore.MediaColumns.DATE_ADDED, MediaStore.Audio.AudioColumns.ARTIST,
+                    MediaStore.Audio.AudioColumns.ALBUM, MediaStore.Audio.AudioColumns.IS_MUSIC, MediaStore.Audio.AudioColumns.DURATION ) );
+            addTable( MediaStore.AUTHORITY, provider, location + "/video/media", new Table( "video", MediaStore.MediaColumns.DATA,
+                    MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.TITLE,
+                    MediaStore.MediaColumns.MIME_TYPE, MediaStore.MediaColumns.DATE_ADDED ) );
+        }
+
+        Map<String, List<Object[]>> rows = new LinkedHashMap<String, List<Object[]>>();
+        for ( String key : tables.keySet() )
+        {
+            if ( key.startsWith( MediaStore.AUTHORITY + "/" ) )
+            {
+                rows.put( key, new ArrayList<Object[]>() );
+            }
+        }
+
+        for ( int i = 0; i < count; i++ )
+        {
+            String location = random.nextInt( 5 ) == 0 ? "internal" : "external";
+            String title = pick( WORDS ) + " " + pick( WORDS ) + " " + i;
+            String file = title.replace( ' ', '_' );
+            Long added = Long.valueOf( (now - random.nextInt( 730 ) * DAY_MS) / 1000 );
+            int kind = random.nextInt( 10 );
+            if ( kind < 5 )
+            {
+                rows.get( MediaStore.AUTHORITY + "/" + location + "/images/media" ).add(
+                        new Object[]{ "/sdcard/DCIM/Camera/" + file + ".jpg", Long.valueOf( 200000 + random.nextInt( 3000000 ) ), file + ".jpg",
+                                title, "image/jpeg", added } );
+            }
+            else if ( kind < 8 )
+            {
+                boolean music = random.nextInt( 5 ) != 0;
+                rows.get( MediaStore.AUTHORITY + "/" + location + "/audio/media" ).add(
+                        new Object[]{ "/sdcard/Music/" + file + ".mp3", Long.valueOf( 1000000 + random.nextInt( 9000000 ) ), file + ".mp3", title,
+                                "audio/mpeg", added, music ? pick( LAST_NAMES ) + " Band" : null,
+                                music ? "The " + pick( WORDS ) + " album" : null, Integer.valueOf( music ? 1 : 0 ),
+                                Long.valueOf( 60000 + random.nextInt( 300000 ) ) } );
+            }
+            else
+            {
+                rows.get( MediaStore.AUTHORITY + "/" + location + "/video/media" ).add(
+                        new Object[]{ "/sdcard/DCIM/Camera/" + file + ".3gp", Long.valueOf( 5000000 + random.nextInt( 50000000 ) ), file + ".3gp",
+                                title, "video/3gpp", added } );
+            }
+        }
+
+        for ( Map.Entry<String, List<Object[]>> entry : rows.entrySet() )
+        {
+            tables.get( entry.getKey() ).insertAll( entry.getValue() );
+        }
+    }
+
+    private String pick( String[] values )
+    {
+        return values[random.nextInt( values.length )];
+    }
+}
@@ -0,0 +1,265 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.mortbay.ijetty.bootstrap.ServerBootstrap;
+import org.mortbay.ijetty.bootstrap.ServerConfig;
+
+/**
+ * ConsoleLoadTest
+ *
+ * Boots the console webapp in the i-jetty server, exactly as
+ * {@link ServerBootstrap} deploys it on the phone but with a
+ * {@link ConsoleDataset} in place of the phone's content providers, then
+ * drives each endpoint in turn with a {@link LoadClient} and prints a report
+ * of throughput, latency percentiles and allocation per endpoint.
+ *
+ * Options are given as key=value arguments:
+ * <ul>
+ * <li>contacts, calls, media: the number of rows to seed, by default 10000,
+ * 50000 and 20000</li>
+ * <li>seed: of the random data, by default 1</li>
+ * <li>concurrency: the number of clients, by default 8</li>
+ * <li>warmup, duration: the seconds each endpoint is run before and while
+ * being measured, by default 10 and 30</li>
+ * <li>endpoints: a comma separated list of the endpoints to run, by default
+ * all of {@link #ENDPOINTS}</li>
+ * <li>gzip: true to accept gzip encoded responses, by default false</li>
+ * <li>war: the console webapp directory, by default
+ * ../webapp/src/main/webapp</li>
+ * <li>any ijetty.* key of {@link ServerConfig}, e.g. ijetty.threads.max or
+ * ijetty.nio</li>
+ * </ul>
+ */
+public class ConsoleLoadTest
+{
+    public static final String CONTENT_RESOLVER_ATTRIBUTE = "org.mortbay.ijetty.contentResolver";
+    public static final String CONTEXT_PATH = "/console";
+    public static final String USERNAME = "admin";
+    public static final String PASSWORD = "admin";
+
+    /** the endpoints, by name */
+    public static final Map<String, Endpoint> ENDPOINTS = new LinkedHashMap<String, Endpoint>();
+
+    static
+    {
+        addEndpoint( new Endpoint( "contacts", "/rest/contacts/?pgStart={page:contacts/people}&pgSize=" + Endpoint.PAGE_SIZE ) );
+        addEndpoint( new Endpoint( "contact", "/rest/contacts/{id:contacts/people}" ) );
+        addEndpoint( new Endpoint( "images", "/rest/media/image/external?pgStart={page:media/external/images/media}&pgSize=" +
+                Endpoint.PAGE_SIZE ) );
+        addEndpoint( new Endpoint( "audio", "/rest/media/audio/external?pgStart={page:media/external/audio/media}&pgSize=" +
+                Endpoint.PAGE_SIZE ) );
+        addEndpoint( new Endpoint( "settings", "/rest/settings/" ) );
+        addEndpoint( new Endpoint( "calls", "/calls/" ) );
+        addEndpoint( new Endpoint( "callsCsv", "/calls/?csv=1" ) );
+    }
+
+    /** defaults descriptor without the JSP servlet, which is not on the path */
+    private static final String WEBDEFAULT_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">\n" +
+            "  <servlet><servlet-name>default</servlet-name>\n" +
+            "    <servlet-class>org.eclipse.jetty.servlet.DefaultServlet</servlet-class>\n" +
+            "    <init-param><param-name>gzip</param-name><param-value>true</param-value></init-param>\n" +
+            "    <load-on-startup>0</load-on-startup></servlet>\n" +
+            "  <servlet-mapping><servlet-name>default</servlet-name><url-pattern>/</url-pattern></servlet-mapping>\n" +
+            "</web-app>\n";
+
+    private static void addEndpoint( Endpoint endpoint )
+    {
+        ENDPOINTS.put( endpoint.getName(), endpoint );
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        Properties options = new Properties();
+        for ( String arg : args )
+        {
+            int eq = arg.indexOf( '=' );
+            if ( eq <= 0 )
+            {
+                throw new IllegalArgumentException( "Expected key=value, not " + arg );
+            }
+            options.setProperty( arg.substring( 0, eq ).trim(), arg.substring( eq + 1 ).trim() );
+        }
+
+        int contacts = getInt( options, "contacts", 10000 );
+        int calls = getInt( options, "calls", 50000 );
+        int media = getInt( options, "media", 20000 );
+        int concurrency = getInt( options, "concurrency", 8 );
+        long warmupMs = getInt( options, "warmup", 10 ) * 1000L;
+        long durationMs = getInt( options, "duration", 30 ) * 1000L;
+        boolean gzip = Boolean.valueOf( options.getProperty( "gzip", "false" ) ).booleanValue();
+        File war = new File( options.getProperty( "war", "../webapp/src/main/webapp" ) ).getAbsoluteFile();
+        if ( !new File( war, "WEB-INF/web.xml" ).exists() )
+        {
+            throw new IllegalArgumentException( "No console webapp at " + war + ", set war=<console/webapp/src/main/webapp>" );
+        }
+
+        List<Endpoint> endpoints = new ArrayList<Endpoint>();
+        for ( String name : options.getProperty( "endpoints", join( ENDPOINTS.keySet() ) ).split( "," ) )
+        {
+            Endpoint endpoint = ENDPOINTS.get( name.trim() );
+            if ( endpoint == null )
+            {
+                throw new IllegalArgumentException( "No endpoint " + name + ", expected some of " + ENDPOINTS.keySet() );
+            }
+            endpoints.add( endpoint );
+        }
+
+        long seeding = System.nanoTime();
+        ConsoleDataset dataset = new ConsoleDataset( contacts, calls, media, getInt( options, "seed", 1 ) );
+        System.err.printf( Locale.ROOT, "seeded %s in %d ms%n", dataset.getTables().values(), (System.nanoTime() - seeding) / 1000000 );
+
+        // the JDK keeps no more than 5 idle connections per host by default
+        System.setProperty( "http.maxConnections", String.valueOf( concurrency ) );
+
+        File home = newJettyHome( war );
+        ServerConfig config = new ServerConfig();
+        config.setHome( home );
+        config.setPort( 0 );
+        config.setScanInterval( 0 );
+        config.setConsolePassword( PASSWORD );
+        config.setConfigurationClasses( ServerConfig.JVM_CONFIGURATION_CLASSES );
+        config.configure( options, new File( "." ).getAbsoluteFile() );
+        config.setAttribute( CONTENT_RESOLVER_ATTRIBUTE, dataset.getResolver() );
+
+        ServerBootstrap bootstrap = new ServerBootstrap( config );
+        List<EndpointResult> results = new ArrayList<EndpointResult>();
+        try
+        {
+            bootstrap.start();
+            Connector connector = bootstrap.getServer().getConnectors()[0];
+            String baseUrl = "http://127.0.0.1:" + connector.getLocalPort() + CONTEXT_PATH;
+
+            String serverThreads = ((QueuedThreadPool) bootstrap.getServer().getThreadPool()).getName();
+
+            LoadClient client = new LoadClient( baseUrl, serverThreads, dataset, concurrency, gzip );
+            client.login( USERNAME, PASSWORD );
+            for ( Endpoint endpoint : endpoints )
+            {
+                System.err.println( "running " + endpoint + " for " + (warmupMs + durationMs) / 1000 + "s" );
+                EndpointResult result = client.run( endpoint, warmupMs, durationMs );
+                System.err.println( EndpointResult.HEADER );
+                System.err.println( result.format() );
+                results.add( result );
+            }
+        }
+        finally
+        {
+            bootstrap.stop();
+            delete( home );
+        }
+
+        System.out.printf( Locale.ROOT, "console load test: contacts=%d calls=%d media=%d concurrency=%d warmup=%ds duration=%ds gzip=%s%n",
+                contacts, calls, media, concurrency, warmupMs / 1000, durationMs / 1000, gzip );
+        System.out.printf( Locale.ROOT, "java %s %s, %d cpus%n", System.getProperty( "java.version" ), System.getProperty( "java.vm.name" ),
+                Runtime.getRuntime().availableProcessors() );
+        System.out.println( EndpointResult.HEADER );
+        for ( EndpointResult result : results )
+        {
+            System.out.println( result.format() );
+        }
+    }
+
+    /**
+     * Create a jetty home holding the defaults descriptor, the realm of the
+     * console and a context file deploying the console webapp.
+     */
+    private static File newJettyHome( File war ) throws IOException
+    {
+        File home = File.createTempFile( "ijetty-loadtest", "" );
+        if ( !home.delete() || !home.mkdirs() )
+        {
+            throw new IOException( "Cannot create " + home );
+        }
+        File webdefault = write( new File( home, "etc/webdefault.xml" ), WEBDEFAULT_XML );
+        write( new File( home, "etc/realm.properties" ), USERNAME + ": " + PASSWORD + ",admin\n" );
+        new File( home, ServerConfig.WEBAPP_DIR ).mkdirs();
+
+        // The console bundles jetty-servlets on the phone; here it comes from
+        // the server's class path, which webapps do not see by default.
+        write( new File( home, "contexts/console.xml" ), "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+                "<!DOCTYPE Configure PUBLIC \"-//Jetty//Configure//EN\" \"http://www.eclipse.org/jetty/configure.dtd\">\n" +
+                "<Configure class=\"org.eclipse.jetty.webapp.WebAppContext\">\n" +
+                "  <Set name=\"contextPath\">" + CONTEXT_PATH + "</Set>\n" +
+                "  <Set name=\"war\">" + war.getPath() + "</Set>\n" +
+                "  <Set name=\"defaultsDescriptor\">" + webdefault.getPath() + "</Set>\n" +
+                "  <Call name=\"prependServerClass\"><Arg>-org.eclipse.jetty.servlets.</Arg></Call>\n" +
+                "</Configure>\n" );
+        return home;
+    }
+
+    private static File write( File file, String content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            delete( children[i] );
+        }
+        file.delete();
+    }
+
+    private static int getInt( Properties options, String key, int defaultValue )
+    {
+        String value = options.getProperty( key );
+        try
+        {
+            return value == null ? defaultValue : Integer.parseInt( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Bad value for " + key + ": " + value );
+        }
+    }
+
+    private static String join( Iterable<String> values )
+    {
+        StringBuilder buf = new StringBuilder();
+        for ( String value : values )
+        {
+            buf.append( buf.length() == 0 ? "" : "," ).append( value );
+        }
+        return buf.toString();
+    }
+}
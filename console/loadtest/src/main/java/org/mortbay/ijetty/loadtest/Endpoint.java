@@ -0,0 +1,101 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Endpoint
+ *
+ * A request the load test makes over and over, given by a path in the
+ * console context. The path may hold placeholders that vary from request to
+ * request over the seeded data:
+ * <ul>
+ * <li>{page:table}: the first row of a random page of {@link #PAGE_SIZE}
+ * rows of the table</li>
+ * <li>{id:table}: a random row id of the table</li>
+ * </ul>
+ * where table is the key of a {@link ConsoleDataset} table, e.g.
+ * {id:contacts/people}.
+ */
+public class Endpoint
+{
+    public static final int PAGE_SIZE = 10;
+
+    private static final Pattern PLACEHOLDER = Pattern.compile( "\\{(page|id):([^}]+)\\}" );
+
+    private final String name;
+    private final String path;
+
+    public Endpoint( String name, String path )
+    {
+        this.name = name;
+        this.path = path;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the path of the next request, placeholders filled in
+     */
+    public String nextPath( ConsoleDataset dataset, Random random )
+    {
+        if ( path.indexOf( '{' ) < 0 )
+        {
+            return path;
+        }
+
+        Matcher matcher = PLACEHOLDER.matcher( path );
+        StringBuffer buf = new StringBuffer( path.length() + 16 );
+        while ( matcher.find() )
+        {
+            Table table = dataset.getTable( matcher.group( 2 ) );
+            if ( table == null )
+            {
+                throw new IllegalArgumentException( "No table " + matcher.group( 2 ) + " for " + name );
+            }
+            int rows = Math.max( 1, table.size() );
+            long value;
+            if ( "page".equals( matcher.group( 1 ) ) )
+            {
+                value = (long) random.nextInt( (rows + PAGE_SIZE - 1) / PAGE_SIZE ) * PAGE_SIZE;
+            }
+            else
+            {
+                value = 1 + random.nextInt( rows );
+            }
+            matcher.appendReplacement( buf, String.valueOf( value ) );
+        }
+        matcher.appendTail( buf );
+        return buf.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " " + path;
+    }
+}
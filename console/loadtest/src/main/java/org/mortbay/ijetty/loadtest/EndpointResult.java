@@ -0,0 +1,121 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.Locale;
+
+import org.mortbay.ijetty.stats.LatencyHistogram;
+
+/**
+ * EndpointResult
+ *
+ * What the measured phase of one endpoint came to: the throughput and latency
+ * the clients saw, the bytes they received and the bytes the server's
+ * threads allocated meanwhile.
+ */
+public class EndpointResult
+{
+    public static final String HEADER = String.format( Locale.ROOT, "%-10s %9s %7s %9s %8s %8s %8s %8s %8s %8s %8s %12s %12s", "endpoint",
+            "requests", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "KB/req", "alloc MB/s", "alloc KB/req" );
+
+    private final String name;
+    private final long requests;
+    private final long errors;
+    private final long bytes;
+    private final double seconds;
+    private final LatencyHistogram latency;
+    private final long allocatedBytes;
+
+    /**
+     * @param latency
+     *            the latencies of the successful requests, in microseconds
+     * @param allocatedBytes
+     *            allocated by the server's threads, -1 if unknown
+     */
+    public EndpointResult( String name, long requests, long errors, long bytes, double seconds, LatencyHistogram latency, long allocatedBytes )
+    {
+        this.name = name;
+        this.requests = requests;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.seconds = seconds;
+        this.latency = latency;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    public double getThroughput()
+    {
+        return seconds > 0 ? requests / seconds : 0;
+    }
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return the server's allocation in bytes per second, -1 if unknown
+     */
+    public double getAllocationRate()
+    {
+        return allocatedBytes < 0 || seconds <= 0 ? -1 : allocatedBytes / seconds;
+    }
+
+    /**
+     * @return the server's allocation in bytes per request, -1 if unknown
+     */
+    public double getAllocationPerRequest()
+    {
+        return allocatedBytes < 0 || requests == 0 ? -1 : (double) allocatedBytes / requests;
+    }
+
+    /**
+     * @return a line of the report, in the columns of {@link #HEADER}
+     */
+    public String format()
+    {
+        return String.format( Locale.ROOT, "%-10s %9d %7d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f %8.1f %12.1f %12.1f", name, requests, errors,
+                getThroughput(), latency.getMean() / 1000.0, millis( 50 ), millis( 90 ), millis( 99 ), millis( 99.9 ), latency.getMax() / 1000.0,
+                requests == 0 ? 0 : bytes / 1024.0 / requests, allocatedBytes < 0 ? -1 : getAllocationRate() / (1024 * 1024),
+                allocatedBytes < 0 ? -1 : getAllocationPerRequest() / 1024 );
+    }
+
+    private double millis( double percentile )
+    {
+        return latency.getValueAtPercentile( percentile ) / 1000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return format();
+    }
+}
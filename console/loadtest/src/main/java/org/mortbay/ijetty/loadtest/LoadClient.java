@@ -0,0 +1,311 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mortbay.ijetty.stats.LatencyHistogram;
+
+/**
+ * LoadClient
+ *
+ * A closed-loop HTTP client: a fixed number of workers, each with its own
+ * logged in session and keep-alive connection, sends a request as soon as
+ * the previous one is answered. An endpoint is run for a warm-up period and
+ * then measured on its own, so that the allocation of the server's threads
+ * over the measured period, read from the JVM's per-thread allocation
+ * counters, belongs to that endpoint alone.
+ */
+public class LoadClient
+{
+    private static final int WARMUP = 0;
+    private static final int MEASURE = 1;
+    private static final int STOP = 2;
+
+    private final String baseUrl;
+    private final String serverThreads;
+    private final ConsoleDataset dataset;
+    private final int concurrency;
+    private final boolean gzip;
+    private final String[] cookies;
+
+    private volatile int phase;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param baseUrl
+     *            the url of the console context, e.g.
+     *            http://127.0.0.1:8080/console
+     * @param serverThreads
+     *            the name of the thread pool of the server, whose threads'
+     *            allocation is counted
+     * @param gzip
+     *            true to accept gzip encoded responses
+     */
+    public LoadClient( String baseUrl, String serverThreads, ConsoleDataset dataset, int concurrency, boolean gzip )
+    {
+        this.baseUrl = baseUrl;
+        this.serverThreads = serverThreads + "-";
+        this.dataset = dataset;
+        this.concurrency = concurrency;
+        this.gzip = gzip;
+        this.cookies = new String[concurrency];
+    }
+
+    /**
+     * Log every worker in, through the console's form login.
+     */
+    public void login( String username, String password ) throws IOException
+    {
+        for ( int i = 0; i < concurrency; i++ )
+        {
+            HttpURLConnection connection = (HttpURLConnection) new URL( baseUrl + "/j_security_check" ).openConnection();
+            connection.setInstanceFollowRedirects( false );
+            connection.setRequestMethod( "POST" );
+            connection.setDoOutput( true );
+            connection.setRequestProperty( "Content-Type", "application/x-www-form-urlencoded" );
+            OutputStream out = connection.getOutputStream();
+            out.write( ("j_username=" + username + "&j_password=" + password).getBytes( "UTF-8" ) );
+            out.close();
+
+            int status = connection.getResponseCode();
+            String cookie = null;
+            for ( Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet() )
+            {
+                if ( "Set-Cookie".equalsIgnoreCase( header.getKey() ) )
+                {
+                    for ( String value : header.getValue() )
+                    {
+                        if ( value.startsWith( "JSESSIONID=" ) )
+                        {
+                            cookie = value.split( ";" )[0];
+                        }
+                    }
+                }
+            }
+            drain( connection, new byte[1024] );
+
+            String location = connection.getHeaderField( "Location" );
+            if ( cookie == null || status != HttpURLConnection.HTTP_MOVED_TEMP || location == null || location.indexOf( "loginError" ) >= 0 )
+            {
+                throw new IOException( "Login as " + username + " failed: " + status + " " + location );
+            }
+            cookies[i] = cookie;
+        }
+    }
+
+    /**
+     * Run the workers against an endpoint for the warm-up period, then for
+     * the measured period.
+     */
+    public EndpointResult run( Endpoint endpoint, long warmupMs, long durationMs ) throws InterruptedException
+    {
+        latency.clear();
+        requests.set( 0 );
+        errors.set( 0 );
+        bytes.set( 0 );
+        phase = WARMUP;
+
+        Worker[] workers = new Worker[concurrency];
+        for ( int i = 0; i < concurrency; i++ )
+        {
+            workers[i] = new Worker( endpoint, cookies[i], i );
+        }
+        for ( Worker worker : workers )
+        {
+            worker.start();
+        }
+
+        Thread.sleep( warmupMs );
+        Map<Long, Long> allocatedBefore = getAllocatedBytes( serverThreads );
+        long start = System.nanoTime();
+        phase = MEASURE;
+
+        Thread.sleep( durationMs );
+        phase = STOP;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Map<Long, Long> allocatedAfter = getAllocatedBytes( serverThreads );
+
+        for ( Worker worker : workers )
+        {
+            worker.join();
+        }
+
+        long allocated = -1;
+        if ( allocatedBefore != null && allocatedAfter != null )
+        {
+            allocated = 0;
+            for ( Map.Entry<Long, Long> entry : allocatedAfter.entrySet() )
+            {
+                Long before = allocatedBefore.get( entry.getKey() );
+                allocated += entry.getValue().longValue() - (before == null ? 0 : before.longValue());
+            }
+        }
+
+        LatencyHistogram measured = new LatencyHistogram();
+        latency.addTo( measured );
+        return new EndpointResult( endpoint.getName(), requests.get(), errors.get(), bytes.get(), seconds, measured, allocated );
+    }
+
+    /**
+     * @return the bytes allocated so far by the live threads of the server's
+     *         pool, named with the prefix, by thread id, or null if the JVM
+     *         does not count them. The JVM's own threads and those of the
+     *         client are left out. Threads that end during a phase take their
+     *         count with them, so the pool of the server should not shrink
+     *         while measuring.
+     */
+    private static Map<Long, Long> getAllocatedBytes( String prefix )
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( !(bean instanceof com.sun.management.ThreadMXBean) )
+        {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if ( !threads.isThreadAllocatedMemorySupported() )
+        {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled( true );
+
+        long[] ids = threads.getAllThreadIds();
+        ThreadInfo[] infos = threads.getThreadInfo( ids );
+        long[] allocated = threads.getThreadAllocatedBytes( ids );
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            // null if the thread ended since its id was read
+            if ( infos[i] != null && infos[i].getThreadName().startsWith( prefix ) && allocated[i] >= 0 )
+            {
+                result.put( Long.valueOf( ids[i] ), Long.valueOf( allocated[i] ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read a response to the end, so that the connection is kept alive.
+     *
+     * @return the number of bytes read
+     */
+    private static long drain( HttpURLConnection connection, byte[] buffer ) throws IOException
+    {
+        InputStream in;
+        try
+        {
+            in = connection.getInputStream();
+        }
+        catch ( IOException e )
+        {
+            in = connection.getErrorStream();
+        }
+        if ( in == null )
+        {
+            return 0;
+        }
+
+        long total = 0;
+        try
+        {
+            int n;
+            while ( (n = in.read( buffer )) >= 0 )
+            {
+                total += n;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return total;
+    }
+
+    private class Worker extends Thread
+    {
+        private final Endpoint endpoint;
+        private final String cookie;
+        private final Random random;
+        private final byte[] buffer = new byte[16 * 1024];
+
+        Worker( Endpoint endpoint, String cookie, int index )
+        {
+            super( "loadtest-client-" + index );
+            this.endpoint = endpoint;
+            this.cookie = cookie;
+            this.random = new Random( index );
+        }
+
+        @Override
+        public void run()
+        {
+            while ( phase != STOP )
+            {
+                String path = endpoint.nextPath( dataset, random );
+                long start = System.nanoTime();
+                int status;
+                long length;
+                try
+                {
+                    HttpURLConnection connection = (HttpURLConnection) new URL( baseUrl + path ).openConnection();
+                    connection.setInstanceFollowRedirects( false );
+                    connection.setUseCaches( false );
+                    connection.setRequestProperty( "Cookie", cookie );
+                    if ( gzip )
+                    {
+                        connection.setRequestProperty( "Accept-Encoding", "gzip" );
+                    }
+                    status = connection.getResponseCode();
+                    length = drain( connection, buffer );
+                }
+                catch ( IOException e )
+                {
+                    status = -1;
+                    length = 0;
+                }
+                long micros = (System.nanoTime() - start) / 1000;
+
+                if ( phase == MEASURE )
+                {
+                    if ( status == HttpURLConnection.HTTP_OK )
+                    {
+                        latency.record( micros );
+                        requests.incrementAndGet();
+                        bytes.addAndGet( length );
+                    }
+                    else
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+}
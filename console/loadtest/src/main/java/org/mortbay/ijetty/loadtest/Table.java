@@ -0,0 +1,298 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.ContentValues;
+import android.provider.BaseColumns;
+
+/**
+ * Table
+ *
+ * An in-memory table standing in for a SQLite table behind an Android
+ * content provider. The first column is always {@link BaseColumns#_ID},
+ * assigned on insert from 1.
+ *
+ * Reads take no lock: they work on an immutable snapshot of the rows, with
+ * an equality index per column and a sorted copy per sort order built the
+ * first time they are asked for, as SQLite would use an index. Writes copy
+ * the rows into a new snapshot, dropping the indexes.
+ */
+public class Table
+{
+    private final String name;
+    private final String[] columns;
+    private final Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+    private long nextId = 1;
+    private volatile Snapshot snapshot = new Snapshot( Collections.<Object[]> emptyList() );
+
+    public Table( String name, String... columns )
+    {
+        this.name = name;
+        this.columns = new String[columns.length + 1];
+        this.columns[0] = BaseColumns._ID;
+        System.arraycopy( columns, 0, this.columns, 1, columns.length );
+        for ( int i = 0; i < this.columns.length; i++ )
+        {
+            columnIndex.put( this.columns[i], Integer.valueOf( i ) );
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String[] getColumns()
+    {
+        return columns.clone();
+    }
+
+    /**
+     * @return the position of a column, -1 if the table has none of that
+     *         name. A "table." prefix is ignored.
+     */
+    public int getColumnIndex( String column )
+    {
+        Integer index = columnIndex.get( unqualify( column ) );
+        return index == null ? -1 : index.intValue();
+    }
+
+    public int size()
+    {
+        return snapshot.rows.size();
+    }
+
+    /**
+     * Add rows in bulk, as seeding does.
+     *
+     * @param rows
+     *            the values of every column but the id, in order
+     * @return the id of the last row added
+     */
+    public synchronized long insertAll( List<Object[]> rows )
+    {
+        List<Object[]> copy = new ArrayList<Object[]>( snapshot.rows.size() + rows.size() );
+        copy.addAll( snapshot.rows );
+        for ( Object[] values : rows )
+        {
+            if ( values.length != columns.length - 1 )
+            {
+                throw new IllegalArgumentException( name + " has " + (columns.length - 1) + " columns, not " + values.length );
+            }
+            Object[] row = new Object[columns.length];
+            row[0] = Long.valueOf( nextId++ );
+            System.arraycopy( values, 0, row, 1, values.length );
+            copy.add( row );
+        }
+        snapshot = new Snapshot( copy );
+        return nextId - 1;
+    }
+
+    /**
+     * @return the id of the new row
+     */
+    public synchronized long insert( ContentValues values )
+    {
+        Object[] row = new Object[columns.length - 1];
+        for ( String key : values.keySet() )
+        {
+            int index = getColumnIndex( key );
+            if ( index <= 0 )
+            {
+                throw new IllegalArgumentException( "No column " + key + " in " + name );
+            }
+            row[index - 1] = values.get( key );
+        }
+        return insertAll( Collections.singletonList( row ) );
+    }
+
+    /**
+     * @return the number of rows updated, 0 or 1
+     */
+    public synchronized int update( long id, ContentValues values )
+    {
+        List<Object[]> copy = new ArrayList<Object[]>( snapshot.rows );
+        for ( int i = 0; i < copy.size(); i++ )
+        {
+            Object[] row = copy.get( i );
+            if ( ((Long) row[0]).longValue() == id )
+            {
+                row = row.clone();
+                for ( String key : values.keySet() )
+                {
+                    int index = getColumnIndex( key );
+                    if ( index > 0 )
+                    {
+                        row[index] = values.get( key );
+                    }
+                }
+                copy.set( i, row );
+                snapshot = new Snapshot( copy );
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of rows deleted, 0 or 1
+     */
+    public synchronized int delete( long id )
+    {
+        List<Object[]> copy = new ArrayList<Object[]>( snapshot.rows );
+        for ( int i = 0; i < copy.size(); i++ )
+        {
+            if ( ((Long) copy.get( i )[0]).longValue() == id )
+            {
+                copy.remove( i );
+                snapshot = new Snapshot( copy );
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param sortOrder
+     *            "column [ASC|DESC]", or null for the order of insertion
+     * @return all rows, not to be modified
+     */
+    public List<Object[]> select( String sortOrder )
+    {
+        return select( snapshot, sortOrder );
+    }
+
+    private List<Object[]> select( Snapshot current, String sortOrder )
+    {
+        if ( sortOrder == null || sortOrder.trim().length() == 0 )
+        {
+            return current.rows;
+        }
+
+        List<Object[]> sorted = current.sorted.get( sortOrder );
+        if ( sorted == null )
+        {
+            sorted = sort( current.rows, sortOrder );
+            current.sorted.putIfAbsent( sortOrder, sorted );
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the rows whose column has the given value, compared as strings
+     *         the way SQLite compares a bound argument, not to be modified
+     */
+    public List<Object[]> select( String column, String value, String sortOrder )
+    {
+        int index = getColumnIndex( column );
+        if ( index < 0 )
+        {
+            throw new IllegalArgumentException( "No column " + column + " in " + name );
+        }
+
+        Snapshot current = snapshot;
+        String key = columns[index] + " " + sortOrder;
+        Map<String, List<Object[]>> byValue = current.indexes.get( key );
+        if ( byValue == null )
+        {
+            byValue = index( select( current, sortOrder ), index );
+            current.indexes.putIfAbsent( key, byValue );
+        }
+        List<Object[]> rows = byValue.get( value );
+        return rows == null ? Collections.<Object[]> emptyList() : rows;
+    }
+
+    private static Map<String, List<Object[]>> index( List<Object[]> rows, int column )
+    {
+        Map<String, List<Object[]>> byValue = new HashMap<String, List<Object[]>>();
+        for ( Object[] row : rows )
+        {
+            String key = String.valueOf( row[column] );
+            List<Object[]> matches = byValue.get( key );
+            if ( matches == null )
+            {
+                matches = new ArrayList<Object[]>( 2 );
+                byValue.put( key, matches );
+            }
+            matches.add( row );
+        }
+        return byValue;
+    }
+
+    private List<Object[]> sort( List<Object[]> rows, String sortOrder )
+    {
+        String[] terms = sortOrder.trim().split( "\\s+" );
+        final int index = getColumnIndex( terms[0] );
+        if ( index < 0 )
+        {
+            throw new IllegalArgumentException( "No column " + terms[0] + " in " + name );
+        }
+        final int direction = terms.length > 1 && "DESC".equalsIgnoreCase( terms[1] ) ? -1 : 1;
+
+        Object[][] array = rows.toArray( new Object[rows.size()][] );
+        Arrays.sort( array, new Comparator<Object[]>()
+        {
+            public int compare( Object[] a, Object[] b )
+            {
+                Object x = a[index];
+                Object y = b[index];
+                if ( x == null || y == null )
+                {
+                    return direction * (x == null ? (y == null ? 0 : -1) : 1);
+                }
+                if ( x instanceof Number && y instanceof Number )
+                {
+                    return direction * Double.compare( ((Number) x).doubleValue(), ((Number) y).doubleValue() );
+                }
+                return direction * x.toString().compareTo( y.toString() );
+            }
+        } );
+        return Collections.unmodifiableList( Arrays.asList( array ) );
+    }
+
+    static String unqualify( String column )
+    {
+        int dot = column.lastIndexOf( '.' );
+        return dot < 0 ? column.trim() : column.substring( dot + 1 ).trim();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "[" + size() + " rows]";
+    }
+
+    private static final class Snapshot
+    {
+        final List<Object[]> rows;
+        final ConcurrentHashMap<String, List<Object[]>> sorted = new ConcurrentHashMap<String, List<Object[]>>();
+        final ConcurrentHashMap<String, Map<String, List<Object[]>>> indexes = new ConcurrentHashMap<String, Map<String, List<Object[]>>>();
+
+        Snapshot( List<Object[]> rows )
+        {
+            this.rows = Collections.unmodifiableList( rows );
+        }
+    }
+}
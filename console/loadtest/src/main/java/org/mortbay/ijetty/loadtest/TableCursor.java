@@ -0,0 +1,263 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.List;
+
+import android.database.Cursor;
+
+/**
+ * TableCursor
+ *
+ * A cursor over rows selected from a {@link Table}, projected onto the
+ * requested columns. Values convert between numbers and strings as they do
+ * in a SQLite cursor.
+ */
+public class TableCursor implements Cursor
+{
+    private final String[] columnNames;
+    private final int[] columnMap;
+    private final List<Object[]> rows;
+    private int position = -1;
+    private boolean closed;
+
+    /**
+     * @param projection
+     *            the columns to return, null for all of them
+     */
+    public TableCursor( Table table, String[] projection, List<Object[]> rows )
+    {
+        this.columnNames = projection == null ? table.getColumns() : projection.clone();
+        this.columnMap = new int[columnNames.length];
+        for ( int i = 0; i < columnNames.length; i++ )
+        {
+            columnMap[i] = table.getColumnIndex( columnNames[i] );
+            if ( columnMap[i] < 0 )
+            {
+                throw new IllegalArgumentException( "No column " + columnNames[i] + " in " + table.getName() );
+            }
+        }
+        this.rows = rows;
+    }
+
+    public int getCount()
+    {
+        return rows.size();
+    }
+
+    public int getPosition()
+    {
+        return position;
+    }
+
+    public boolean move( int offset )
+    {
+        return moveToPosition( position + offset );
+    }
+
+    public boolean moveToPosition( int position )
+    {
+        int count = rows.size();
+        if ( position >= count )
+        {
+            this.position = count;
+            return false;
+        }
+        if ( position < 0 )
+        {
+            this.position = -1;
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    public boolean moveToFirst()
+    {
+        return moveToPosition( 0 );
+    }
+
+    public boolean moveToLast()
+    {
+        return moveToPosition( rows.size() - 1 );
+    }
+
+    public boolean moveToNext()
+    {
+        return moveToPosition( position + 1 );
+    }
+
+    public boolean moveToPrevious()
+    {
+        return moveToPosition( position - 1 );
+    }
+
+    public boolean isFirst()
+    {
+        return position == 0 && rows.size() > 0;
+    }
+
+    public boolean isLast()
+    {
+        int count = rows.size();
+        return position == count - 1 && count > 0;
+    }
+
+    public boolean isBeforeFirst()
+    {
+        return rows.size() == 0 || position == -1;
+    }
+
+    public boolean isAfterLast()
+    {
+        return rows.size() == 0 || position == rows.size();
+    }
+
+    public int getColumnIndex( String columnName )
+    {
+        String name = Table.unqualify( columnName );
+        for ( int i = 0; i < columnNames.length; i++ )
+        {
+            if ( columnNames[i].equalsIgnoreCase( name ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getColumnIndexOrThrow( String columnName )
+    {
+        int index = getColumnIndex( columnName );
+        if ( index < 0 )
+        {
+            throw new IllegalArgumentException( "column '" + columnName + "' does not exist" );
+        }
+        return index;
+    }
+
+    public String getColumnName( int columnIndex )
+    {
+        return columnNames[columnIndex];
+    }
+
+    public String[] getColumnNames()
+    {
+        return columnNames;
+    }
+
+    public int getColumnCount()
+    {
+        return columnNames.length;
+    }
+
+    public byte[] getBlob( int columnIndex )
+    {
+        Object value = get( columnIndex );
+        return value instanceof byte[] ? (byte[]) value : value == null ? null : value.toString().getBytes();
+    }
+
+    public String getString( int columnIndex )
+    {
+        Object value = get( columnIndex );
+        return value == null ? null : value.toString();
+    }
+
+    public short getShort( int columnIndex )
+    {
+        return (short) getLong( columnIndex );
+    }
+
+    public int getInt( int columnIndex )
+    {
+        return (int) getLong( columnIndex );
+    }
+
+    public long getLong( int columnIndex )
+    {
+        Object value = get( columnIndex );
+        if ( value instanceof Number )
+        {
+            return ((Number) value).longValue();
+        }
+        if ( value instanceof Boolean )
+        {
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        }
+        try
+        {
+            return value == null ? 0 : Long.parseLong( value.toString().trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    public float getFloat( int columnIndex )
+    {
+        return (float) getDouble( columnIndex );
+    }
+
+    public double getDouble( int columnIndex )
+    {
+        Object value = get( columnIndex );
+        if ( value instanceof Number )
+        {
+            return ((Number) value).doubleValue();
+        }
+        try
+        {
+            return value == null ? 0 : Double.parseDouble( value.toString().trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    public boolean isNull( int columnIndex )
+    {
+        return get( columnIndex ) == null;
+    }
+
+    public void close()
+    {
+        closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    private Object get( int columnIndex )
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "Cursor is closed" );
+        }
+        if ( position < 0 || position >= rows.size() )
+        {
+            throw new IndexOutOfBoundsException( "Index " + position + " requested, with a size of " + rows.size() );
+        }
+        if ( columnIndex < 0 || columnIndex >= columnMap.length )
+        {
+            throw new IndexOutOfBoundsException( "Column " + columnIndex + " requested, with " + columnMap.length + " columns" );
+        }
+        return rows.get( position )[columnMap[columnIndex]];
+    }
+}
@@ -0,0 +1,214 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+/**
+ * TableProvider
+ *
+ * A content provider over {@link Table}s, one per uri path under the
+ * authority it is registered for:
+ * <ul>
+ * <li>path: all the rows, or those matching a "column = ?" selection</li>
+ * <li>path/id: the row of that id</li>
+ * <li>filter path/value: the rows of a table whose filter column has the
+ * value, as content://contacts/people/filter/name does</li>
+ * </ul>
+ * Only the simple queries the console makes are understood; any other
+ * selection is refused, so that a change to the console's queries shows up
+ * rather than being answered wrongly.
+ */
+public class TableProvider extends ContentProvider
+{
+    private static final Pattern EQUALS_ARG = Pattern.compile( "\\s*([\\w.]+)\\s*=\\s*\\?\\s*" );
+
+    private final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    private final Map<String, Table> filterTables = new LinkedHashMap<String, Table>();
+    private final Map<String, String> filterColumns = new LinkedHashMap<String, String>();
+
+    /**
+     * @param path
+     *            the path of the table under the authority, e.g. "people"
+     */
+    public Table addTable( String path, Table table )
+    {
+        tables.put( path, table );
+        return table;
+    }
+
+    /**
+     * Serve the rows of a table by the value of a column under a path, e.g.
+     * "people/filter" for content://contacts/people/filter/name.
+     */
+    public void addFilter( String path, Table table, String column )
+    {
+        filterTables.put( path, table );
+        filterColumns.put( path, column );
+    }
+
+    public Table getTable( String path )
+    {
+        return tables.get( path );
+    }
+
+    public Map<String, Table> getTables()
+    {
+        return tables;
+    }
+
+    @Override
+    public Cursor query( Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder )
+    {
+        List<String> segments = uri.getPathSegments();
+        String path = join( segments, segments.size() );
+        Table table = tables.get( path );
+        if ( table != null )
+        {
+            if ( selection == null )
+            {
+                return new TableCursor( table, projection, table.select( sortOrder ) );
+            }
+
+            Matcher matcher = EQUALS_ARG.matcher( selection );
+            if ( !matcher.matches() || selectionArgs == null || selectionArgs.length != 1 )
+            {
+                throw new UnsupportedOperationException( "Selection not supported: " + selection );
+            }
+            return new TableCursor( table, projection, table.select( matcher.group( 1 ), selectionArgs[0], sortOrder ) );
+        }
+
+        if ( selection != null )
+        {
+            throw new UnsupportedOperationException( "Selection not supported on " + uri + ": " + selection );
+        }
+
+        String parent = join( segments, segments.size() - 1 );
+        String last = uri.getLastPathSegment();
+        table = filterTables.get( parent );
+        if ( table != null )
+        {
+            return new TableCursor( table, projection, table.select( filterColumns.get( parent ), last, sortOrder ) );
+        }
+
+        table = getItemTable( uri );
+        return new TableCursor( table, projection, table.select( BaseColumns._ID, last, null ) );
+    }
+
+    @Override
+    public Uri insert( Uri uri, ContentValues values )
+    {
+        List<String> segments = uri.getPathSegments();
+        Table table = tables.get( join( segments, segments.size() ) );
+        if ( table == null )
+        {
+            throw new UnsupportedOperationException( "Insert not supported: " + uri );
+        }
+        return ContentUris.withAppendedId( uri, table.insert( values ) );
+    }
+
+    @Override
+    public int update( Uri uri, ContentValues values, String selection, String[] selectionArgs )
+    {
+        if ( selection != null )
+        {
+            throw new UnsupportedOperationException( "Selection not supported on " + uri + ": " + selection );
+        }
+        return getItemTable( uri ).update( ContentUris.parseId( uri ), values );
+    }
+
+    @Override
+    public int delete( Uri uri, String selection, String[] selectionArgs )
+    {
+        if ( selection != null )
+        {
+            throw new UnsupportedOperationException( "Selection not supported on " + uri + ": " + selection );
+        }
+        return getItemTable( uri ).delete( ContentUris.parseId( uri ) );
+    }
+
+    @Override
+    public String getType( Uri uri )
+    {
+        List<String> segments = uri.getPathSegments();
+        Table table = tables.get( join( segments, segments.size() ) );
+        if ( table != null )
+        {
+            return "vnd.android.cursor.dir/" + table.getName();
+        }
+
+        table = getItemTable( uri );
+        int mimeType = table.getColumnIndex( MediaStore.MediaColumns.MIME_TYPE );
+        List<Object[]> rows = table.select( BaseColumns._ID, uri.getLastPathSegment(), null );
+        if ( mimeType > 0 && !rows.isEmpty() )
+        {
+            return String.valueOf( rows.get( 0 )[mimeType] );
+        }
+        return "vnd.android.cursor.item/" + table.getName();
+    }
+
+    /**
+     * @return the table of a path/id uri
+     */
+    private Table getItemTable( Uri uri )
+    {
+        List<String> segments = uri.getPathSegments();
+        Table table = segments.isEmpty() ? null : tables.get( join( segments, segments.size() - 1 ) );
+        if ( table == null || !isId( uri.getLastPathSegment() ) )
+        {
+            throw new IllegalArgumentException( "Unknown URL " + uri );
+        }
+        return table;
+    }
+
+    private static boolean isId( String segment )
+    {
+        if ( segment == null || segment.length() == 0 )
+        {
+            return false;
+        }
+        for ( int i = 0; i < segment.length(); i++ )
+        {
+            if ( !Character.isDigit( segment.charAt( i ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String join( List<String> segments, int count )
+    {
+        StringBuilder buf = new StringBuilder();
+        for ( int i = 0; i < count; i++ )
+        {
+            buf.append( i == 0 ? "" : "/" ).append( segments.get( i ) );
+        }
+        return buf.toString();
+    }
+}
@@ -1,41 +1,510 @@
 package org.mortbay.ijetty.console;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.eclipse.jetty.util.TypeUtil;
 
+/**
+ * CacheFilter
+ *
+ * Sets the Cache-Control policy of a response from per-path rules, and lets
+ * browsers revalidate GET responses instead of downloading them again.
+ *
+ * Init parameters whose name starts with "/" map a path prefix, relative to
+ * the context, to a Cache-Control value; the longest matching prefix wins and
+ * the "default" parameter applies otherwise. Requests other than GET and HEAD,
+ * and requests carrying one of the comma separated "noStoreParameters" in
+ * their query string (which change state on the phone), are sent
+ * "no-store".
+ *
+ * Unless the policy is no-store, the body of a successful GET is held back,
+ * up to "maxBufferSize" bytes, to give it a weak ETag from its digest. A
+ * Last-Modified date is kept for each URI, moved on whenever the ETag
+ * changes. A request whose If-None-Match or If-Modified-Since matches is
+ * answered 304 without a body. Responses that set their own ETag, or that
+ * outgrow the buffer, pass through untouched.
+ */
 public class CacheFilter implements Filter
 {
+    public static final String __DEFAULT_POLICY = "private, no-cache";
+    public static final String __NO_STORE = "no-store";
+    public static final int __DEFAULT_MAX_BUFFER = 256 * 1024;
+    public static final int __MAX_VALIDATORS = 256;
+
+    private final Map<String,String> _policies = new HashMap<String,String>();
+    private final List<String> _prefixes = new ArrayList<String>();
+    private final Set<String> _noStoreParameters = new HashSet<String>();
+    private String _defaultPolicy = __DEFAULT_POLICY;
+    private int _maxBufferSize = __DEFAULT_MAX_BUFFER;
+
+    private final Map<String,Validator> _validators = new LinkedHashMap<String,Validator>(16,0.75f,true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Validator> eldest)
+        {
+            return size() > __MAX_VALIDATORS;
+        }
+    };
+
 
     public void init(FilterConfig filterConfig) throws ServletException
     {
-       
+        Enumeration<?> names = filterConfig.getInitParameterNames();
+        while (names.hasMoreElements())
+        {
+            String name = (String)names.nextElement();
+            if (name.startsWith("/"))
+            {
+                _policies.put(name, filterConfig.getInitParameter(name).trim());
+                _prefixes.add(name);
+            }
+        }
+
+        // longest prefix first
+        Collections.sort(_prefixes, new Comparator<String>()
+        {
+            public int compare(String a, String b)
+            {
+                return b.length() - a.length();
+            }
+        });
+
+        String defaultPolicy = filterConfig.getInitParameter("default");
+        if (defaultPolicy != null)
+            _defaultPolicy = defaultPolicy.trim();
+
+        String noStore = filterConfig.getInitParameter("noStoreParameters");
+        if (noStore != null)
+        {
+            StringTokenizer tok = new StringTokenizer(noStore, ", ");
+            while (tok.hasMoreTokens())
+                _noStoreParameters.add(tok.nextToken());
+        }
+
+        String maxBufferSize = filterConfig.getInitParameter("maxBufferSize");
+        if (maxBufferSize != null)
+            _maxBufferSize = Integer.parseInt(maxBufferSize.trim());
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
     {
-        try
+        HttpServletRequest httpRequest = (HttpServletRequest)request;
+        HttpServletResponse httpResponse = (HttpServletResponse)response;
+
+        String method = httpRequest.getMethod();
+        String policy = __NO_STORE;
+        if (("GET".equals(method) || "HEAD".equals(method)) && !hasNoStoreParameter(httpRequest.getQueryString()))
+            policy = getPolicy(httpRequest.getRequestURI().substring(httpRequest.getContextPath().length()));
+        httpResponse.setHeader("Cache-Control", policy);
+
+        if (!"GET".equals(method) || policy.indexOf(__NO_STORE) >= 0)
         {
-            HttpServletRequest httpRequest = (HttpServletRequest)request;
-            ((HttpServletResponse)response).setHeader("Cache-Control", "no-store");       
+            chain.doFilter(request, response);
+            return;
         }
-        finally
+
+        BufferedResponse buffered = new BufferedResponse(httpResponse, _maxBufferSize);
+        chain.doFilter(request, buffered);
+        buffered.complete();
+        if (buffered.isPassThrough())
+            return;
+
+        byte[] body = buffered.getBody();
+        if (buffered.getStatus() == HttpServletResponse.SC_OK && !buffered.hasValidator())
         {
-            chain.doFilter(request, response);
+            String uri = httpRequest.getRequestURI();
+            if (httpRequest.getQueryString() != null)
+                uri += "?" + httpRequest.getQueryString();
+            Validator validator = validate(uri, body);
+
+            httpResponse.setHeader("ETag", validator._etag);
+            httpResponse.setDateHeader("Last-Modified", validator._lastModified);
+            if (isNotModified(httpRequest, validator))
+            {
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
         }
+
+        httpResponse.setContentLength(body.length);
+        httpResponse.getOutputStream().write(body);
     }
 
     public void destroy()
     {
-      
+        synchronized (_validators)
+        {
+            _validators.clear();
+        }
+    }
+
+
+    protected String getPolicy(String path)
+    {
+        for (String prefix : _prefixes)
+        {
+            if (path.startsWith(prefix))
+                return _policies.get(prefix);
+        }
+        return _defaultPolicy;
+    }
+
+    private boolean hasNoStoreParameter(String query)
+    {
+        if (query == null || _noStoreParameters.isEmpty())
+            return false;
+
+        StringTokenizer tok = new StringTokenizer(query, "&");
+        while (tok.hasMoreTokens())
+        {
+            String param = tok.nextToken();
+            int eq = param.indexOf('=');
+            if (_noStoreParameters.contains(eq < 0 ? param : param.substring(0, eq)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Work out the ETag of the body, and keep the time it last changed.
+     */
+    private Validator validate(String uri, byte[] body) throws ServletException
+    {
+        String etag;
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            etag = "W/\"" + TypeUtil.toHexString(digest.digest(body)) + "\"";
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new ServletException(e);
+        }
+
+        synchronized (_validators)
+        {
+            Validator validator = _validators.get(uri);
+            if (validator == null || !validator._etag.equals(etag))
+            {
+                // HTTP dates have a resolution of seconds
+                validator = new Validator(etag, (System.currentTimeMillis() / 1000) * 1000);
+                _validators.put(uri, validator);
+            }
+            return validator;
+        }
     }
 
+    private boolean isNotModified(HttpServletRequest request, Validator validator)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            StringTokenizer tok = new StringTokenizer(ifNoneMatch, ",");
+            while (tok.hasMoreTokens())
+            {
+                String tag = tok.nextToken().trim();
+                if ("*".equals(tag) || validator._etag.equals(tag) || validator._etag.equals("W/" + tag))
+                    return true;
+            }
+            return false;
+        }
+
+        try
+        {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && validator._lastModified <= ifModifiedSince;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+
+    private static class Validator
+    {
+        private final String _etag;
+        private final long _lastModified;
+
+        private Validator(String etag, long lastModified)
+        {
+            _etag = etag;
+            _lastModified = lastModified;
+        }
+    }
+
+
+    /**
+     * Holds back the body of a response, until it grows past the buffer size
+     * or is sent as an error or redirect.
+     */
+    private static class BufferedResponse extends HttpServletResponseWrapper
+    {
+        private final int _maxBufferSize;
+        private ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+        private ServletOutputStream _out;
+        private PrintWriter _writer;
+        private int _status = SC_OK;
+        private int _contentLength = -1;
+        private boolean _passThrough;
+        private boolean _validator;
+
+        private BufferedResponse(HttpServletResponse response, int maxBufferSize)
+        {
+            super(response);
+            _maxBufferSize = maxBufferSize;
+        }
+
+        public int getStatus()
+        {
+            return _status;
+        }
+
+        public boolean isPassThrough()
+        {
+            return _passThrough;
+        }
+
+        public boolean hasValidator()
+        {
+            return _validator;
+        }
+
+        public byte[] getBody()
+        {
+            return _buffer.toByteArray();
+        }
+
+        @Override
+        public void setStatus(int sc)
+        {
+            _status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String msg)
+        {
+            _status = sc;
+            super.setStatus(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException
+        {
+            _status = sc;
+            discard();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException
+        {
+            _status = sc;
+            discard();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException
+        {
+            _status = SC_MOVED_TEMPORARILY;
+            discard();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setContentLength(int len)
+        {
+            if (_passThrough)
+                super.setContentLength(len);
+            else
+                _contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value)
+        {
+            if ("Content-Length".equalsIgnoreCase(name) && !_passThrough)
+            {
+                _contentLength = Integer.parseInt(value.trim());
+                return;
+            }
+            checkValidator(name);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            if ("Content-Length".equalsIgnoreCase(name) && !_passThrough)
+            {
+                _contentLength = Integer.parseInt(value.trim());
+                return;
+            }
+            checkValidator(name);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date)
+        {
+            checkValidator(name);
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date)
+        {
+            checkValidator(name);
+            super.addDateHeader(name, date);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if (_writer != null)
+                throw new IllegalStateException("WRITER");
+            return getStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            if (_writer == null)
+            {
+                if (_out != null)
+                    throw new IllegalStateException("STREAM");
+                _writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+            }
+            return _writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            if (_writer != null)
+                _writer.flush();
+            if (_passThrough)
+                super.flushBuffer();
+        }
+
+        @Override
+        public void resetBuffer()
+        {
+            if (!_passThrough)
+                _buffer.reset();
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset()
+        {
+            if (!_passThrough)
+            {
+                _buffer.reset();
+                _contentLength = -1;
+                _validator = false;
+                _status = SC_OK;
+            }
+            super.reset();
+        }
+
+        /**
+         * Flush what the servlet wrote through its writer into the buffer.
+         */
+        public void complete() throws IOException
+        {
+            if (_writer != null)
+                _writer.flush();
+        }
+
+        private void checkValidator(String name)
+        {
+            if ("ETag".equalsIgnoreCase(name) || "Last-Modified".equalsIgnoreCase(name))
+                _validator = true;
+        }
+
+        private void discard()
+        {
+            _passThrough = true;
+            _buffer = null;
+        }
+
+        private ServletOutputStream getStream()
+        {
+            if (_out == null)
+            {
+                _out = new ServletOutputStream()
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        BufferedResponse.this.write(new byte[]{(byte)b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException
+                    {
+                        BufferedResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        if (_passThrough)
+                            getResponse().getOutputStream().flush();
+                    }
+                };
+            }
+            return _out;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException
+        {
+            if (!_passThrough && _buffer.size() + len > _maxBufferSize)
+            {
+                // too big to hold back, send what we have and carry on unbuffered
+                byte[] held = _buffer.toByteArray();
+                _passThrough = true;
+                _buffer = null;
+                if (_contentLength >= 0)
+                    super.setContentLength(_contentLength);
+                getResponse().getOutputStream().write(held);
+            }
+
+            if (_passThrough)
+                getResponse().getOutputStream().write(b, off, len);
+            else
+                _buffer.write(b, off, len);
+        }
+    }
 }
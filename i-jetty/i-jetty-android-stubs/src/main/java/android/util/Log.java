@@ -0,0 +1,90 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package android.util;
+
+/**
+ * Log
+ *
+ * Stand-in for the Android logger so that i-jetty classes can be benchmarked
+ * and load tested on a desktop JVM. Debug and info messages are dropped, so
+ * that logging does not skew the numbers; warnings and errors go to stderr.
+ */
+public final class Log
+{
+    private Log()
+    {
+    }
+
+    public static boolean isLoggable( String tag, int level )
+    {
+        return false;
+    }
+
+    public static int v( String tag, String msg )
+    {
+        return 0;
+    }
+
+    public static int d( String tag, String msg )
+    {
+        return 0;
+    }
+
+    public static int d( String tag, String msg, Throwable tr )
+    {
+        return 0;
+    }
+
+    public static int i( String tag, String msg )
+    {
+        return 0;
+    }
+
+    public static int i( String tag, String msg, Throwable tr )
+    {
+        return 0;
+    }
+
+    public static int w( String tag, String msg )
+    {
+        return w( tag, msg, null );
+    }
+
+    public static int w( String tag, String msg, Throwable tr )
+    {
+        return print( "W", tag, msg, tr );
+    }
+
+    public static int e( String tag, String msg )
+    {
+        return e( tag, msg, null );
+    }
+
+    public static int e( String tag, String msg, Throwable tr )
+    {
+        return print( "E", tag, msg, tr );
+    }
+
+    private static int print( String level, String tag, String msg, Throwable tr )
+    {
+        System.err.println( level + "/" + tag + ": " + msg );
+        if ( tr != null )
+        {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,58 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package dalvik.system;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * DexClassLoader
+ *
+ * Stand-in for the Dalvik loader so that AndroidClassLoader can be run on a
+ * desktop JVM. The path is read the same way, as ':' separated zips, but
+ * they are expected to hold plain class files instead of classes.dex. The
+ * optimized directory and library path are ignored.
+ */
+public class DexClassLoader extends URLClassLoader
+{
+    public DexClassLoader( String dexPath, String optimizedDirectory, String libraryPath, ClassLoader parent )
+    {
+        super( toURLs( dexPath ), parent );
+    }
+
+    private static URL[] toURLs( String dexPath )
+    {
+        List<URL> urls = new ArrayList<URL>();
+        StringTokenizer tok = new StringTokenizer( dexPath == null ? "" : dexPath, ":" );
+        while ( tok.hasMoreTokens() )
+        {
+            try
+            {
+                urls.add( new File( tok.nextToken() ).toURI().toURL() );
+            }
+            catch ( MalformedURLException e )
+            {
+                throw new IllegalArgumentException( e );
+            }
+        }
+        return urls.toArray( new URL[urls.size()] );
+    }
+}
@@ -0,0 +1,179 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.File;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.mortbay.ijetty.benchmark.webapp.Greeter;
+import org.mortbay.ijetty.webapp.AndroidClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ClassLoaderBenchmark
+ *
+ * Class and resource lookups through an {@link AndroidClassLoader} whose
+ * WEB-INF/lib holds {@link #jars} archives, the webapp classes and resources
+ * being in the last of them. The server class path is a
+ * {@link HidingClassLoader} that does not see them, as on the phone.
+ *
+ * Each lookup takes one of the paths through the loader: a system class
+ * (parent first), a class of the server (webapp first, then the parent), a
+ * class of the webapp and a class nobody has. With a {@link #cacheSize} of 0
+ * the loader keeps no lookups, so every one of them searches again.
+ *
+ * {@link #initLoader()} measures setting up a loader for the webapp again,
+ * as on a redeploy, with the archive index already kept from the first.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ClassLoaderBenchmark
+{
+    public static final String WEBAPP_CLASS = Greeter.class.getName();
+    public static final String WEBAPP_RESOURCE = "org/mortbay/ijetty/benchmark/webapp/greeting.properties";
+
+    @Param( { "1", "10", "40" } )
+    public int jars;
+
+    @Param( { "0", "256" } )
+    public int cacheSize;
+
+    private File dir;
+    private File lib;
+    private WebAppContext context;
+    private ClassLoader parent;
+    private AndroidClassLoader loader;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        dir = Fixtures.newTempDir( "classloader" );
+        lib = new File( dir, "WEB-INF/lib" );
+        for ( int i = 0; i < jars; i++ )
+        {
+            Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+            entries.put( "META-INF/lib" + i + ".properties", ("lib=" + i + "\n").getBytes( "UTF-8" ) );
+            if ( i == jars - 1 )
+            {
+                entries.put( WEBAPP_CLASS.replace( '.', '/' ) + ".class", Fixtures.classBytes( Greeter.class ) );
+                entries.put( WEBAPP_RESOURCE, "greeting=hello\n".getBytes( "UTF-8" ) );
+            }
+            Fixtures.newJar( new File( lib, "lib" + i + ".zip" ), entries );
+        }
+
+        context = new WebAppContext();
+        context.setContextPath( "/benchmark" );
+        File work = new File( dir, "work" );
+        work.mkdirs();
+        context.setTempDirectory( work );
+
+        parent = new HidingClassLoader( getClass().getClassLoader(), Greeter.class.getPackage().getName() );
+        loader = new AndroidClassLoader( parent, context );
+        loader.setCacheSize( cacheSize );
+        loader.addJars( Resource.newResource( lib ) );
+        loader.init();
+
+        // fail now rather than benchmark the wrong path
+        if ( loader.loadClass( WEBAPP_CLASS ).getClassLoader() == parent )
+        {
+            throw new IllegalStateException( "Webapp class loaded by the server" );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        Fixtures.delete( dir );
+    }
+
+    @Benchmark
+    public AndroidClassLoader initLoader() throws Exception
+    {
+        AndroidClassLoader fresh = new AndroidClassLoader( parent, context );
+        fresh.addJars( Resource.newResource( lib ) );
+        fresh.init();
+        return fresh;
+    }
+
+    @Benchmark
+    public Class<?> loadSystemClass() throws Exception
+    {
+        return loader.loadClass( "java.util.ArrayList" );
+    }
+
+    @Benchmark
+    public Class<?> loadServerClass() throws Exception
+    {
+        return loader.loadClass( "org.mortbay.ijetty.stats.LatencyHistogram" );
+    }
+
+    @Benchmark
+    public Class<?> loadWebAppClass() throws Exception
+    {
+        return loader.loadClass( WEBAPP_CLASS );
+    }
+
+    @Benchmark
+    public Object loadMissingClass()
+    {
+        try
+        {
+            return loader.loadClass( "org.example.Missing" );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public URL getSystemResource()
+    {
+        return loader.getResource( "java/util/ArrayList.class" );
+    }
+
+    @Benchmark
+    public URL getWebAppResource()
+    {
+        return loader.getResource( WEBAPP_RESOURCE );
+    }
+
+    @Benchmark
+    public URL getMissingResource()
+    {
+        return loader.getResource( "org/example/missing.properties" );
+    }
+}
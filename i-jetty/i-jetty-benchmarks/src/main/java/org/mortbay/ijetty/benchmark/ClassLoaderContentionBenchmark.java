@@ -0,0 +1,157 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.mortbay.ijetty.benchmark.webapp.Greeter;
+import org.mortbay.ijetty.webapp.AndroidClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ClassLoaderContentionBenchmark
+ *
+ * Class lookups through one {@link AndroidClassLoader} from four threads at
+ * once, as request threads do while a webapp warms up. With
+ * {@link #serialized} set the loader is a {@link SerializedClassLoader}, which
+ * locks the whole loader for every lookup as the loader used to, to compare
+ * against.
+ *
+ * The webapp is laid out as in {@link ClassLoaderBenchmark}, with ten
+ * archives in WEB-INF/lib.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Threads( 4 )
+@Fork( 1 )
+public class ClassLoaderContentionBenchmark
+{
+    private static final int JARS = 10;
+
+    @Param( { "true", "false" } )
+    public boolean serialized;
+
+    private File dir;
+    private AndroidClassLoader loader;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        dir = Fixtures.newTempDir( "contention" );
+        File lib = new File( dir, "WEB-INF/lib" );
+        for ( int i = 0; i < JARS; i++ )
+        {
+            Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+            entries.put( "META-INF/lib" + i + ".properties", ("lib=" + i + "\n").getBytes( "UTF-8" ) );
+            if ( i == JARS - 1 )
+            {
+                entries.put( ClassLoaderBenchmark.WEBAPP_CLASS.replace( '.', '/' ) + ".class", Fixtures.classBytes( Greeter.class ) );
+            }
+            Fixtures.newJar( new File( lib, "lib" + i + ".zip" ), entries );
+        }
+
+        WebAppContext context = new WebAppContext();
+        context.setContextPath( "/benchmark" );
+        File work = new File( dir, "work" );
+        work.mkdirs();
+        context.setTempDirectory( work );
+
+        ClassLoader parent = new HidingClassLoader( getClass().getClassLoader(), Greeter.class.getPackage().getName() );
+        loader = serialized ? new SerializedClassLoader( parent, context ) : new AndroidClassLoader( parent, context );
+        loader.addJars( Resource.newResource( lib ) );
+        loader.init();
+
+        if ( loader.loadClass( ClassLoaderBenchmark.WEBAPP_CLASS ).getClassLoader() == parent )
+        {
+            throw new IllegalStateException( "Webapp class loaded by the server" );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        Fixtures.delete( dir );
+    }
+
+    @Benchmark
+    public Class<?> loadSystemClass() throws Exception
+    {
+        return loader.loadClass( "java.util.ArrayList" );
+    }
+
+    @Benchmark
+    public Class<?> loadServerClass() throws Exception
+    {
+        return loader.loadClass( "org.mortbay.ijetty.stats.LatencyHistogram" );
+    }
+
+    @Benchmark
+    public Class<?> loadWebAppClass() throws Exception
+    {
+        return loader.loadClass( ClassLoaderBenchmark.WEBAPP_CLASS );
+    }
+
+    @Benchmark
+    public Object loadMissingClass()
+    {
+        try
+        {
+            return loader.loadClass( "org.example.Missing" );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return e;
+        }
+    }
+
+    /**
+     * The loader as it was, with every lookup holding the lock of the loader.
+     */
+    public static class SerializedClassLoader extends AndroidClassLoader
+    {
+        public SerializedClassLoader( ClassLoader parent, WebAppContext context ) throws IOException
+        {
+            super( parent, context );
+        }
+
+        @Override
+        protected synchronized Class loadClass( String name, boolean resolve ) throws ClassNotFoundException
+        {
+            return super.loadClass( name, resolve );
+        }
+    }
+}
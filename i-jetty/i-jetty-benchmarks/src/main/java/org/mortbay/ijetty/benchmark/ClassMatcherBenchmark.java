@@ -0,0 +1,87 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.mortbay.ijetty.webapp.ClassMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ClassMatcherBenchmark
+ *
+ * The system and server class checks the AndroidClassLoader makes for every
+ * class and resource it looks up, by the WebAppContext and by the
+ * {@link ClassMatcher} compiled from its default patterns, for a class of
+ * the webapp, which matches none of them, and a class of the server.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ClassMatcherBenchmark
+{
+    private static final String WEBAPP_CLASS = "com.example.webapp.json.JsonParser";
+    private static final String SERVER_CLASS = "org.eclipse.jetty.util.log.Log";
+
+    private WebAppContext context;
+    private ClassMatcher systemClasses;
+    private ClassMatcher serverClasses;
+
+    @Setup
+    public void setUp()
+    {
+        context = new WebAppContext();
+        systemClasses = new ClassMatcher( context.getSystemClasses() );
+        serverClasses = new ClassMatcher( context.getServerClasses() );
+    }
+
+    @Benchmark
+    public boolean contextWebAppClass()
+    {
+        return context.isSystemClass( WEBAPP_CLASS ) | context.isServerClass( WEBAPP_CLASS );
+    }
+
+    @Benchmark
+    public boolean matcherWebAppClass()
+    {
+        return systemClasses.match( WEBAPP_CLASS ) | serverClasses.match( WEBAPP_CLASS );
+    }
+
+    @Benchmark
+    public boolean contextServerClass()
+    {
+        return context.isSystemClass( SERVER_CLASS ) | context.isServerClass( SERVER_CLASS );
+    }
+
+    @Benchmark
+    public boolean matcherServerClass()
+    {
+        return systemClasses.match( SERVER_CLASS ) | serverClasses.match( SERVER_CLASS );
+    }
+}
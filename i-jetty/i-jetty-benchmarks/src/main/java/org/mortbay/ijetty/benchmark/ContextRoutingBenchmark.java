@@ -0,0 +1,160 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
+import org.mortbay.ijetty.stats.LatencyStatisticsHandler;
+import org.mortbay.ijetty.stats.ServerStatisticsHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContextRoutingBenchmark
+ *
+ * A request routed to one of {@link #contexts} contexts through the statistics
+ * handlers and the context collection, as wired by the ServerBootstrap, with
+ * the stock ContextHandlerCollection or the {@link IndexedContextHandlerCollection}.
+ * One in four contexts is deployed on a virtual host, so that every context
+ * path has virtual hosts to choose between.
+ *
+ * The cost per request should not grow with the number of contexts.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ContextRoutingBenchmark
+{
+    @Param( { "10", "100", "1000" } )
+    public int contexts;
+
+    @Param( { "false", "true" } )
+    public boolean indexed;
+
+    private Server server;
+    private LocalConnector connector;
+    private String firstRequest;
+    private String lastRequest;
+    private String virtualHostRequest;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        server = new Server();
+        connector = new LocalConnector();
+        server.addConnector( connector );
+
+        ContextHandlerCollection collection = indexed ? new IndexedContextHandlerCollection() : new ContextHandlerCollection();
+        for ( int i = 0; i < contexts; i++ )
+        {
+            ContextHandler context = new ContextHandler( "/app" + i );
+            context.setHandler( new OkHandler() );
+            collection.addHandler( context );
+
+            if ( i % 4 == 0 )
+            {
+                ContextHandler hosted = new ContextHandler( "/app" + i );
+                hosted.setVirtualHosts( new String[]{ "host" + i + ".example.com" } );
+                hosted.setHandler( new OkHandler() );
+                collection.addHandler( hosted );
+            }
+        }
+
+        LatencyStatisticsHandler latency = new LatencyStatisticsHandler();
+        latency.setHandler( collection );
+        ServerStatisticsHandler statistics = new ServerStatisticsHandler();
+        statistics.setContexts( collection );
+        statistics.setHandler( latency );
+        server.setHandler( statistics );
+        server.start();
+
+        firstRequest = request( "localhost", "/app0/index.html" );
+        lastRequest = request( "localhost", "/app" + (contexts - 1) + "/index.html" );
+        virtualHostRequest = request( "host0.example.com", "/app0/index.html" );
+
+        String response = connector.getResponses( lastRequest );
+        if ( !response.startsWith( "HTTP/1.1 200" ) )
+        {
+            throw new IllegalStateException( "Unexpected response: " + response );
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        server.stop();
+    }
+
+    @Benchmark
+    public String firstContext() throws Exception
+    {
+        return connector.getResponses( firstRequest );
+    }
+
+    @Benchmark
+    public String lastContext() throws Exception
+    {
+        return connector.getResponses( lastRequest );
+    }
+
+    @Benchmark
+    public String virtualHost() throws Exception
+    {
+        return connector.getResponses( virtualHostRequest );
+    }
+
+    private static String request( String host, String uri )
+    {
+        return "GET " + uri + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n";
+    }
+
+    private static class OkHandler extends AbstractHandler
+    {
+        public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+                ServletException
+        {
+            baseRequest.setHandled( true );
+            response.setStatus( HttpServletResponse.SC_OK );
+            response.setContentType( "text/plain" );
+            response.getWriter().print( "ok" );
+        }
+    }
+}
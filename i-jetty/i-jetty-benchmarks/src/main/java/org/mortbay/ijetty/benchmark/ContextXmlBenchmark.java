@@ -0,0 +1,123 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.mortbay.ijetty.bootstrap.ServerConfig;
+import org.mortbay.ijetty.deployer.AndroidContextDeployer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContextXmlBenchmark
+ *
+ * AndroidContextDeployer.createContext(), which parses a context file and
+ * applies it to a new WebAppContext. The file sets the usual context path,
+ * war and defaults descriptor, and {@link #initParams} init parameters, as
+ * larger context files do.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ContextXmlBenchmark
+{
+    @Param( { "0", "20" } )
+    public int initParams;
+
+    private File home;
+    private String contextFile;
+    private Deployer deployer;
+
+    /**
+     * Opens up the context creation of the deployer.
+     */
+    public static class Deployer extends AndroidContextDeployer
+    {
+        public Deployer() throws Exception
+        {
+            super();
+        }
+
+        public ContextHandler newContext( String filename ) throws Exception
+        {
+            return createContext( filename );
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        home = Fixtures.newJettyHome( "contextxml" );
+        File war = Fixtures.newWebApp( new File( home, ServerConfig.WEBAPP_DIR ), "hello" );
+
+        StringBuilder xml = new StringBuilder();
+        xml.append( "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" );
+        xml.append( "<!DOCTYPE Configure PUBLIC \"-//Jetty//Configure//EN\" \"http://www.eclipse.org/jetty/configure.dtd\">\n" );
+        xml.append( "<Configure class=\"org.eclipse.jetty.webapp.WebAppContext\">\n" );
+        xml.append( "  <Set name=\"contextPath\">/hello</Set>\n" );
+        xml.append( "  <Set name=\"war\">" ).append( war.getPath() ).append( "</Set>\n" );
+        xml.append( "  <Set name=\"defaultsDescriptor\">" ).append( new File( home, ServerConfig.ETC_DIR + "/webdefault.xml" ).getPath() )
+                .append( "</Set>\n" );
+        xml.append( "  <Set name=\"parentLoaderPriority\">false</Set>\n" );
+        for ( int i = 0; i < initParams; i++ )
+        {
+            xml.append( "  <Call name=\"setInitParameter\"><Arg>param" ).append( i ).append( "</Arg><Arg>value" ).append( i )
+                    .append( "</Arg></Call>\n" );
+        }
+        xml.append( "</Configure>\n" );
+        contextFile = Fixtures.write( new File( home, ServerConfig.CONTEXTS_DIR + "/hello.xml" ), xml.toString() ).getPath();
+
+        Server server = new Server();
+        ContextHandlerCollection contexts = new ContextHandlerCollection();
+        server.setHandler( contexts );
+        deployer = new Deployer();
+        deployer.setContexts( contexts );
+        deployer.setConfigurationDir( new File( home, ServerConfig.CONTEXTS_DIR ).getPath() );
+        // as IJettyService sets them
+        deployer.setAttribute( "org.mortbay.ijetty.contentResolver", new Object() );
+        deployer.setAttribute( "org.mortbay.ijetty.context", new Object() );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        Fixtures.delete( home );
+    }
+
+    @Benchmark
+    public ContextHandler createContext() throws Exception
+    {
+        return deployer.newContext( contextFile );
+    }
+}
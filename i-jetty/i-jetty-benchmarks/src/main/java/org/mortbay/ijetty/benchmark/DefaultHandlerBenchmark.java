@@ -0,0 +1,153 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.mortbay.ijetty.handler.DefaultHandler;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DefaultHandlerBenchmark
+ *
+ * The i-jetty welcome page, generated by {@link DefaultHandler} for a request
+ * to "/" on a server with {@link #contexts} contexts, one in five of them
+ * stopped, deployed to an IndexedContextHandlerCollection as by the
+ * ServerBootstrap. {@link #welcomePageNotModified()} revalidates the page by
+ * its ETag, as a monitoring probe would. Requests go through a LocalConnector,
+ * so {@link #contextRequest()} measures the same request to a context for the
+ * cost of the HTTP handling alone.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class DefaultHandlerBenchmark
+{
+    private static final String WELCOME_REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+    private static final String CONTEXT_REQUEST = "GET /context0/ HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+
+    @Param( { "1", "10", "50" } )
+    public int contexts;
+
+    private Server server;
+    private LocalConnector connector;
+    private String conditionalRequest;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        server = new Server();
+        connector = new LocalConnector();
+        server.addConnector( connector );
+
+        IndexedContextHandlerCollection collection = new IndexedContextHandlerCollection();
+        server.setAttribute( IndexedContextHandlerCollection.ATTRIBUTE, collection );
+        ContextHandler[] handlers = new ContextHandler[contexts];
+        for ( int i = 0; i < contexts; i++ )
+        {
+            handlers[i] = new ContextHandler( "/context" + i );
+            handlers[i].setHandler( new OkHandler() );
+            collection.addHandler( handlers[i] );
+        }
+
+        HandlerCollection all = new HandlerCollection();
+        all.setHandlers( new Handler[]{ collection, new DefaultHandler() } );
+        server.setHandler( all );
+        server.start();
+
+        for ( int i = 4; i < contexts; i += 5 )
+        {
+            handlers[i].stop();
+        }
+
+        String page = connector.getResponses( WELCOME_REQUEST );
+        if ( page.indexOf( "/context0" ) < 0 )
+        {
+            throw new IllegalStateException( "Unexpected welcome page: " + page );
+        }
+
+        int etag = page.indexOf( "ETag: " );
+        if ( etag < 0 )
+        {
+            throw new IllegalStateException( "No ETag on the welcome page: " + page );
+        }
+        conditionalRequest = "GET / HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + page.substring( etag + 6, page.indexOf( '\r', etag ) )
+                + "\r\nConnection: close\r\n\r\n";
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        server.stop();
+    }
+
+    @Benchmark
+    public String welcomePage() throws Exception
+    {
+        return connector.getResponses( WELCOME_REQUEST );
+    }
+
+    @Benchmark
+    public String welcomePageNotModified() throws Exception
+    {
+        return connector.getResponses( conditionalRequest );
+    }
+
+    @Benchmark
+    public String contextRequest() throws Exception
+    {
+        return connector.getResponses( CONTEXT_REQUEST );
+    }
+
+    private static class OkHandler extends AbstractHandler
+    {
+        public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+                ServletException
+        {
+            baseRequest.setHandled( true );
+            response.setStatus( HttpServletResponse.SC_OK );
+            response.setContentType( "text/plain" );
+            response.getWriter().print( "ok" );
+        }
+    }
+}
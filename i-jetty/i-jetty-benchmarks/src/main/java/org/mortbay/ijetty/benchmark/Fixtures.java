@@ -0,0 +1,176 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Fixtures
+ *
+ * Builds the synthetic jetty home directories, webapps and archives the
+ * benchmarks run over.
+ */
+public final class Fixtures
+{
+    public static final String WEB_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">\n" +
+            "  <display-name>benchmark</display-name>\n" +
+            "  <context-param><param-name>benchmark</param-name><param-value>true</param-value></context-param>\n" +
+            "  <welcome-file-list><welcome-file>index.html</welcome-file></welcome-file-list>\n" +
+            "</web-app>\n";
+
+    /** defaults descriptor without the JSP servlet, which is not on the path */
+    public static final String WEBDEFAULT_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">\n" +
+            "  <servlet><servlet-name>default</servlet-name>\n" +
+            "    <servlet-class>org.eclipse.jetty.servlet.DefaultServlet</servlet-class>\n" +
+            "    <load-on-startup>0</load-on-startup></servlet>\n" +
+            "  <servlet-mapping><servlet-name>default</servlet-name><url-pattern>/</url-pattern></servlet-mapping>\n" +
+            "</web-app>\n";
+
+    private Fixtures()
+    {
+    }
+
+    public static File newTempDir( String prefix ) throws IOException
+    {
+        File dir = File.createTempFile( "ijetty-" + prefix, "" );
+        if ( !dir.delete() || !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create " + dir );
+        }
+        return dir;
+    }
+
+    public static void delete( File file )
+    {
+        if ( file == null )
+        {
+            return;
+        }
+        File[] children = file.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            delete( children[i] );
+        }
+        file.delete();
+    }
+
+    public static File write( File file, String content ) throws IOException
+    {
+        return write( file, content.getBytes( "UTF-8" ) );
+    }
+
+    public static File write( File file, byte[] content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Create a jetty home with an etc/webdefault.xml, and webapps and contexts
+     * directories.
+     */
+    public static File newJettyHome( String prefix ) throws IOException
+    {
+        File home = newTempDir( prefix );
+        write( new File( home, "etc/webdefault.xml" ), WEBDEFAULT_XML );
+        new File( home, "webapps" ).mkdirs();
+        new File( home, "contexts" ).mkdirs();
+        return home;
+    }
+
+    /**
+     * Create an exploded webapp with a web.xml, a welcome page and an empty
+     * WEB-INF/lib.
+     */
+    public static File newWebApp( File webappsDir, String name ) throws IOException
+    {
+        File webapp = new File( webappsDir, name );
+        write( new File( webapp, "WEB-INF/web.xml" ), WEB_XML );
+        write( new File( webapp, "index.html" ), "<html><body>" + name + "</body></html>\n" );
+        new File( webapp, "WEB-INF/lib" ).mkdirs();
+        return webapp;
+    }
+
+    /**
+     * Write a jar holding the given entries.
+     */
+    public static File newJar( File file, Map<String, byte[]> entries ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            for ( Map.Entry<String, byte[]> entry : entries.entrySet() )
+            {
+                out.putNextEntry( new ZipEntry( entry.getKey() ) );
+                out.write( entry.getValue() );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * @return the class file of a class on the benchmark class path
+     */
+    public static byte[] classBytes( Class<?> clazz ) throws IOException
+    {
+        String name = clazz.getName().replace( '.', '/' ) + ".class";
+        InputStream in = clazz.getClassLoader().getResourceAsStream( name );
+        if ( in == null )
+        {
+            throw new IOException( "No class file for " + clazz );
+        }
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ( (len = in.read( buf )) > 0 )
+            {
+                out.write( buf, 0, len );
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.net.URL;
+
+/**
+ * HidingClassLoader
+ *
+ * Stands in for the class loader of the server, which on the phone does not
+ * see the classes of the webapps: classes and resources under the hidden
+ * package are not found.
+ */
+public class HidingClassLoader extends ClassLoader
+{
+    private final String hiddenPackage;
+    private final String hiddenPath;
+
+    public HidingClassLoader( ClassLoader parent, String hiddenPackage )
+    {
+        super( parent );
+        this.hiddenPackage = hiddenPackage + ".";
+        this.hiddenPath = hiddenPackage.replace( '.', '/' ) + "/";
+    }
+
+    @Override
+    protected Class<?> loadClass( String name, boolean resolve ) throws ClassNotFoundException
+    {
+        if ( name.startsWith( hiddenPackage ) )
+        {
+            throw new ClassNotFoundException( name );
+        }
+        return super.loadClass( name, resolve );
+    }
+
+    @Override
+    public URL getResource( String name )
+    {
+        if ( name.startsWith( hiddenPath ) )
+        {
+            return null;
+        }
+        return super.getResource( name );
+    }
+}
@@ -0,0 +1,119 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.mortbay.ijetty.bootstrap.ServerConfig;
+import org.mortbay.ijetty.deployer.AndroidWebAppDeployer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WebAppScanBenchmark
+ *
+ * {@link AndroidWebAppDeployer#scan()} of a webapps directory holding
+ * {@link #webapps} exploded webapps, with the Android configuration classes.
+ * With {@link #lazy} the scan only prepares the webapps, otherwise it also
+ * starts each of them, in turn or in {@link #parallel}.
+ *
+ * Every invocation deploys into a new, empty server and undeploys again
+ * afterwards, outside of the measurement.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class WebAppScanBenchmark
+{
+    @Param( { "1", "10", "50" } )
+    public int webapps;
+
+    @Param( { "true", "false" } )
+    public boolean lazy;
+
+    @Param( { "false", "true" } )
+    public boolean parallel;
+
+    private File home;
+    private AndroidWebAppDeployer deployer;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        home = Fixtures.newJettyHome( "scan" );
+        File webappsDir = new File( home, ServerConfig.WEBAPP_DIR );
+        for ( int i = 0; i < webapps; i++ )
+        {
+            Fixtures.newWebApp( webappsDir, "app" + i );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        Fixtures.delete( home );
+    }
+
+    @Setup( Level.Invocation )
+    public void newDeployer() throws Exception
+    {
+        Server server = new Server();
+        ContextHandlerCollection contexts = new ContextHandlerCollection();
+        server.setHandler( contexts );
+
+        deployer = new AndroidWebAppDeployer();
+        deployer.setContexts( contexts );
+        deployer.setWebAppDir( new File( home, ServerConfig.WEBAPP_DIR ).getPath() );
+        deployer.setDefaultsDescriptor( new File( home, ServerConfig.ETC_DIR + "/webdefault.xml" ).getPath() );
+        deployer.setConfigurationClasses( ServerConfig.ANDROID_CONFIGURATION_CLASSES );
+        deployer.setAllowDuplicates( false );
+        deployer.setLazy( lazy );
+        deployer.setParallelStart( parallel );
+    }
+
+    @TearDown( Level.Invocation )
+    public void undeploy() throws Exception
+    {
+        deployer.stop();
+    }
+
+    /**
+     * Start the deployer, which scans the webapps directory.
+     */
+    @Benchmark
+    public int scan() throws Exception
+    {
+        deployer.start();
+        return deployer.getContexts().getHandlers().length;
+    }
+}
@@ -0,0 +1,30 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+
+package org.mortbay.ijetty.benchmark.webapp;
+
+/**
+ * Greeter
+ *
+ * A webapp class: the class loader benchmarks copy it into a WEB-INF/lib
+ * archive and hide it from the server class path.
+ */
+public class Greeter
+{
+    public String greet( String name )
+    {
+        return "Hello " + name;
+    }
+}
@@ -0,0 +1,589 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.DefaultHandler;
+import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.security.Credential;
+import org.mortbay.ijetty.connector.CountingSslSocketConnector;
+import org.mortbay.ijetty.connector.PooledSelectChannelConnector;
+import org.mortbay.ijetty.connector.PooledSslSelectChannelConnector;
+import org.mortbay.ijetty.deployer.AndroidContextDeployer;
+import org.mortbay.ijetty.deployer.AndroidWebAppDeployer;
+import org.mortbay.ijetty.deployer.IdleContextTracker;
+import org.mortbay.ijetty.io.ConnectorBufferPools;
+import org.mortbay.ijetty.memory.MemoryPressureCoordinator;
+import org.mortbay.ijetty.profile.StartupTimeline;
+import org.mortbay.ijetty.profile.StartupTimelineHandler;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
+import org.mortbay.ijetty.ssl.CachingSslContextFactory;
+import org.mortbay.ijetty.ssl.SslHandshakeCounter;
+import org.mortbay.ijetty.stats.LatencyStatisticsHandler;
+import org.mortbay.ijetty.stats.ServerStatisticsHandler;
+import org.mortbay.ijetty.stats.StatisticsReportHandler;
+import org.mortbay.ijetty.thread.BoundedThreadPool;
+import org.mortbay.ijetty.thread.ThreadPoolSizing;
+import org.mortbay.ijetty.webapp.DexCache;
+import org.mortbay.ijetty.webapp.SharedLibraries;
+import org.mortbay.ijetty.webapp.WarmupProfile;
+
+/**
+ * ServerBootstrap
+ *
+ * Builds and runs the i-jetty server from a {@link ServerConfig}: the thread
+ * pool, connectors, handlers, the webapp and context deployers and the
+ * console realm, exactly as on the phone. IJettyService delegates to it, and
+ * it runs as well on a plain JVM, where {@link #main(String[])} starts it
+ * from a properties file for profiling and benchmarking.
+ *
+ * Each step is a protected method, so that it can be replaced or extended.
+ */
+public class ServerBootstrap
+{
+    private final ServerConfig config;
+    private final StartupTimelineHandler startupTimelineHandler = new StartupTimelineHandler();
+    private final MemoryPressureCoordinator memoryPressure = new MemoryPressureCoordinator();
+    private Server server;
+    private IndexedContextHandlerCollection contexts;
+    private ServerStatisticsHandler statistics;
+    private LatencyStatisticsHandler latency;
+    private AndroidWebAppDeployer webAppDeployer;
+    private AndroidContextDeployer contextDeployer;
+    private DexCache dexCache;
+    private SharedLibraries sharedLibraries;
+
+    public ServerBootstrap( ServerConfig config )
+    {
+        this.config = config;
+    }
+
+    /**
+     * Run the server from a properties file, by default jetty.properties in
+     * the working directory, until the JVM is stopped. Webapps are loaded
+     * from WEB-INF unless the file sets the configuration classes.
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        File file = new File( args.length > 0 ? args[0] : "jetty.properties" );
+        if ( !file.exists() )
+        {
+            throw new IllegalArgumentException( "No config file " + file.getAbsolutePath() );
+        }
+
+        Properties properties = ServerConfig.loadProperties( file );
+        if ( properties.getProperty( ServerConfig.CONFIGURATION_CLASSES ) == null )
+        {
+            properties.setProperty( ServerConfig.CONFIGURATION_CLASSES, join( ServerConfig.JVM_CONFIGURATION_CLASSES ) );
+        }
+        ServerConfig config = new ServerConfig();
+        config.setHome( file.getAbsoluteFile().getParentFile() );
+        config.configure( properties, file.getAbsoluteFile().getParentFile() );
+
+        final ServerBootstrap bootstrap = new ServerBootstrap( config );
+        bootstrap.start();
+        Runtime.getRuntime().addShutdownHook( new Thread( "ijetty-shutdown" )
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    bootstrap.stop();
+                }
+                catch ( Exception e )
+                {
+                    Log.warn( e );
+                }
+            }
+        } );
+        bootstrap.getServer().join();
+    }
+
+    private static String join( String[] values )
+    {
+        StringBuilder buf = new StringBuilder();
+        for ( int i = 0; i < values.length; i++ )
+        {
+            buf.append( i == 0 ? "" : "," ).append( values[i] );
+        }
+        return buf.toString();
+    }
+
+    public ServerConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * @return the server, null until built by {@link #start()}
+     */
+    public Server getServer()
+    {
+        return server;
+    }
+
+    public IndexedContextHandlerCollection getContexts()
+    {
+        return contexts;
+    }
+
+    public ServerStatisticsHandler getStatistics()
+    {
+        return statistics;
+    }
+
+    public LatencyStatisticsHandler getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Start the request counts and the latency histograms again. Only
+     * offered to the app hosting the server, not over HTTP.
+     */
+    public void resetStatistics()
+    {
+        if ( statistics != null )
+        {
+            statistics.reset();
+        }
+        if ( latency != null )
+        {
+            latency.reset();
+        }
+    }
+
+    public AndroidWebAppDeployer getWebAppDeployer()
+    {
+        return webAppDeployer;
+    }
+
+    public AndroidContextDeployer getContextDeployer()
+    {
+        return contextDeployer;
+    }
+
+    /**
+     * @return the cache of the optimized dex of the webapps, null if not
+     *         cached
+     */
+    public DexCache getDexCache()
+    {
+        return dexCache;
+    }
+
+    /**
+     * @return the libraries shared between the webapps, null if not shared
+     */
+    public SharedLibraries getSharedLibraries()
+    {
+        return sharedLibraries;
+    }
+
+    public MemoryPressureCoordinator getMemoryPressure()
+    {
+        return memoryPressure;
+    }
+
+    public StartupTimelineHandler getStartupTimelineHandler()
+    {
+        return startupTimelineHandler;
+    }
+
+    /**
+     * Build the server and start it, timing each step on a new
+     * {@link StartupTimeline}.
+     */
+    public void start() throws Exception
+    {
+        System.setProperty( "jetty.home", config.getHome().getAbsolutePath() );
+        Log.info( "jetty.home: " + config.getHome().getAbsolutePath() );
+
+        memoryPressure.clear();
+        StartupTimeline timeline = new StartupTimeline();
+        startupTimelineHandler.setTimeline( timeline );
+
+        StartupTimeline.Span phase = timeline.begin( StartupTimeline.SERVER, "server" );
+        server = newServer();
+        phase.end();
+
+        phase = timeline.begin( StartupTimeline.SERVER, "connectors" );
+        configureConnectors();
+        phase.end();
+
+        phase = timeline.begin( StartupTimeline.SERVER, "handlers" );
+        configureHandlers();
+        phase.end();
+
+        phase = timeline.begin( StartupTimeline.SERVER, "deployers" );
+        configureDeployers();
+        phase.end();
+
+        phase = timeline.begin( StartupTimeline.SERVER, "realm" );
+        configureRealm();
+        phase.end();
+
+        phase = timeline.begin( StartupTimeline.SERVER, "start" );
+        server.start();
+        phase.end();
+
+        // once the webapps started, so that the archives they load are kept
+        if ( dexCache != null )
+        {
+            phase = timeline.begin( StartupTimeline.SERVER, "dexcache" );
+            dexCache.cleanup();
+            phase.end();
+        }
+        Log.info( "startup timeline available at " + StartupTimelineHandler.CONTEXT_PATH );
+        Log.info( "statistics available at " + StatisticsReportHandler.CONTEXT_PATH );
+    }
+
+    public void stop() throws Exception
+    {
+        if ( server == null )
+        {
+            return;
+        }
+
+        logBufferPools();
+        logHandshakes();
+        logStatistics();
+        server.stop();
+        server = null;
+        statistics = null;
+        latency = null;
+        memoryPressure.clear();
+    }
+
+    protected Server newServer()
+    {
+        ThreadPoolSizing sizing = new ThreadPoolSizing();
+        sizing.setWebApps( countWebApps() );
+        sizing.setMinThreads( config.getMinThreads() );
+        sizing.setMaxThreads( config.getMaxThreads() );
+        sizing.setMaxIdleTimeMs( config.getThreadIdleTimeout() );
+        sizing.setMaxQueued( config.getMaxQueued() );
+        Log.info( "thread pool: " + sizing );
+
+        BoundedThreadPool threadPool = sizing.newThreadPool();
+        memoryPressure.register( "threads", MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_LOW, threadPool );
+
+        Server server = new Server();
+        server.setThreadPool( threadPool );
+        server.setAttribute( MemoryPressureCoordinator.ATTRIBUTE, memoryPressure );
+        return server;
+    }
+
+    /**
+     * Count the webapps and context files that the deployers will pick up, so
+     * the thread pool can be sized before they are deployed.
+     */
+    protected int countWebApps()
+    {
+        int count = 0;
+        String[] webapps = config.getWebAppDir().list();
+        if ( webapps != null )
+        {
+            count += webapps.length;
+        }
+
+        String[] contextFiles = config.getContextsDir().list();
+        if ( contextFiles != null )
+        {
+            count += contextFiles.length;
+        }
+        return count;
+    }
+
+    protected void configureConnectors()
+    {
+        Log.info( "configuring connectors" );
+        int port = config.getPort();
+        if ( config.isNio() )
+        {
+            PooledSelectChannelConnector nioConnector = new PooledSelectChannelConnector();
+            configureBuffers( nioConnector, nioConnector.getBufferPools() );
+            nioConnector.setPort( port );
+            server.addConnector( nioConnector );
+            Log.info( "configured (" + nioConnector.getClass().getName() + ") on port: " + port );
+        }
+        else
+        {
+            SocketConnector bioConnector = new SocketConnector();
+            bioConnector.setPort( port );
+            server.addConnector( bioConnector );
+            Log.info( "configured (" + SocketConnector.class.getName() + ") on port: " + port );
+        }
+
+        if ( config.isSsl() )
+        {
+            int sslPort = config.getSslPort();
+
+            // keeps the parsed keystores and TLS sessions across restarts
+            CachingSslContextFactory sslContextFactory = new CachingSslContextFactory();
+            sslContextFactory.setKeyStore( config.getKeystore() );
+            sslContextFactory.setTrustStore( config.getTruststore() );
+            sslContextFactory.setKeyStorePassword( config.getKeystorePassword() );
+            sslContextFactory.setKeyManagerPassword( config.getKeymanagerPassword() );
+            sslContextFactory.setKeyStoreType( config.getStoreType() );
+            sslContextFactory.setTrustStorePassword( config.getTruststorePassword() );
+            sslContextFactory.setTrustStoreType( config.getStoreType() );
+            sslContextFactory.setSessionCacheSize( config.getSslSessionCacheSize() );
+            sslContextFactory.setSessionTimeout( config.getSslSessionTimeout() );
+
+            //TODO SslSelectChannelConnector does not work on android 1.6, but does work on android 2.2
+            if ( config.isNio() )
+            {
+                PooledSslSelectChannelConnector sslConnector = new PooledSslSelectChannelConnector( sslContextFactory );
+                configureBuffers( sslConnector, sslConnector.getBufferPools() );
+                sslConnector.setPort( sslPort );
+                server.addConnector( sslConnector );
+                Log.info( "configured (" + sslConnector.getClass().getName() + ") on port: " + sslPort );
+            }
+            else
+            {
+                CountingSslSocketConnector sslConnector = new CountingSslSocketConnector( sslContextFactory );
+                sslConnector.setPort( sslPort );
+                server.addConnector( sslConnector );
+                Log.info( "configured (" + sslConnector.getClass().getName() + ") on port: " + sslPort );
+            }
+        }
+    }
+
+    /**
+     * Apply the buffer settings to a NIO connector and its buffer pools.
+     */
+    protected void configureBuffers( SelectChannelConnector connector, ConnectorBufferPools bufferPools )
+    {
+        connector.setUseDirectBuffers( config.isDirectBuffers() );
+        if ( config.getHeaderBufferSize() > 0 )
+        {
+            connector.setRequestHeaderSize( config.getHeaderBufferSize() * 1024 );
+        }
+        if ( config.getRequestBufferSize() > 0 )
+        {
+            connector.setRequestBufferSize( config.getRequestBufferSize() * 1024 );
+        }
+        bufferPools.setDirect( config.isDirectBuffers() );
+        bufferPools.setMaxRetainedBytes( config.getBufferPoolSize() * 1024L );
+        memoryPressure.register( "buffers", MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_MODERATE, bufferPools );
+    }
+
+    protected void configureHandlers()
+    {
+        Log.info( "configuring handlers" );
+        HandlerCollection handlers = new HandlerCollection();
+        contexts = new IndexedContextHandlerCollection();
+        server.setAttribute( IndexedContextHandlerCollection.ATTRIBUTE, contexts );
+        contexts.addHandler( StartupTimelineHandler.newContext( startupTimelineHandler ) );
+        latency = new LatencyStatisticsHandler();
+        latency.setHandler( contexts );
+        Handler defaultHandler = config.getDefaultHandler() != null ? config.getDefaultHandler() : new DefaultHandler();
+        handlers.setHandlers( new Handler[]{ latency, defaultHandler } );
+
+        statistics = new ServerStatisticsHandler();
+        statistics.setContexts( contexts );
+        statistics.setHandler( handlers );
+        contexts.addHandler( StatisticsReportHandler.newContext( statistics, latency ) );
+        server.setAttribute( ServerStatisticsHandler.ATTRIBUTE, statistics );
+        server.setAttribute( LatencyStatisticsHandler.ATTRIBUTE, latency );
+        server.setHandler( statistics );
+    }
+
+    protected void configureDeployers() throws Exception
+    {
+        Log.info( "configuring deployers" );
+        webAppDeployer = new AndroidWebAppDeployer();
+        contextDeployer = new AndroidContextDeployer();
+
+        File jettyDir = config.getHome();
+        if ( !jettyDir.exists() )
+        {
+            Log.warn( "Not loading any webapps - " + jettyDir + " does not exist." );
+            return;
+        }
+
+        // outside the work dir, so that optimized dex survives restarts
+        dexCache = null;
+        if ( config.getDexCacheSize() > 0 )
+        {
+            dexCache = new DexCache( config.getDexCacheDir(), config.getDexCacheSize() * 1024L );
+            server.setAttribute( DexCache.ATTRIBUTE, dexCache );
+            Log.info( "dex cache directory: " + config.getDexCacheDir().getAbsolutePath() );
+        }
+        sharedLibraries = null;
+        if ( config.isSharedLibraries() )
+        {
+            if ( dexCache == null )
+            {
+                Log.warn( "Not sharing libraries between webapps without the dex cache" );
+            }
+            else
+            {
+                sharedLibraries = new SharedLibraries( dexCache );
+                server.setAttribute( SharedLibraries.ATTRIBUTE, sharedLibraries );
+            }
+        }
+
+        // If the webapps dir exists, start the static webapp deployer
+        File webappDir = config.getWebAppDir();
+        Log.info( "webapp directory: " + webappDir.getAbsolutePath() );
+        if ( webappDir.exists() )
+        {
+            webAppDeployer.setWebAppDir( webappDir.getPath() );
+            webAppDeployer.setDefaultsDescriptor( new File( config.getEtcDir(), "webdefault.xml" ).getPath() );
+            webAppDeployer.setContexts( contexts );
+            for ( Map.Entry<String, Object> entry : config.getAttributes().entrySet() )
+            {
+                webAppDeployer.setAttribute( entry.getKey(), entry.getValue() );
+            }
+            webAppDeployer.setAttribute( StartupTimeline.ATTRIBUTE, startupTimelineHandler.getTimeline() );
+            if ( dexCache != null )
+            {
+                webAppDeployer.setAttribute( DexCache.ATTRIBUTE, dexCache );
+            }
+            webAppDeployer.setAttribute( WarmupProfile.ATTRIBUTE, Boolean.valueOf( config.isWarmup() ) );
+            if ( sharedLibraries != null )
+            {
+                webAppDeployer.setAttribute( SharedLibraries.ATTRIBUTE, sharedLibraries );
+            }
+            webAppDeployer.setConfigurationClasses( config.getConfigurationClasses() );
+            webAppDeployer.setAllowDuplicates( false );
+            webAppDeployer.setParallelStart( config.isParallelStart() );
+            webAppDeployer.setLazy( config.isLazyStart() );
+            webAppDeployer.setHibernate( config.getIdleHibernateMinutes() > 0 );
+        }
+
+        // Use a ContextDeploy so we can hot-deploy webapps and config at startup.
+        if ( config.getContextsDir().exists() )
+        {
+            contextDeployer.setScanInterval( config.getScanInterval() );
+            contextDeployer.setConfigurationDir( config.getContextsDir().getPath() );
+            for ( Map.Entry<String, Object> entry : config.getAttributes().entrySet() )
+            {
+                contextDeployer.setAttribute( entry.getKey(), entry.getValue() );
+            }
+            contextDeployer.setAttribute( StartupTimeline.ATTRIBUTE, startupTimelineHandler.getTimeline() );
+            if ( dexCache != null )
+            {
+                contextDeployer.setAttribute( DexCache.ATTRIBUTE, dexCache );
+            }
+            contextDeployer.setAttribute( WarmupProfile.ATTRIBUTE, Boolean.valueOf( config.isWarmup() ) );
+            if ( sharedLibraries != null )
+            {
+                contextDeployer.setAttribute( SharedLibraries.ATTRIBUTE, sharedLibraries );
+            }
+            contextDeployer.setContexts( contexts );
+            contextDeployer.setLazy( config.isLazyStart() );
+            contextDeployer.setHibernate( config.getIdleHibernateMinutes() > 0 );
+        }
+
+        Log.info( "Adding context deployer: " + contextDeployer );
+        server.addBean( contextDeployer );
+        Log.info( "Adding webapp deployer: " + webAppDeployer );
+        server.addBean( webAppDeployer );
+
+        // also hibernates lazily started webapps under memory pressure
+        IdleContextTracker idleTracker = new IdleContextTracker( server );
+        memoryPressure.register( "webapps", MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_CRITICAL, idleTracker );
+        if ( config.getIdleHibernateMinutes() > 0 )
+        {
+            idleTracker.setIdleTimeout( config.getIdleHibernateMinutes() * 60 * 1000L );
+            Log.info( "Hibernating webapps idle for " + config.getIdleHibernateMinutes() + " minutes" );
+            server.addBean( idleTracker );
+        }
+    }
+
+    protected void configureRealm() throws IOException
+    {
+        File realmProps = new File( config.getEtcDir(), "realm.properties" );
+        if ( realmProps.exists() )
+        {
+            HashLoginService realm = new HashLoginService( "Console", realmProps.getPath() );
+            realm.setRefreshInterval( 0 );
+            if ( config.getConsolePassword() != null )
+            {
+                realm.putUser( "admin", Credential.getCredential( config.getConsolePassword() ),
+                        new String[]{ "admin" } ); //set the admin password for console webapp
+            }
+            server.addBean( realm );
+        }
+    }
+
+    protected void logBufferPools()
+    {
+        Connector[] connectors = server.getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length; i++ )
+        {
+            ConnectorBufferPools bufferPools = null;
+            if ( connectors[i] instanceof PooledSelectChannelConnector )
+            {
+                bufferPools = ((PooledSelectChannelConnector) connectors[i]).getBufferPools();
+            }
+            else if ( connectors[i] instanceof PooledSslSelectChannelConnector )
+            {
+                bufferPools = ((PooledSslSelectChannelConnector) connectors[i]).getBufferPools();
+            }
+
+            if ( bufferPools != null )
+            {
+                Log.info( "buffers for " + connectors[i] + ": hits=" + bufferPools.getHits() + " misses=" + bufferPools.getMisses() +
+                        " retained=" + bufferPools.getRetainedBytes() + " bytes" );
+            }
+        }
+    }
+
+    protected void logHandshakes()
+    {
+        Connector[] connectors = server.getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length; i++ )
+        {
+            SslHandshakeCounter handshakes = null;
+            if ( connectors[i] instanceof PooledSslSelectChannelConnector )
+            {
+                handshakes = ((PooledSslSelectChannelConnector) connectors[i]).getHandshakeCounter();
+            }
+            else if ( connectors[i] instanceof CountingSslSocketConnector )
+            {
+                handshakes = ((CountingSslSocketConnector) connectors[i]).getHandshakeCounter();
+            }
+
+            if ( handshakes != null )
+            {
+                Log.info( "TLS " + handshakes + " for " + connectors[i] );
+            }
+        }
+    }
+
+    protected void logStatistics()
+    {
+        if ( statistics != null )
+        {
+            Log.info( "statistics: " + statistics.getTotal() );
+        }
+    }
+}
@@ -0,0 +1,645 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.bootstrap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import org.eclipse.jetty.server.Handler;
+
+/**
+ * ServerConfig
+ *
+ * Everything {@link ServerBootstrap} needs to build an i-jetty server: the
+ * jetty home directory with its webapps, contexts and etc directories, the
+ * connectors, thread pool, buffers and deployment options.
+ *
+ * The defaults are those of the i-jetty preferences. A config can be read
+ * from a properties file with {@link #load(File)}, using the keys named by
+ * the constants of this class.
+ *
+ * The Android specific pieces are plugged in: the configuration classes of
+ * the webapps, which on Android install the dex class loader, the attributes
+ * given to every deployed context, such as the ContentResolver, and the
+ * handler of requests no context takes.
+ */
+public class ServerConfig
+{
+    public static final String WEBAPP_DIR = "webapps";
+    public static final String ETC_DIR = "etc";
+    public static final String CONTEXTS_DIR = "contexts";
+    public static final String DEX_CACHE_DIR = "dexcache";
+
+    public static final String[] ANDROID_CONFIGURATION_CLASSES = { "org.mortbay.ijetty.webapp.AndroidWebInfConfiguration",
+            "org.eclipse.jetty.webapp.WebXmlConfiguration", "org.eclipse.jetty.webapp.JettyWebXmlConfiguration",
+            "org.eclipse.jetty.webapp.TagLibConfiguration" };
+    public static final String[] JVM_CONFIGURATION_CLASSES = { "org.eclipse.jetty.webapp.WebInfConfiguration",
+            "org.eclipse.jetty.webapp.WebXmlConfiguration", "org.eclipse.jetty.webapp.JettyWebXmlConfiguration",
+            "org.eclipse.jetty.webapp.TagLibConfiguration" };
+
+    public static final String HOME = "ijetty.home";
+    public static final String PORT = "ijetty.port";
+    public static final String NIO = "ijetty.nio";
+    public static final String SSL = "ijetty.ssl";
+    public static final String SSL_PORT = "ijetty.ssl.port";
+    public static final String KEYSTORE = "ijetty.ssl.keystore";
+    public static final String KEYSTORE_PASSWORD = "ijetty.ssl.keystore.password";
+    public static final String KEYMANAGER_PASSWORD = "ijetty.ssl.keymanager.password";
+    public static final String TRUSTSTORE = "ijetty.ssl.truststore";
+    public static final String TRUSTSTORE_PASSWORD = "ijetty.ssl.truststore.password";
+    public static final String STORE_TYPE = "ijetty.ssl.storetype";
+    public static final String SSL_SESSION_CACHE = "ijetty.ssl.session.cache";
+    public static final String SSL_SESSION_TIMEOUT = "ijetty.ssl.session.timeout";
+    public static final String CONSOLE_PASSWORD = "ijetty.console.password";
+    public static final String MIN_THREADS = "ijetty.threads.min";
+    public static final String MAX_THREADS = "ijetty.threads.max";
+    public static final String THREAD_IDLE = "ijetty.threads.idle";
+    public static final String MAX_QUEUED = "ijetty.threads.queue";
+    public static final String DIRECT_BUFFERS = "ijetty.buffers.direct";
+    public static final String HEADER_BUFFER = "ijetty.buffers.header";
+    public static final String REQUEST_BUFFER = "ijetty.buffers.request";
+    public static final String BUFFER_POOL = "ijetty.buffers.pool";
+    public static final String PARALLEL_START = "ijetty.deploy.parallel";
+    public static final String LAZY_START = "ijetty.deploy.lazy";
+    public static final String IDLE_HIBERNATE = "ijetty.deploy.hibernate";
+    public static final String SCAN_INTERVAL = "ijetty.deploy.scan";
+    public static final String DEX_CACHE = "ijetty.deploy.dexcache";
+    public static final String WARMUP = "ijetty.deploy.warmup";
+    public static final String SHARED_LIBRARIES = "ijetty.deploy.shared";
+    public static final String CONFIGURATION_CLASSES = "ijetty.deploy.configurationClasses";
+
+    private File home = new File( "jetty" );
+    private int port = 8080;
+    private boolean nio = true;
+    private boolean ssl;
+    private int sslPort = 8443;
+    private String keystore;
+    private String keystorePassword;
+    private String keymanagerPassword;
+    private String truststore;
+    private String truststorePassword;
+    private String storeType = "bks";
+    private int sslSessionCacheSize = 100;
+    private int sslSessionTimeout = 3600;
+    private String consolePassword = "admin";
+    private int minThreads;
+    private int maxThreads;
+    private int threadIdleTimeout;
+    private int maxQueued;
+    private boolean directBuffers;
+    private int headerBufferSize;
+    private int requestBufferSize;
+    private int bufferPoolSize = 256;
+    private boolean parallelStart;
+    private boolean lazyStart;
+    private int idleHibernateMinutes;
+    private int scanInterval = 10;
+    private int dexCacheSize = 16 * 1024;
+    private boolean warmup = true;
+    private boolean sharedLibraries;
+    private String[] configurationClasses = ANDROID_CONFIGURATION_CLASSES;
+    private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+    private Handler defaultHandler;
+
+    /**
+     * Read a config from a properties file. Missing keys keep their default;
+     * relative paths are resolved against the directory of the file.
+     */
+    public static ServerConfig load( File file ) throws IOException
+    {
+        ServerConfig config = new ServerConfig();
+        config.setHome( file.getAbsoluteFile().getParentFile() );
+        config.configure( loadProperties( file ), file.getAbsoluteFile().getParentFile() );
+        return config;
+    }
+
+    public static Properties loadProperties( File file ) throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            properties.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Apply the properties that are set.
+     *
+     * @param base
+     *            the directory relative paths are resolved against
+     */
+    public void configure( Properties properties, File base )
+    {
+        if ( properties.getProperty( HOME ) != null )
+        {
+            home = resolve( base, properties.getProperty( HOME ) );
+        }
+        port = getInt( properties, PORT, port );
+        nio = getBoolean( properties, NIO, nio );
+        ssl = getBoolean( properties, SSL, ssl );
+        sslPort = getInt( properties, SSL_PORT, sslPort );
+        if ( properties.getProperty( KEYSTORE ) != null )
+        {
+            keystore = resolve( base, properties.getProperty( KEYSTORE ) ).getPath();
+        }
+        if ( properties.getProperty( TRUSTSTORE ) != null )
+        {
+            truststore = resolve( base, properties.getProperty( TRUSTSTORE ) ).getPath();
+        }
+        keystorePassword = properties.getProperty( KEYSTORE_PASSWORD, keystorePassword );
+        keymanagerPassword = properties.getProperty( KEYMANAGER_PASSWORD, keymanagerPassword );
+        truststorePassword = properties.getProperty( TRUSTSTORE_PASSWORD, truststorePassword );
+        storeType = properties.getProperty( STORE_TYPE, storeType );
+        sslSessionCacheSize = getInt( properties, SSL_SESSION_CACHE, sslSessionCacheSize );
+        sslSessionTimeout = getInt( properties, SSL_SESSION_TIMEOUT, sslSessionTimeout );
+        consolePassword = properties.getProperty( CONSOLE_PASSWORD, consolePassword );
+        minThreads = getInt( properties, MIN_THREADS, minThreads );
+        maxThreads = getInt( properties, MAX_THREADS, maxThreads );
+        threadIdleTimeout = getInt( properties, THREAD_IDLE, threadIdleTimeout );
+        maxQueued = getInt( properties, MAX_QUEUED, maxQueued );
+        directBuffers = getBoolean( properties, DIRECT_BUFFERS, directBuffers );
+        headerBufferSize = getInt( properties, HEADER_BUFFER, headerBufferSize );
+        requestBufferSize = getInt( properties, REQUEST_BUFFER, requestBufferSize );
+        bufferPoolSize = getInt( properties, BUFFER_POOL, bufferPoolSize );
+        parallelStart = getBoolean( properties, PARALLEL_START, parallelStart );
+        lazyStart = getBoolean( properties, LAZY_START, lazyStart );
+        idleHibernateMinutes = getInt( properties, IDLE_HIBERNATE, idleHibernateMinutes );
+        scanInterval = getInt( properties, SCAN_INTERVAL, scanInterval );
+        dexCacheSize = getInt( properties, DEX_CACHE, dexCacheSize );
+        warmup = getBoolean( properties, WARMUP, warmup );
+        sharedLibraries = getBoolean( properties, SHARED_LIBRARIES, sharedLibraries );
+
+        String classes = properties.getProperty( CONFIGURATION_CLASSES );
+        if ( classes != null )
+        {
+            List<String> list = new ArrayList<String>();
+            StringTokenizer tok = new StringTokenizer( classes, ", \t\n" );
+            while ( tok.hasMoreTokens() )
+            {
+                list.add( tok.nextToken() );
+            }
+            configurationClasses = list.toArray( new String[list.size()] );
+        }
+    }
+
+    private static File resolve( File base, String path )
+    {
+        File file = new File( path.trim() );
+        return file.isAbsolute() || base == null ? file : new File( base, path.trim() );
+    }
+
+    private static int getInt( Properties properties, String key, int defaultValue )
+    {
+        String value = properties.getProperty( key );
+        if ( value == null || value.trim().length() == 0 )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt( value.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Bad value for " + key + ": " + value );
+        }
+    }
+
+    private static boolean getBoolean( Properties properties, String key, boolean defaultValue )
+    {
+        String value = properties.getProperty( key );
+        return value == null || value.trim().length() == 0 ? defaultValue : Boolean.valueOf( value.trim() ).booleanValue();
+    }
+
+    public File getHome()
+    {
+        return home;
+    }
+
+    public void setHome( File home )
+    {
+        this.home = home;
+    }
+
+    public File getWebAppDir()
+    {
+        return new File( home, WEBAPP_DIR );
+    }
+
+    public File getContextsDir()
+    {
+        return new File( home, CONTEXTS_DIR );
+    }
+
+    public File getEtcDir()
+    {
+        return new File( home, ETC_DIR );
+    }
+
+    /**
+     * @return the directory the optimized dex of the webapps is kept in,
+     *         outside the work directory as that is removed on start
+     */
+    public File getDexCacheDir()
+    {
+        return new File( home, DEX_CACHE_DIR );
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public void setPort( int port )
+    {
+        this.port = port;
+    }
+
+    public boolean isNio()
+    {
+        return nio;
+    }
+
+    public void setNio( boolean nio )
+    {
+        this.nio = nio;
+    }
+
+    public boolean isSsl()
+    {
+        return ssl;
+    }
+
+    public void setSsl( boolean ssl )
+    {
+        this.ssl = ssl;
+    }
+
+    public int getSslPort()
+    {
+        return sslPort;
+    }
+
+    public void setSslPort( int sslPort )
+    {
+        this.sslPort = sslPort;
+    }
+
+    public String getKeystore()
+    {
+        return keystore;
+    }
+
+    public void setKeystore( String keystore )
+    {
+        this.keystore = keystore;
+    }
+
+    public String getKeystorePassword()
+    {
+        return keystorePassword;
+    }
+
+    public void setKeystorePassword( String keystorePassword )
+    {
+        this.keystorePassword = keystorePassword;
+    }
+
+    public String getKeymanagerPassword()
+    {
+        return keymanagerPassword;
+    }
+
+    public void setKeymanagerPassword( String keymanagerPassword )
+    {
+        this.keymanagerPassword = keymanagerPassword;
+    }
+
+    public String getTruststore()
+    {
+        return truststore;
+    }
+
+    public void setTruststore( String truststore )
+    {
+        this.truststore = truststore;
+    }
+
+    public String getTruststorePassword()
+    {
+        return truststorePassword;
+    }
+
+    public void setTruststorePassword( String truststorePassword )
+    {
+        this.truststorePassword = truststorePassword;
+    }
+
+    /**
+     * @return the type of the keystore and truststore, bks on Android
+     */
+    public String getStoreType()
+    {
+        return storeType;
+    }
+
+    public void setStoreType( String storeType )
+    {
+        this.storeType = storeType;
+    }
+
+    public int getSslSessionCacheSize()
+    {
+        return sslSessionCacheSize;
+    }
+
+    public void setSslSessionCacheSize( int sslSessionCacheSize )
+    {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    public int getSslSessionTimeout()
+    {
+        return sslSessionTimeout;
+    }
+
+    public void setSslSessionTimeout( int sslSessionTimeout )
+    {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    public String getConsolePassword()
+    {
+        return consolePassword;
+    }
+
+    public void setConsolePassword( String consolePassword )
+    {
+        this.consolePassword = consolePassword;
+    }
+
+    public int getMinThreads()
+    {
+        return minThreads;
+    }
+
+    /**
+     * @param minThreads
+     *            the core threads, 0 to size from the number of webapps
+     */
+    public void setMinThreads( int minThreads )
+    {
+        this.minThreads = minThreads;
+    }
+
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    /**
+     * @param maxThreads
+     *            the maximum threads, 0 to size from the number of webapps
+     */
+    public void setMaxThreads( int maxThreads )
+    {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getThreadIdleTimeout()
+    {
+        return threadIdleTimeout;
+    }
+
+    public void setThreadIdleTimeout( int threadIdleTimeout )
+    {
+        this.threadIdleTimeout = threadIdleTimeout;
+    }
+
+    public int getMaxQueued()
+    {
+        return maxQueued;
+    }
+
+    public void setMaxQueued( int maxQueued )
+    {
+        this.maxQueued = maxQueued;
+    }
+
+    public boolean isDirectBuffers()
+    {
+        return directBuffers;
+    }
+
+    public void setDirectBuffers( boolean directBuffers )
+    {
+        this.directBuffers = directBuffers;
+    }
+
+    /**
+     * @return the request header buffer size in KB, 0 for the jetty default
+     */
+    public int getHeaderBufferSize()
+    {
+        return headerBufferSize;
+    }
+
+    public void setHeaderBufferSize( int headerBufferSize )
+    {
+        this.headerBufferSize = headerBufferSize;
+    }
+
+    /**
+     * @return the request buffer size in KB, 0 for the jetty default
+     */
+    public int getRequestBufferSize()
+    {
+        return requestBufferSize;
+    }
+
+    public void setRequestBufferSize( int requestBufferSize )
+    {
+        this.requestBufferSize = requestBufferSize;
+    }
+
+    /**
+     * @return the KB of buffers kept pooled per connector
+     */
+    public int getBufferPoolSize()
+    {
+        return bufferPoolSize;
+    }
+
+    public void setBufferPoolSize( int bufferPoolSize )
+    {
+        this.bufferPoolSize = bufferPoolSize;
+    }
+
+    public boolean isParallelStart()
+    {
+        return parallelStart;
+    }
+
+    public void setParallelStart( boolean parallelStart )
+    {
+        this.parallelStart = parallelStart;
+    }
+
+    public boolean isLazyStart()
+    {
+        return lazyStart;
+    }
+
+    public void setLazyStart( boolean lazyStart )
+    {
+        this.lazyStart = lazyStart;
+    }
+
+    public int getIdleHibernateMinutes()
+    {
+        return idleHibernateMinutes;
+    }
+
+    public void setIdleHibernateMinutes( int idleHibernateMinutes )
+    {
+        this.idleHibernateMinutes = idleHibernateMinutes;
+    }
+
+    /**
+     * @return the seconds between scans of the contexts directory
+     */
+    public int getScanInterval()
+    {
+        return scanInterval;
+    }
+
+    public void setScanInterval( int scanInterval )
+    {
+        this.scanInterval = scanInterval;
+    }
+
+    /**
+     * @return the KB of archives and optimized dex kept in the dex cache, 0
+     *         to not cache them
+     */
+    public int getDexCacheSize()
+    {
+        return dexCacheSize;
+    }
+
+    public void setDexCacheSize( int dexCacheSize )
+    {
+        this.dexCacheSize = dexCacheSize;
+    }
+
+    /**
+     * @return true if the classes of the first requests of each webapp are
+     *         recorded and loaded ahead of them on the next start
+     */
+    public boolean isWarmup()
+    {
+        return warmup;
+    }
+
+    public void setWarmup( boolean warmup )
+    {
+        this.warmup = warmup;
+    }
+
+    /**
+     * @return true if the archives the webapps have in common are loaded
+     *         once for all of them; needs the dex cache
+     */
+    public boolean isSharedLibraries()
+    {
+        return sharedLibraries;
+    }
+
+    public void setSharedLibraries( boolean sharedLibraries )
+    {
+        this.sharedLibraries = sharedLibraries;
+    }
+
+    public String[] getConfigurationClasses()
+    {
+        return configurationClasses;
+    }
+
+    /**
+     * @param configurationClasses
+     *            the configurations of the deployed webapps, by default
+     *            {@link #ANDROID_CONFIGURATION_CLASSES};
+     *            {@link #JVM_CONFIGURATION_CLASSES} load the webapps classes
+     *            from WEB-INF on a plain JVM
+     */
+    public void setConfigurationClasses( String[] configurationClasses )
+    {
+        this.configurationClasses = configurationClasses;
+    }
+
+    /**
+     * @return the attributes set on every deployed context
+     */
+    public Map<String, Object> getAttributes()
+    {
+        return Collections.unmodifiableMap( attributes );
+    }
+
+    /**
+     * Set an attribute on every deployed context, e.g. the ContentResolver the
+     * console webapp reads the phone's data through, or a stand-in for it.
+     */
+    public void setAttribute( String name, Object value )
+    {
+        if ( value == null )
+        {
+            attributes.remove( name );
+        }
+        else
+        {
+            attributes.put( name, value );
+        }
+    }
+
+    public Handler getDefaultHandler()
+    {
+        return defaultHandler;
+    }
+
+    /**
+     * @param defaultHandler
+     *            the handler of requests no context takes, by default jetty's
+     *            DefaultHandler
+     */
+    public void setDefaultHandler( Handler defaultHandler )
+    {
+        this.defaultHandler = defaultHandler;
+    }
+}
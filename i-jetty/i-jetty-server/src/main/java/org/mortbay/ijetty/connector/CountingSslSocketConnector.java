@@ -0,0 +1,60 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.connector;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+
+import org.eclipse.jetty.http.ssl.SslContextFactory;
+import org.eclipse.jetty.server.ssl.SslSocketConnector;
+import org.mortbay.ijetty.ssl.CachingSslContextFactory;
+import org.mortbay.ijetty.ssl.SslHandshakeCounter;
+
+/**
+ * CountingSslSocketConnector
+ *
+ * SslSocketConnector that counts full and resumed handshakes when it is given
+ * a {@link CachingSslContextFactory}.
+ */
+public class CountingSslSocketConnector extends SslSocketConnector
+{
+    public CountingSslSocketConnector( SslContextFactory sslContextFactory )
+    {
+        super( sslContextFactory );
+    }
+
+    /**
+     * @return the handshake counter, or null if the handshakes are not counted
+     */
+    public SslHandshakeCounter getHandshakeCounter()
+    {
+        SslContextFactory factory = getSslContextFactory();
+        return factory instanceof CachingSslContextFactory ? ((CachingSslContextFactory) factory).getHandshakeCounter() : null;
+    }
+
+    @Override
+    protected void configure( Socket socket ) throws IOException
+    {
+        super.configure( socket );
+
+        SslHandshakeCounter handshakes = getHandshakeCounter();
+        if ( handshakes != null && socket instanceof SSLSocket )
+        {
+            ((SSLSocket) socket).addHandshakeCompletedListener( handshakes );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.connector;
+
+import org.eclipse.jetty.io.Buffers;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.mortbay.ijetty.io.BufferPool;
+import org.mortbay.ijetty.io.ConnectorBufferPools;
+
+/**
+ * PooledSelectChannelConnector
+ *
+ * SelectChannelConnector whose connections take their request and response
+ * buffers from {@link BufferPool}s rather than allocating fresh ones.
+ */
+public class PooledSelectChannelConnector extends SelectChannelConnector
+{
+    private final ConnectorBufferPools bufferPools = new ConnectorBufferPools();
+
+    public ConnectorBufferPools getBufferPools()
+    {
+        return bufferPools;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        bufferPools.open( this );
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        bufferPools.close();
+    }
+
+    @Override
+    public Buffers getRequestBuffers()
+    {
+        BufferPool pool = bufferPools.getRequestBuffers();
+        return pool != null ? pool : super.getRequestBuffers();
+    }
+
+    @Override
+    public Buffers getResponseBuffers()
+    {
+        BufferPool pool = bufferPools.getResponseBuffers();
+        return pool != null ? pool : super.getResponseBuffers();
+    }
+}
@@ -0,0 +1,115 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.connector;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jetty.http.ssl.SslContextFactory;
+import org.eclipse.jetty.io.Buffers;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
+import org.mortbay.ijetty.io.BufferPool;
+import org.mortbay.ijetty.io.ConnectorBufferPools;
+import org.mortbay.ijetty.ssl.CachingSslContextFactory;
+import org.mortbay.ijetty.ssl.SslHandshakeCounter;
+
+/**
+ * PooledSslSelectChannelConnector
+ *
+ * SslSelectChannelConnector whose connections take their request and response
+ * buffers from {@link BufferPool}s rather than allocating fresh ones. The pools
+ * are sized after the connector has started, as the SSL connector grows its
+ * request buffers to the SSL application buffer size during start.
+ *
+ * With a {@link CachingSslContextFactory} the handshake of each connection is
+ * counted, when its first request is customized, as full or resumed.
+ */
+public class PooledSslSelectChannelConnector extends SslSelectChannelConnector
+{
+    public static final String SSL_SESSION_ID_ATTRIBUTE = "javax.servlet.request.ssl_session_id";
+
+    private final ConnectorBufferPools bufferPools = new ConnectorBufferPools();
+    private final Map<EndPoint, Boolean> connections = new WeakHashMap<EndPoint, Boolean>();
+
+    public PooledSslSelectChannelConnector( SslContextFactory sslContextFactory )
+    {
+        super( sslContextFactory );
+    }
+
+    public ConnectorBufferPools getBufferPools()
+    {
+        return bufferPools;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        bufferPools.open( this );
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        bufferPools.close();
+    }
+
+    /**
+     * @return the handshake counter, or null if the handshakes are not counted
+     */
+    public SslHandshakeCounter getHandshakeCounter()
+    {
+        SslContextFactory factory = getSslContextFactory();
+        return factory instanceof CachingSslContextFactory ? ((CachingSslContextFactory) factory).getHandshakeCounter() : null;
+    }
+
+    @Override
+    public void customize( EndPoint endpoint, Request request ) throws IOException
+    {
+        super.customize( endpoint, request );
+
+        SslHandshakeCounter handshakes = getHandshakeCounter();
+        if ( handshakes != null )
+        {
+            boolean first;
+            synchronized ( connections )
+            {
+                first = connections.put( endpoint, Boolean.TRUE ) == null;
+            }
+            if ( first )
+            {
+                handshakes.handshake( (String) request.getAttribute( SSL_SESSION_ID_ATTRIBUTE ) );
+            }
+        }
+    }
+
+    @Override
+    public Buffers getRequestBuffers()
+    {
+        BufferPool pool = bufferPools.getRequestBuffers();
+        return pool != null ? pool : super.getRequestBuffers();
+    }
+
+    @Override
+    public Buffers getResponseBuffers()
+    {
+        BufferPool pool = bufferPools.getResponseBuffers();
+        return pool != null ? pool : super.getResponseBuffers();
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Map;
 
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.deploy.ConfigurationManager;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.util.AttributesMap;
@@ -17,12 +18,18 @@ import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.Scanner;
 import org.eclipse.jetty.xml.XmlConfiguration;
+import org.mortbay.ijetty.profile.StartupTimeline;
 
 /**
  * AndroidContextDeployer
  * TODO this class should be able to extend ContextDeployer rather than
  * reimplement it entirely.
  *
+ * If {@link #setLazy(boolean)} is set, the context xml files are still applied
+ * when found, but each context is deployed behind a {@link LazyContextHandler}
+ * and only started by the first request for it. If {@link #setHibernate(boolean)}
+ * is set, contexts are also deployed behind one, so that an
+ * {@link IdleContextTracker} can stop them when idle.
  */
 public class AndroidContextDeployer extends AbstractLifeCycle {
     /* ------------------------------------------------------------ */
@@ -73,6 +80,8 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
     private ConfigurationManager     _configMgr;
 
     private boolean                  _recursive          = false;
+    private boolean                  _lazy               = false;
+    private boolean                  _hibernate          = false;
 
     public AndroidContextDeployer() throws Exception {
         _scanner = new Scanner();
@@ -106,13 +115,31 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
         }
 
         xmlConfiguration.setProperties(properties);
-        ContextHandler context = (ContextHandler) xmlConfiguration.configure();
+        Object timeline = _attributes.getAttribute(StartupTimeline.ATTRIBUTE);
+        StartupTimeline.Span xml = null;
+        if (timeline instanceof StartupTimeline) {
+            xml = ((StartupTimeline) timeline).begin(resource.getName(), "xml");
+        }
+        ContextHandler context;
+        try {
+            context = (ContextHandler) xmlConfiguration.configure();
+        } catch (Exception e) {
+            if (xml != null) {
+                xml.fail();
+            }
+            throw e;
+        }
+        if (xml != null) {
+            // under the context path, with the other phases of the context
+            xml.end(context.getContextPath());
+        }
 
         Enumeration<?> names = _attributes.getAttributeNames();
         while (names.hasMoreElements()) {
             String name = (String) names.nextElement();
             context.setAttribute(name, _attributes.getAttribute(name));
         }
+        StartupTimeline.watch(context);
 
         return context;
     }
@@ -122,10 +149,16 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
     public void deploy(String filename) throws Exception {
         ContextHandler context = createContext(filename);
         Log.info("Deploy " + filename + " -> " + context);
-        _contexts.addHandler(context);
-        _currentDeployments.put(filename, context);
+        Handler handler = context;
+        if (_lazy || _hibernate) {
+            LazyContextHandler placeholder = new LazyContextHandler(context);
+            placeholder.setActivateOnStart(!_lazy);
+            handler = placeholder;
+        }
+        _contexts.addHandler(handler);
+        _currentDeployments.put(filename, handler);
         if (_contexts.isStarted()) {
-            context.start();
+            handler.start();
         }
     }
 
@@ -227,6 +260,14 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
         return _scanInterval;
     }
 
+    public boolean isHibernate() {
+        return _hibernate;
+    }
+
+    public boolean isLazy() {
+        return _lazy;
+    }
+
     public boolean isRecursive() {
         return _recursive;
     }
@@ -300,6 +341,26 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
         setConfigurationDir(directory);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param hibernate
+     *            true to deploy each context so that it can be stopped when
+     *            idle and started again by its next request
+     */
+    public void setHibernate(boolean hibernate) {
+        _hibernate = hibernate;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param lazy
+     *            true to start each context on its first request rather than
+     *            when it is deployed
+     */
+    public void setLazy(boolean lazy) {
+        _lazy = lazy;
+    }
+
     public void setRecursive(boolean recursive) {
         _recursive = recursive;
     }
@@ -308,24 +369,26 @@ public class AndroidContextDeployer extends AbstractLifeCycle {
     /**
      * @param seconds
      *            The period in second between scans for changed configuration
-     *            files. A zero or negative interval disables hot deployment
+     *            files. A zero or negative interval disables hot deployment.
+     *            Once started, the scanner is rescheduled with the new
+     *            period.
      */
     public void setScanInterval(int seconds) {
+        _scanInterval = seconds;
         if (isStarted() || isStarting()) {
-            throw new IllegalStateException("Cannot change scan interval after deployer start");
+            _scanner.setScanInterval(seconds);
         }
-        _scanInterval = seconds;
     }
 
     /* ------------------------------------------------------------ */
     public void undeploy(String filename) throws Exception {
-        ContextHandler context = (ContextHandler) _currentDeployments.get(filename);
-        Log.info("Undeploy " + filename + " -> " + context);
-        if (context == null) {
+        Handler handler = (Handler) _currentDeployments.get(filename);
+        Log.info("Undeploy " + filename + " -> " + handler);
+        if (handler == null) {
             return;
         }
-        context.stop();
-        _contexts.removeHandler(context);
+        handler.stop();
+        _contexts.removeHandler(handler);
         _currentDeployments.remove(filename);
     }
 }
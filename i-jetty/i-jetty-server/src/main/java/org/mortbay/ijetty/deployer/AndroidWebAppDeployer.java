@@ -15,9 +15,24 @@
 
 package org.mortbay.ijetty.deployer;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HandlerContainer;
@@ -26,12 +41,13 @@ import org.eclipse.jetty.deploy.WebAppDeployer;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerCollection;
-import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.AttributesMap;
 import org.eclipse.jetty.util.URIUtil;
+import org.mortbay.ijetty.profile.StartupTimeline;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
 
 /**
  * Web Application Deployer.
@@ -47,24 +63,45 @@ import org.eclipse.jetty.util.URIUtil;
  * per webapplication configuration. For these features see
  * {@link ContextDeployer}.
  * 
+ * If {@link #setParallelStart(boolean)} is set, the webapps found by a scan are
+ * started concurrently on up to {@link #getStartThreads()} threads. A webapp
+ * that must not start before another one can declare so, either through
+ * {@link #addStartDependency(String, String)} or by listing the context paths
+ * it depends on, one per line, in a <code>WEB-INF/start-after</code> file.
+ * A webapp that fails to start is reported and does not stop the others,
+ * except those that depend on it.
+ * 
+ * If {@link #setLazy(boolean)} is set, each webapp is deployed behind a
+ * {@link LazyContextHandler} and only started by the first request for it.
+ * If {@link #setHibernate(boolean)} is set, each webapp is also deployed behind
+ * one, so that an {@link IdleContextTracker} can stop it when idle.
+ * 
  * @see {@link ContextDeployer}
  */
 public class AndroidWebAppDeployer extends WebAppDeployer {
-    private List<? super ServletContextHandler>     _deployed;
+    public static final String START_AFTER = "WEB-INF/start-after";
+
+    private List<Handler> _deployed;
     private AttributesMap _attributes = new AttributesMap();
+    private boolean _parallelStart = false;
+    private boolean _lazy = false;
+    private boolean _hibernate = false;
+    private int _startThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private final Map<String, Set<String>> _dependencies = new HashMap<String, Set<String>>();
+    private final Map<String, Throwable> _failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
 
     /* ------------------------------------------------------------ */
     @Override
     public void doStart() throws Exception {
-        _deployed = new ArrayList<ServletContextHandler>();
+        _deployed = new ArrayList<Handler>();
         scan();
     }
 
     @Override
     public void doStop() throws Exception {
         for (int i = _deployed.size(); i-- > 0;) {
-            ContextHandler wac = (ContextHandler) _deployed.get(i);
-            wac.stop();// TODO Multi exception
+            Handler handler = _deployed.get(i);
+            handler.stop();// TODO Multi exception
         }
     }
 
@@ -72,6 +109,92 @@ public class AndroidWebAppDeployer extends WebAppDeployer {
         return _attributes.getAttribute(name);
     }
 
+    public boolean isLazy() {
+        return _lazy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param lazy
+     *            true to start each webapp on its first request rather than
+     *            when it is deployed
+     */
+    public void setLazy(boolean lazy) {
+        _lazy = lazy;
+    }
+
+    public boolean isHibernate() {
+        return _hibernate;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param hibernate
+     *            true to deploy each webapp so that it can be stopped when
+     *            idle and started again by its next request
+     */
+    public void setHibernate(boolean hibernate) {
+        _hibernate = hibernate;
+    }
+
+    public boolean isParallelStart() {
+        return _parallelStart;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param parallelStart
+     *            true to start the webapps found by a scan concurrently
+     */
+    public void setParallelStart(boolean parallelStart) {
+        _parallelStart = parallelStart;
+    }
+
+    public int getStartThreads() {
+        return _startThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param threads
+     *            the maximum number of webapps started at once in parallel
+     *            mode
+     */
+    public void setStartThreads(int threads) {
+        _startThreads = Math.max(1, threads);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Declare that a webapp must only be started once another has started.
+     * 
+     * @param contextPath
+     *            the context path of the dependent webapp
+     * @param dependsOn
+     *            the context path of the webapp it needs
+     */
+    public void addStartDependency(String contextPath, String dependsOn) {
+        synchronized (_dependencies) {
+            Set<String> paths = _dependencies.get(contextPath);
+            if (paths == null) {
+                paths = new HashSet<String>();
+                _dependencies.put(contextPath, paths);
+            }
+            paths.add(dependsOn);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the webapps that failed to start in parallel mode during the
+     *         last scan, by context path
+     */
+    public Map<String, Throwable> getFailures() {
+        synchronized (_failures) {
+            return new LinkedHashMap<String, Throwable>(_failures);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Scan for webapplications.
@@ -94,6 +217,8 @@ public class AndroidWebAppDeployer extends WebAppDeployer {
         }
 
         String[] files = r.list();
+        List<WebAppContext> prepared = new ArrayList<WebAppContext>();
+        Set<String> installedPaths = null;
 
         files: for (int f = 0; (files != null) && (f < files.length); f++) {
             String context = files[f];
@@ -129,32 +254,24 @@ public class AndroidWebAppDeployer extends WebAppDeployer {
             // Check the context path has not already been added or the webapp
             // itself is not already deployed
             if (!getAllowDuplicates()) {
-                Handler[] installed = getContexts().getChildHandlersByClass(ContextHandler.class);
-                for (int i = 0; i < installed.length; i++) {
-                    ContextHandler c = (ContextHandler) installed[i];
-
-                    if (context.equals(c.getContextPath())) {
-                        if (Log.isDebugEnabled()) {
-                            Log.debug(context + " Context were equal; duplicate!");
-                        }
-                        continue files;
-                    }
-
-                    String path;
-                    if (c instanceof WebAppContext) {
-                        path = Resource.newResource(((WebAppContext) c).getWar()).getFile().getAbsolutePath();
-                    } else {
-                        path = c.getBaseResource().getFile().getAbsolutePath();
+                if (isDeployed(context)) {
+                    if (Log.isDebugEnabled()) {
+                        Log.debug(context + " Context were equal; duplicate!");
                     }
+                    continue files;
+                }
 
-                    if ((path != null) && path.equals(app.getFile().getAbsolutePath())) {
-                        if (Log.isDebugEnabled()) {
-                            Log.debug(path + " Paths were equal; duplicate!");
-                        }
-                        continue files;
+                if (installedPaths == null) {
+                    installedPaths = getInstalledPaths();
+                }
+                String path = app.getFile().getAbsolutePath();
+                if (installedPaths.contains(path)) {
+                    if (Log.isDebugEnabled()) {
+                        Log.debug(path + " Paths were equal; duplicate!");
                     }
-
+                    continue files;
                 }
+                installedPaths.add(path);
             }
 
             // create a webapp
@@ -190,13 +307,235 @@ public class AndroidWebAppDeployer extends WebAppDeployer {
                 String name = (String) names.nextElement();
                 wah.setAttribute(name, _attributes.getAttribute(name));
             }
+            StartupTimeline.watch(wah);
 
             // add it
             Log.debug("AndroidWebAppDeployer: prepared " + app.toString());
-            contexts.addHandler(wah);
-            _deployed.add(wah);
-            //jetty-7.3.0 onwards need to start explicitly due to different startup time ordering
-            wah.start();
+            if (_lazy || _hibernate) {
+                LazyContextHandler placeholder = new LazyContextHandler(wah);
+                contexts.addHandler(placeholder);
+                _deployed.add(placeholder);
+                placeholder.start();
+                if (_lazy) {
+                    continue;
+                }
+            } else {
+                contexts.addHandler(wah);
+                _deployed.add(wah);
+            }
+
+            if (_parallelStart) {
+                readStartDependencies(context, app);
+                prepared.add(wah);
+            } else {
+                //jetty-7.3.0 onwards need to start explicitly due to different startup time ordering
+                wah.start();
+            }
+        }
+
+        if (!prepared.isEmpty()) {
+            startParallel(prepared);
+        }
+
+        // contexts started eagerly behind a placeholder were last used now
+        if (_hibernate && !_lazy) {
+            for (Handler handler : _deployed) {
+                if (handler instanceof LazyContextHandler) {
+                    ((LazyContextHandler) handler).markActivated();
+                }
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if a context is already deployed at the context path
+     */
+    private boolean isDeployed(String contextPath) {
+        HandlerCollection contexts = getContexts();
+        if (contexts instanceof IndexedContextHandlerCollection) {
+            return ((IndexedContextHandlerCollection) contexts).getContexts(contextPath).length > 0;
+        }
+
+        Handler[] installed = contexts.getChildHandlersByClass(ContextHandler.class);
+        for (int i = 0; i < installed.length; i++) {
+            if (contextPath.equals(((ContextHandler) installed[i]).getContextPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the absolute paths of the webapps of the deployed contexts,
+     *         looked up once per scan rather than once per webapp found
+     */
+    private Set<String> getInstalledPaths() throws Exception {
+        HandlerCollection contexts = getContexts();
+        Handler[] installed;
+        if (contexts instanceof IndexedContextHandlerCollection) {
+            installed = ((IndexedContextHandlerCollection) contexts).getContexts();
+        } else {
+            installed = contexts.getChildHandlersByClass(ContextHandler.class);
+        }
+
+        Set<String> paths = new HashSet<String>();
+        for (int i = 0; i < installed.length; i++) {
+            ContextHandler c = (ContextHandler) installed[i];
+            Resource resource;
+            if (c instanceof WebAppContext) {
+                resource = Resource.newResource(((WebAppContext) c).getWar());
+            } else {
+                resource = c.getBaseResource();
+            }
+
+            if ((resource != null) && (resource.getFile() != null)) {
+                paths.add(resource.getFile().getAbsolutePath());
+            }
+        }
+        return paths;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Start webapps concurrently, dependencies before the webapps that need
+     * them, and wait until every one of them has started or failed.
+     * 
+     * @param contexts
+     *            the webapps to start
+     * @throws InterruptedException
+     */
+    protected void startParallel(List<WebAppContext> contexts) throws InterruptedException {
+        _failures.clear();
+        Map<String, WebAppContext> byPath = new LinkedHashMap<String, WebAppContext>();
+        for (WebAppContext wac : contexts) {
+            byPath.put(wac.getContextPath(), wac);
+        }
+
+        // submit in dependency order so that a starter only ever waits on
+        // starters queued ahead of it, which cannot deadlock the pool
+        List<String> order = new ArrayList<String>();
+        Set<String> visiting = new HashSet<String>();
+        for (String path : byPath.keySet()) {
+            orderDependencies(path, byPath, order, visiting);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_startThreads, contexts.size()), new StarterThreadFactory());
+        Map<String, Future<WebAppContext>> started = new LinkedHashMap<String, Future<WebAppContext>>();
+        try {
+            for (String path : order) {
+                List<Future<WebAppContext>> dependencies = new ArrayList<Future<WebAppContext>>();
+                for (String dependsOn : getStartDependencies(path)) {
+                    Future<WebAppContext> dependency = started.get(dependsOn);
+                    if (dependency != null) {
+                        dependencies.add(dependency);
+                    }
+                }
+                started.put(path, executor.submit(new ContextStarter(byPath.get(path), dependencies)));
+            }
+
+            for (Map.Entry<String, Future<WebAppContext>> entry : started.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    Log.warn("Failed to start " + entry.getKey(), e.getCause());
+                    _failures.put(entry.getKey(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void orderDependencies(String path, Map<String, WebAppContext> byPath, List<String> order, Set<String> visiting) {
+        if (order.contains(path) || !byPath.containsKey(path)) {
+            return;
+        }
+        if (!visiting.add(path)) {
+            Log.warn("Circular start dependency on " + path + ", ignoring it");
+            return;
+        }
+        for (String dependsOn : getStartDependencies(path)) {
+            orderDependencies(dependsOn, byPath, order, visiting);
+        }
+        visiting.remove(path);
+        if (!order.contains(path)) {
+            order.add(path);
+        }
+    }
+
+    private Set<String> getStartDependencies(String contextPath) {
+        synchronized (_dependencies) {
+            Set<String> paths = _dependencies.get(contextPath);
+            return paths == null ? Collections.<String> emptySet() : new HashSet<String>(paths);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Pick up the context paths listed in the webapp's start-after file.
+     */
+    private void readStartDependencies(String contextPath, Resource app) {
+        try {
+            Resource startAfter = app.addPath(START_AFTER);
+            if (!startAfter.exists()) {
+                return;
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(startAfter.getInputStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0 && !line.startsWith("#")) {
+                        addStartDependency(contextPath, line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            Log.warn("Unable to read " + START_AFTER + " of " + app, e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Starts one webapp once the webapps it depends on have started.
+     */
+    private static class ContextStarter implements Callable<WebAppContext> {
+        private final WebAppContext _context;
+        private final List<Future<WebAppContext>> _dependencies;
+
+        private ContextStarter(WebAppContext context, List<Future<WebAppContext>> dependencies) {
+            _context = context;
+            _dependencies = dependencies;
+        }
+
+        public WebAppContext call() throws Exception {
+            for (Future<WebAppContext> dependency : _dependencies) {
+                try {
+                    dependency.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Not starting " + _context.getContextPath() + ": a webapp it depends on failed", e.getCause());
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            _context.start();
+            Log.debug("AndroidWebAppDeployer: started " + _context.getContextPath() + " in " + (System.currentTimeMillis() - start) + "ms");
+            return _context;
+        }
+    }
+
+    private static class StarterThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ijetty-deploy-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
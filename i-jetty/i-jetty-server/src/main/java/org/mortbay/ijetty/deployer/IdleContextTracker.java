@@ -0,0 +1,188 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.deployer;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.mortbay.ijetty.memory.MemoryPressureCoordinator;
+import org.mortbay.ijetty.memory.Reclaimable;
+
+/**
+ * IdleContextTracker
+ *
+ * Periodically hibernates the contexts deployed behind a
+ * {@link LazyContextHandler} that have not handled a request for longer than
+ * the idle timeout. A hibernated context stays routable and is started again
+ * by its next request.
+ *
+ * The deployers only put contexts behind a placeholder when lazy start or
+ * hibernation is enabled on them.
+ *
+ * Under critical memory pressure contexts idle for a minute are hibernated
+ * as well, and on low memory all those not handling a request, whether or not
+ * the tracker is started.
+ */
+public class IdleContextTracker extends AbstractLifeCycle implements Reclaimable
+{
+    public static final long PRESSURE_IDLE_MS = 60 * 1000L;
+
+    private final Server server;
+    private long idleTimeout = 30 * 60 * 1000L;
+    private long scanInterval;
+    private Timer timer;
+    private volatile int hibernated;
+
+    public IdleContextTracker( Server server )
+    {
+        this.server = server;
+    }
+
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    /**
+     * @param ms
+     *            how long a context must go without a request before it is
+     *            hibernated
+     */
+    public void setIdleTimeout( long ms )
+    {
+        this.idleTimeout = ms;
+    }
+
+    /**
+     * @return the period between scans for idle contexts, by default a
+     *         quarter of the idle timeout, at least 10s and at most 5 minutes
+     */
+    public long getScanInterval()
+    {
+        if ( scanInterval > 0 )
+        {
+            return scanInterval;
+        }
+        return Math.min( 5 * 60 * 1000L, Math.max( 10000L, idleTimeout / 4 ) );
+    }
+
+    public void setScanInterval( long ms )
+    {
+        this.scanInterval = ms;
+    }
+
+    /**
+     * @return how many contexts have been hibernated since the tracker started
+     */
+    public int getHibernated()
+    {
+        return hibernated;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        hibernated = 0;
+        long interval = getScanInterval();
+        timer = new Timer( "ijetty-idle", true );
+        timer.schedule( new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    scan();
+                }
+                catch ( Throwable e )
+                {
+                    Log.warn( e );
+                }
+            }
+        }, interval, interval );
+        Log.debug( "Hibernating contexts idle for " + idleTimeout + "ms, checking every " + interval + "ms" );
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        timer.cancel();
+        timer = null;
+    }
+
+    /**
+     * Hibernate the contexts that have been idle for longer than the idle
+     * timeout.
+     *
+     * @return the number of contexts hibernated
+     */
+    public int scan()
+    {
+        return isRunning() ? hibernateIdle( idleTimeout ) : 0;
+    }
+
+    /**
+     * Hibernate the contexts that have not handled a request for longer than
+     * the given time.
+     *
+     * @return the number of contexts hibernated
+     */
+    public int hibernateIdle( long idleMs )
+    {
+        Handler[] placeholders = server.getChildHandlersByClass( LazyContextHandler.class );
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for ( int i = 0; placeholders != null && i < placeholders.length; i++ )
+        {
+            LazyContextHandler placeholder = (LazyContextHandler) placeholders[i];
+            if ( placeholder.isActive() && placeholder.getActiveRequests() == 0 && now - placeholder.getLastAccessed() >= idleMs )
+            {
+                if ( placeholder.hibernate() )
+                {
+                    count++;
+                }
+            }
+        }
+        hibernated += count;
+        return count;
+    }
+
+    /**
+     * Hibernate idle contexts: all of them when the process is next to be
+     * killed, those idle for a while when memory runs critically low or the
+     * process is halfway down the cached list. The memory they free is not
+     * known up front.
+     */
+    public long reclaim( int level )
+    {
+        switch ( level )
+        {
+            case MemoryPressureCoordinator.TRIM_MEMORY_COMPLETE:
+                hibernateIdle( 0 );
+                break;
+            case MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_CRITICAL:
+            case MemoryPressureCoordinator.TRIM_MEMORY_MODERATE:
+                hibernateIdle( Math.min( idleTimeout, PRESSURE_IDLE_MS ) );
+                break;
+            default:
+                break;
+        }
+        return 0;
+    }
+}
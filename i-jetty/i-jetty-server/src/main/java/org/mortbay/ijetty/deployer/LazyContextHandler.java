@@ -0,0 +1,360 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.deployer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandlerContainer;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.mortbay.ijetty.webapp.AndroidClassLoader;
+
+/**
+ * LazyContextHandler
+ *
+ * Placeholder deployed in place of a context so that the context is only
+ * started when the first request for it arrives. The placeholder exposes the
+ * context as its child, so the ContextHandlerCollection routes the context
+ * path to it, but does not start it with itself.
+ *
+ * The first request starts the context while any other requests arriving in
+ * the meantime wait for it. If the context fails to start, requests are
+ * answered with 503 until the placeholder is restarted, e.g. by redeploying.
+ *
+ * A started context can be put back to sleep with {@link #hibernate()}, which
+ * stops it and lets go of its class loader. The next request starts it again.
+ * See {@link IdleContextTracker}.
+ */
+public class LazyContextHandler extends AbstractHandlerContainer
+{
+    private final ContextHandler context;
+    private final Object lock = new Object();
+    private final ReadWriteLock requestLock = new ReentrantReadWriteLock();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private boolean activateOnStart;
+    private volatile Throwable failure;
+    private volatile long activatedAt;
+    private volatile long lastAccessed;
+    private volatile int hibernations;
+
+    public LazyContextHandler( ContextHandler context )
+    {
+        if ( context == null )
+        {
+            throw new IllegalArgumentException( "No context" );
+        }
+        this.context = context;
+    }
+
+    /**
+     * @return the context started on the first request
+     */
+    public ContextHandler getContext()
+    {
+        return context;
+    }
+
+    public String getContextPath()
+    {
+        return context.getContextPath();
+    }
+
+    public boolean isActive()
+    {
+        return context.isStarted();
+    }
+
+    /**
+     * @return why the context failed to start, or null
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return when the context was last started, or 0 if not yet
+     */
+    public long getActivatedAt()
+    {
+        return activatedAt;
+    }
+
+    /**
+     * @return when the context last started or finished handling a request,
+     *         or 0 if not yet
+     */
+    public long getLastAccessed()
+    {
+        return lastAccessed;
+    }
+
+    public int getActiveRequests()
+    {
+        return activeRequests.get();
+    }
+
+    /**
+     * @return how many times the context has been hibernated
+     */
+    public int getHibernations()
+    {
+        return hibernations;
+    }
+
+    public boolean isActivateOnStart()
+    {
+        return activateOnStart;
+    }
+
+    /**
+     * @param activateOnStart
+     *            true to start the context with the placeholder rather than on
+     *            the first request, for contexts that should only be deferred
+     *            once they have been hibernated
+     */
+    public void setActivateOnStart( boolean activateOnStart )
+    {
+        this.activateOnStart = activateOnStart;
+    }
+
+    /**
+     * Take the context as activated now, if it was started by its deployer
+     * rather than by the placeholder, so that it is not taken as idle since
+     * it was deployed.
+     */
+    void markActivated()
+    {
+        if ( context.isStarted() && activatedAt == 0 )
+        {
+            activatedAt = System.currentTimeMillis();
+            lastAccessed = activatedAt;
+        }
+    }
+
+    /**
+     * Start the context if it is not already started, waiting for a start in
+     * progress on another thread.
+     *
+     * @return true if the context is started
+     */
+    public boolean activate()
+    {
+        if ( context.isStarted() )
+        {
+            return true;
+        }
+
+        synchronized ( lock )
+        {
+            if ( context.isStarted() )
+            {
+                return true;
+            }
+            if ( failure != null || !isRunning() )
+            {
+                return false;
+            }
+
+            long start = System.currentTimeMillis();
+            try
+            {
+                context.start();
+                activatedAt = System.currentTimeMillis();
+                lastAccessed = activatedAt;
+                Log.info( "Activated " + getContextPath() + " in " + (activatedAt - start) + "ms" );
+                return true;
+            }
+            catch ( Exception e )
+            {
+                failure = e;
+                Log.warn( "Failed to activate " + getContextPath(), e );
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stop the context and release its class loader if no request is being
+     * handled by it. Requests that arrive while it is stopping wait, then start
+     * it again.
+     *
+     * @return true if the context was stopped
+     */
+    public boolean hibernate()
+    {
+        if ( !context.isStarted() || !requestLock.writeLock().tryLock() )
+        {
+            return false;
+        }
+
+        try
+        {
+            synchronized ( lock )
+            {
+                if ( !context.isStarted() )
+                {
+                    return false;
+                }
+
+                try
+                {
+                    context.stop();
+                }
+                catch ( Exception e )
+                {
+                    Log.warn( "Failed to hibernate " + getContextPath(), e );
+                    return false;
+                }
+
+                // the class loader of a webapp is made by AndroidWebInfConfiguration
+                // on each start, so let go of this one and the dex files it holds
+                if ( context instanceof WebAppContext && context.getClassLoader() instanceof AndroidClassLoader )
+                {
+                    context.setClassLoader( null );
+                }
+
+                hibernations++;
+                Log.info( "Hibernated " + getContextPath() + " after " + (System.currentTimeMillis() - lastAccessed) + "ms idle" );
+                return true;
+            }
+        }
+        finally
+        {
+            requestLock.writeLock().unlock();
+        }
+    }
+
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        if ( !isStarted() || baseRequest.isHandled() )
+        {
+            return;
+        }
+
+        requestLock.readLock().lock();
+        activeRequests.incrementAndGet();
+        try
+        {
+            lastAccessed = System.currentTimeMillis();
+            if ( !activate() )
+            {
+                baseRequest.setHandled( true );
+                response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+                return;
+            }
+
+            context.handle( target, baseRequest, request, response );
+        }
+        finally
+        {
+            lastAccessed = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+            requestLock.readLock().unlock();
+        }
+    }
+
+    public Handler[] getHandlers()
+    {
+        return new Handler[]{ context };
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Object expandChildren( Object list, Class byClass )
+    {
+        return expandHandler( context, list, byClass );
+    }
+
+    @Override
+    public void setServer( Server server )
+    {
+        Server old = getServer();
+        if ( server == old )
+        {
+            return;
+        }
+
+        if ( isStarted() )
+        {
+            throw new IllegalStateException( STARTED );
+        }
+
+        super.setServer( server );
+        context.setServer( server );
+        if ( server != null )
+        {
+            server.getContainer().update( this, null, context, "handler" );
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        failure = null;
+        super.doStart();
+        if ( activateOnStart )
+        {
+            synchronized ( lock )
+            {
+                context.start();
+                activatedAt = System.currentTimeMillis();
+                lastAccessed = activatedAt;
+            }
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized ( lock )
+        {
+            if ( !context.isStopped() )
+            {
+                context.stop();
+            }
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void destroy()
+    {
+        if ( !isStopped() )
+        {
+            throw new IllegalStateException( "!STOPPED" );
+        }
+        context.destroy();
+        super.destroy();
+    }
+
+    @Override
+    public String toString()
+    {
+        return super.toString() + "{" + getContextPath() + (isActive() ? ",active" : ",inactive") + "}";
+    }
+}
@@ -0,0 +1,240 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.AbstractBuffers;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.Buffers;
+import org.eclipse.jetty.io.nio.DirectNIOBuffer;
+import org.eclipse.jetty.io.nio.IndirectNIOBuffer;
+
+/**
+ * BufferPool
+ *
+ * Buffers implementation that keeps returned buffers for reuse instead of
+ * leaving them to the garbage collector. Buffers are kept per size class:
+ * one class for headers, one for the normal buffer size and up to
+ * {@link #MAX_SIZE_CLASSES} other sizes. The total capacity held by the pool
+ * never exceeds the configured number of retained bytes; buffers returned
+ * beyond that are dropped.
+ */
+public class BufferPool extends AbstractBuffers
+{
+    public static final int MAX_SIZE_CLASSES = 8;
+
+    private final Queue<Buffer> headers = new ConcurrentLinkedQueue<Buffer>();
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+    private final ConcurrentMap<Integer, Queue<Buffer>> others = new ConcurrentHashMap<Integer, Queue<Buffer>>();
+    private final Buffers.Type otherType;
+    private final long maxRetainedBytes;
+
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+
+    public BufferPool( Buffers.Type headerType, int headerSize, Buffers.Type bufferType, int bufferSize, long maxRetainedBytes )
+    {
+        super( headerType, headerSize, bufferType, bufferSize, bufferType );
+        this.otherType = bufferType;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    public Buffer getHeader()
+    {
+        Buffer buffer = take( headers );
+        return buffer != null ? buffer : miss( newHeader() );
+    }
+
+    public Buffer getBuffer()
+    {
+        Buffer buffer = take( buffers );
+        return buffer != null ? buffer : miss( newBuffer() );
+    }
+
+    public Buffer getBuffer( int size )
+    {
+        if ( size == getHeaderSize() )
+        {
+            return getHeader();
+        }
+        if ( size == getBufferSize() )
+        {
+            return getBuffer();
+        }
+
+        Buffer buffer = take( others.get( Integer.valueOf( size ) ) );
+        return buffer != null ? buffer : miss( newBuffer( size ) );
+    }
+
+    public void returnBuffer( Buffer buffer )
+    {
+        buffer.clear();
+        if ( buffer.isVolatile() || buffer.isImmutable() )
+        {
+            return;
+        }
+
+        Queue<Buffer> queue;
+        if ( isHeader( buffer ) )
+        {
+            queue = headers;
+        }
+        else if ( isBuffer( buffer ) )
+        {
+            queue = buffers;
+        }
+        else
+        {
+            queue = getSizeClass( buffer );
+        }
+
+        int capacity = buffer.capacity();
+        if ( queue == null || retainedBytes.addAndGet( capacity ) > maxRetainedBytes )
+        {
+            if ( queue != null )
+            {
+                retainedBytes.addAndGet( -capacity );
+            }
+            discards.incrementAndGet();
+            return;
+        }
+        queue.offer( buffer );
+    }
+
+    /**
+     * Drop all the buffers held for reuse.
+     *
+     * @return the total capacity of the buffers dropped
+     */
+    public long clear()
+    {
+        long cleared = drain( headers ) + drain( buffers );
+        for ( Queue<Buffer> queue : others.values() )
+        {
+            cleared += drain( queue );
+        }
+        return cleared;
+    }
+
+    private long drain( Queue<Buffer> queue )
+    {
+        long drained = 0;
+        Buffer buffer;
+        while ( (buffer = queue.poll()) != null )
+        {
+            drained += buffer.capacity();
+        }
+        retainedBytes.addAndGet( -drained );
+        return drained;
+    }
+
+    private Queue<Buffer> getSizeClass( Buffer buffer )
+    {
+        if ( !isOtherType( buffer ) )
+        {
+            return null;
+        }
+
+        Integer size = Integer.valueOf( buffer.capacity() );
+        Queue<Buffer> queue = others.get( size );
+        if ( queue == null && others.size() < MAX_SIZE_CLASSES )
+        {
+            others.putIfAbsent( size, new ConcurrentLinkedQueue<Buffer>() );
+            queue = others.get( size );
+        }
+        return queue;
+    }
+
+    private boolean isOtherType( Buffer buffer )
+    {
+        switch ( otherType )
+        {
+            case DIRECT:
+                return buffer instanceof DirectNIOBuffer;
+            case INDIRECT:
+                return buffer instanceof IndirectNIOBuffer;
+            default:
+                return !(buffer instanceof DirectNIOBuffer) && !(buffer instanceof IndirectNIOBuffer);
+        }
+    }
+
+    private Buffer take( Queue<Buffer> queue )
+    {
+        Buffer buffer = queue == null ? null : queue.poll();
+        if ( buffer != null )
+        {
+            retainedBytes.addAndGet( -buffer.capacity() );
+            hits.incrementAndGet();
+        }
+        return buffer;
+    }
+
+    private Buffer miss( Buffer buffer )
+    {
+        misses.incrementAndGet();
+        return buffer;
+    }
+
+    public long getMaxRetainedBytes()
+    {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * @return the total capacity of the buffers currently held for reuse
+     */
+    public long getRetainedBytes()
+    {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return the number of buffers handed out from the pool
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of buffers that had to be allocated
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of returned buffers dropped because the pool was full
+     */
+    public long getDiscards()
+    {
+        return discards.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BufferPool[header=" + getHeaderSize() + ",buffer=" + getBufferSize() + ",type=" + otherType + ",retained=" + retainedBytes.get() +
+                "/" + maxRetainedBytes + ",hits=" + hits.get() + ",misses=" + misses.get() + ",discards=" + discards.get() + "]";
+    }
+}
@@ -0,0 +1,129 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.io;
+
+import org.eclipse.jetty.http.HttpBuffers;
+import org.eclipse.jetty.io.Buffers;
+import org.mortbay.ijetty.memory.Reclaimable;
+
+/**
+ * ConnectorBufferPools
+ *
+ * The request and response {@link BufferPool}s of one connector. The pools are
+ * created when the connector starts, from the buffer sizes configured on it,
+ * and split the retained byte budget between them.
+ */
+public class ConnectorBufferPools implements Reclaimable
+{
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 256 * 1024;
+
+    private boolean direct;
+    private long maxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+    private volatile BufferPool requestBuffers;
+    private volatile BufferPool responseBuffers;
+
+    /**
+     * @return true if the request and response content buffers are direct
+     *         buffers, false for heap buffers. Header buffers are always heap.
+     */
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    public void setDirect( boolean direct )
+    {
+        this.direct = direct;
+    }
+
+    public long getMaxRetainedBytes()
+    {
+        return maxRetainedBytes;
+    }
+
+    public void setMaxRetainedBytes( long maxRetainedBytes )
+    {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    public void open( HttpBuffers sizes )
+    {
+        Buffers.Type bufferType = direct ? Buffers.Type.DIRECT : Buffers.Type.INDIRECT;
+        requestBuffers = new BufferPool( Buffers.Type.INDIRECT, sizes.getRequestHeaderSize(), bufferType, sizes.getRequestBufferSize(),
+                maxRetainedBytes / 2 );
+        responseBuffers = new BufferPool( Buffers.Type.INDIRECT, sizes.getResponseHeaderSize(), bufferType, sizes.getResponseBufferSize(),
+                maxRetainedBytes / 2 );
+    }
+
+    public void close()
+    {
+        requestBuffers = null;
+        responseBuffers = null;
+    }
+
+    /**
+     * @return the pool for request buffers, or null if not open
+     */
+    public BufferPool getRequestBuffers()
+    {
+        return requestBuffers;
+    }
+
+    /**
+     * @return the pool for response buffers, or null if not open
+     */
+    public BufferPool getResponseBuffers()
+    {
+        return responseBuffers;
+    }
+
+    /**
+     * Drop the buffers held for reuse. They are pooled again as connections
+     * return them.
+     */
+    public long reclaim( int level )
+    {
+        BufferPool request = requestBuffers;
+        BufferPool response = responseBuffers;
+        return (request == null ? 0 : request.clear()) + (response == null ? 0 : response.clear());
+    }
+
+    public long getHits()
+    {
+        BufferPool request = requestBuffers;
+        BufferPool response = responseBuffers;
+        return (request == null ? 0 : request.getHits()) + (response == null ? 0 : response.getHits());
+    }
+
+    public long getMisses()
+    {
+        BufferPool request = requestBuffers;
+        BufferPool response = responseBuffers;
+        return (request == null ? 0 : request.getMisses()) + (response == null ? 0 : response.getMisses());
+    }
+
+    public long getRetainedBytes()
+    {
+        BufferPool request = requestBuffers;
+        BufferPool response = responseBuffers;
+        return (request == null ? 0 : request.getRetainedBytes()) + (response == null ? 0 : response.getRetainedBytes());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "request=" + requestBuffers + " response=" + responseBuffers;
+    }
+}
@@ -0,0 +1,214 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.log.Log;
+
+/**
+ * MemoryPressureCoordinator
+ *
+ * Components register the memory they can give back as {@link Reclaimable}s,
+ * each with the lowest trim level at which it should be asked. When Android
+ * reports memory pressure the registered components whose level has been
+ * reached are asked to reclaim, cheapest first, i.e. in increasing order of
+ * their level: caches and buffers go before threads, and threads before
+ * running webapps.
+ *
+ * The levels are those of android.content.ComponentCallbacks2, repeated here
+ * as that interface is not available on older devices. Their values do not
+ * rise with the pressure, so each is taken by its {@link #getSeverity(int)
+ * severity}: the levels reported while the process runs and those reported
+ * once it is cached are ranked alike, and {@link #TRIM_MEMORY_UI_HIDDEN},
+ * which only says that the UI went away, is ignored. onLowMemory() is
+ * treated as {@link #TRIM_MEMORY_COMPLETE}.
+ *
+ * The coordinator of the running server is available as the
+ * {@link #ATTRIBUTE} server attribute.
+ */
+public class MemoryPressureCoordinator
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.memoryPressure";
+
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+    public static final int TRIM_MEMORY_MODERATE = 60;
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    private volatile long lastReclaimed;
+    private final AtomicLong totalReclaimed = new AtomicLong();
+    private volatile int lastLevel;
+
+    /**
+     * Register a component, asked to reclaim once the trim level reaches the
+     * given level. Components registered at the same level are asked in the
+     * order they registered.
+     */
+    public void register( String name, int level, Reclaimable reclaimable )
+    {
+        synchronized ( registrations )
+        {
+            List<Registration> sorted = new ArrayList<Registration>( registrations );
+            sorted.add( new Registration( name, level, reclaimable ) );
+            Collections.sort( sorted );
+            registrations.clear();
+            registrations.addAll( sorted );
+        }
+    }
+
+    public void unregister( Reclaimable reclaimable )
+    {
+        synchronized ( registrations )
+        {
+            for ( Registration registration : registrations )
+            {
+                if ( registration.reclaimable == reclaimable )
+                {
+                    registrations.remove( registration );
+                }
+            }
+        }
+    }
+
+    public void clear()
+    {
+        registrations.clear();
+    }
+
+    public long onLowMemory()
+    {
+        return onTrimMemory( TRIM_MEMORY_COMPLETE );
+    }
+
+    /**
+     * @return how hard memory is pressed at the trim level, from 1 to 3, or
+     *         0 if the level is not one of memory pressure
+     */
+    public static int getSeverity( int level )
+    {
+        switch ( level )
+        {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+            case TRIM_MEMORY_BACKGROUND:
+                return 1;
+            case TRIM_MEMORY_RUNNING_LOW:
+            case TRIM_MEMORY_MODERATE:
+                return 2;
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+            case TRIM_MEMORY_COMPLETE:
+                return 3;
+            case TRIM_MEMORY_UI_HIDDEN:
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Ask the components registered at a level of no greater severity to
+     * reclaim.
+     *
+     * @return the estimated bytes released by the components
+     */
+    public long onTrimMemory( int level )
+    {
+        int severity = getSeverity( level );
+        if ( severity == 0 )
+        {
+            if ( Log.isDebugEnabled() )
+            {
+                Log.debug( "Memory trim level " + level + " ignored" );
+            }
+            return 0;
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long reclaimed = 0;
+        StringBuilder report = new StringBuilder();
+
+        for ( Registration registration : registrations )
+        {
+            if ( registration.severity > severity )
+            {
+                break;
+            }
+
+            try
+            {
+                long bytes = registration.reclaimable.reclaim( level );
+                reclaimed += Math.max( 0, bytes );
+                report.append( ' ' ).append( registration.name ).append( '=' ).append( bytes / 1024 ).append( "KB" );
+            }
+            catch ( Throwable e )
+            {
+                Log.warn( "Failed to reclaim memory from " + registration.name, e );
+            }
+        }
+
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        lastLevel = level;
+        lastReclaimed = reclaimed;
+        totalReclaimed.addAndGet( reclaimed );
+        Log.info( "Memory trim level " + level + " reclaimed ~" + (reclaimed / 1024) + "KB:" + report + ", heap used " + (usedBefore / 1024) + "KB -> " +
+                (usedAfter / 1024) + "KB" );
+        return reclaimed;
+    }
+
+    /**
+     * @return the trim level of the last memory pressure, 0 if none yet
+     */
+    public int getLastLevel()
+    {
+        return lastLevel;
+    }
+
+    public long getLastReclaimed()
+    {
+        return lastReclaimed;
+    }
+
+    public long getTotalReclaimed()
+    {
+        return totalReclaimed.get();
+    }
+
+    private static class Registration implements Comparable<Registration>
+    {
+        private final String name;
+        private final int severity;
+        private final Reclaimable reclaimable;
+
+        private Registration( String name, int level, Reclaimable reclaimable )
+        {
+            this.name = name;
+            this.severity = getSeverity( level );
+            this.reclaimable = reclaimable;
+        }
+
+        public int compareTo( Registration other )
+        {
+            return severity < other.severity ? -1 : (severity == other.severity ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.memory;
+
+/**
+ * Reclaimable
+ *
+ * Something holding memory it can give back when the device runs short, such
+ * as a cache, a buffer pool or idle threads.
+ *
+ * @see MemoryPressureCoordinator
+ */
+public interface Reclaimable
+{
+    /**
+     * Shrink or flush in proportion to the memory pressure.
+     *
+     * @param level
+     *            one of the MemoryPressureCoordinator TRIM_MEMORY levels
+     * @return an estimate of the bytes released, 0 if not known
+     */
+    public long reclaim( int level );
+}
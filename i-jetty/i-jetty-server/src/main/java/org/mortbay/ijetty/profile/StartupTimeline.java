@@ -0,0 +1,408 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.profile;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.log.Log;
+
+/**
+ * StartupTimeline
+ *
+ * Records how long each phase of server startup takes, in wall clock and
+ * thread CPU time. Phases are grouped by scope: "server" for the phases of
+ * IJettyService.startJetty() and the context path for each deployed context.
+ *
+ * The timeline is passed to deployers and contexts as the
+ * {@link #ATTRIBUTE} attribute. Contexts record these phases:
+ * <ul>
+ * <li>xml - applying the context xml file (AndroidContextDeployer only),
+ * recorded under the file name if it fails before the context path is known</li>
+ * <li>start - the whole of the context start</li>
+ * <li>unpack - setting up the temp directory and unpacking the webapp</li>
+ * <li>webxml - parsing web.xml, webdefault.xml and the other descriptors</li>
+ * <li>classloader - building the dex classloader over WEB-INF/lib</li>
+ * <li>init - processing the descriptors and initializing filters and servlets</li>
+ * </ul>
+ *
+ * As contexts started lazily or woken from hibernation record their phases
+ * again each time, only the last {@link #MAX_SPANS} spans are kept; the
+ * number dropped before them is reported.
+ */
+public class StartupTimeline
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.startupTimeline";
+    public static final String SERVER = "server";
+    public static final int MAX_SPANS = 500;
+
+    private static final CpuClock CPU_CLOCK = CpuClock.newInstance();
+
+    private final long startedAt = System.currentTimeMillis();
+    private final long origin = System.nanoTime();
+    private final LinkedList<Span> spans = new LinkedList<Span>();
+    private long dropped;
+    private final ConcurrentMap<String, Span> open = new ConcurrentHashMap<String, Span>();
+
+    /**
+     * @return the timeline set on the context by its deployer, or null
+     */
+    public static StartupTimeline getTimeline( ContextHandler context )
+    {
+        Object timeline = context.getAttribute( ATTRIBUTE );
+        return timeline instanceof StartupTimeline ? (StartupTimeline) timeline : null;
+    }
+
+    /**
+     * Record the start of the context on its timeline, if it has one.
+     */
+    public static void watch( ContextHandler context )
+    {
+        StartupTimeline timeline = getTimeline( context );
+        if ( timeline != null )
+        {
+            context.addLifeCycleListener( timeline.new ContextListener() );
+        }
+    }
+
+    /**
+     * Begin a phase that is ended by the returned span.
+     */
+    public Span begin( String scope, String phase )
+    {
+        return new Span( scope, phase );
+    }
+
+    /**
+     * Begin a phase that is ended by {@link #end(String, String)}, possibly on
+     * another thread or in another method.
+     */
+    public void start( String scope, String phase )
+    {
+        open.put( scope + " " + phase, new Span( scope, phase ) );
+    }
+
+    public void end( String scope, String phase )
+    {
+        Span span = open.remove( scope + " " + phase );
+        if ( span != null )
+        {
+            span.end();
+        }
+    }
+
+    public List<Span> getSpans()
+    {
+        synchronized ( spans )
+        {
+            return new ArrayList<Span>( spans );
+        }
+    }
+
+    /**
+     * @return the number of spans dropped to keep the last {@link #MAX_SPANS}
+     */
+    public long getDropped()
+    {
+        synchronized ( spans )
+        {
+            return dropped;
+        }
+    }
+
+    /**
+     * @return the timeline as a JSON object holding a list of spans
+     */
+    public String toJSON()
+    {
+        List<Object> list = new ArrayList<Object>();
+        for ( Span span : getSpans() )
+        {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put( "scope", span.scope );
+            map.put( "phase", span.phase );
+            map.put( "thread", span.thread );
+            map.put( "startMs", Double.valueOf( span.start / 1000000.0 ) );
+            map.put( "wallMs", Double.valueOf( span.wall / 1000000.0 ) );
+            map.put( "cpuMs", Double.valueOf( span.cpu / 1000000.0 ) );
+            if ( span.failed )
+            {
+                map.put( "failed", Boolean.TRUE );
+            }
+            list.add( map );
+        }
+
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put( "startedAt", Long.valueOf( startedAt ) );
+        json.put( "dropped", Long.valueOf( getDropped() ) );
+        json.put( "spans", list );
+        return JSON.toString( json );
+    }
+
+    /**
+     * @return the timeline in the Trace Event format read by the Chrome trace
+     *         viewer (chrome://tracing)
+     */
+    public String toTraceEvents()
+    {
+        List<Object> events = new ArrayList<Object>();
+        Map<String, Integer> threads = new HashMap<String, Integer>();
+        for ( Span span : getSpans() )
+        {
+            Integer tid = threads.get( span.thread );
+            if ( tid == null )
+            {
+                tid = Integer.valueOf( threads.size() + 1 );
+                threads.put( span.thread, tid );
+
+                Map<String, Object> name = new HashMap<String, Object>();
+                name.put( "name", span.thread );
+                Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+                metadata.put( "name", "thread_name" );
+                metadata.put( "ph", "M" );
+                metadata.put( "pid", Integer.valueOf( 1 ) );
+                metadata.put( "tid", tid );
+                metadata.put( "args", name );
+                events.add( metadata );
+            }
+
+            Map<String, Object> args = new HashMap<String, Object>();
+            args.put( "cpu_us", Long.valueOf( span.cpu / 1000 ) );
+            if ( span.failed )
+            {
+                args.put( "failed", Boolean.TRUE );
+            }
+
+            Map<String, Object> event = new LinkedHashMap<String, Object>();
+            event.put( "name", span.scope + " " + span.phase );
+            event.put( "cat", span.phase );
+            event.put( "ph", "X" );
+            event.put( "ts", Long.valueOf( span.start / 1000 ) );
+            event.put( "dur", Long.valueOf( span.wall / 1000 ) );
+            event.put( "pid", Integer.valueOf( 1 ) );
+            event.put( "tid", tid );
+            event.put( "args", args );
+            events.add( event );
+        }
+
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put( "traceEvents", events );
+        json.put( "displayTimeUnit", "ms" );
+        return JSON.toString( json );
+    }
+
+    /**
+     * A phase of startup, recorded on the timeline once ended.
+     */
+    public class Span
+    {
+        private String scope;
+        private final String phase;
+        private final String thread;
+        private Thread owner;
+        private final long start;
+        private final long cpuStart;
+        private long wall;
+        private long cpu;
+        private boolean failed;
+        private boolean ended;
+
+        private Span( String scope, String phase )
+        {
+            this.scope = scope;
+            this.phase = phase;
+            this.owner = Thread.currentThread();
+            this.thread = owner.getName();
+            this.cpuStart = CPU_CLOCK.threadCpuNanos();
+            this.start = System.nanoTime() - origin;
+        }
+
+        public void end()
+        {
+            end( false );
+        }
+
+        /**
+         * End the phase under the scope it turned out to belong to, such as
+         * the context path of a context made by the phase.
+         */
+        public synchronized void end( String scope )
+        {
+            if ( !ended )
+            {
+                this.scope = scope;
+            }
+            end( false );
+        }
+
+        public void fail()
+        {
+            end( true );
+        }
+
+        private synchronized void end( boolean failed )
+        {
+            if ( ended )
+            {
+                return;
+            }
+            ended = true;
+            this.wall = System.nanoTime() - origin - start;
+            this.cpu = Thread.currentThread() == owner ? CPU_CLOCK.threadCpuNanos() - cpuStart : 0;
+            this.owner = null;
+            this.failed = failed;
+            synchronized ( spans )
+            {
+                spans.addLast( this );
+                if ( spans.size() > MAX_SPANS )
+                {
+                    spans.removeFirst();
+                    dropped++;
+                }
+            }
+            if ( Log.isDebugEnabled() )
+            {
+                Log.debug( "startup " + scope + " " + phase + ": " + (wall / 1000000) + "ms wall " + (cpu / 1000000) + "ms cpu" );
+            }
+        }
+
+        public String getScope()
+        {
+            return scope;
+        }
+
+        public String getPhase()
+        {
+            return phase;
+        }
+
+        public long getWallNanos()
+        {
+            return wall;
+        }
+
+        public long getCpuNanos()
+        {
+            return cpu;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+    }
+
+    /**
+     * Times the start of a context, and closes its init phase.
+     */
+    private class ContextListener implements LifeCycle.Listener
+    {
+        public void lifeCycleStarting( LifeCycle event )
+        {
+            start( ((ContextHandler) event).getContextPath(), "start" );
+        }
+
+        public void lifeCycleStarted( LifeCycle event )
+        {
+            String contextPath = ((ContextHandler) event).getContextPath();
+            end( contextPath, "init" );
+            end( contextPath, "start" );
+        }
+
+        public void lifeCycleFailure( LifeCycle event, Throwable cause )
+        {
+            String contextPath = ((ContextHandler) event).getContextPath();
+            for ( String phase : new String[]{ "unpack", "webxml", "classloader", "init", "start" } )
+            {
+                Span span = open.remove( contextPath + " " + phase );
+                if ( span != null )
+                {
+                    span.fail();
+                }
+            }
+        }
+
+        public void lifeCycleStopping( LifeCycle event )
+        {
+        }
+
+        public void lifeCycleStopped( LifeCycle event )
+        {
+        }
+    }
+
+    /**
+     * Thread CPU time: android.os.Debug on Dalvik, the ThreadMXBean elsewhere.
+     */
+    private static abstract class CpuClock
+    {
+        abstract long threadCpuNanos();
+
+        static CpuClock newInstance()
+        {
+            if ( String.valueOf( System.getProperty( "java.vm.name" ) ).toLowerCase().contains( "dalvik" ) )
+            {
+                return new CpuClock()
+                {
+                    long threadCpuNanos()
+                    {
+                        return android.os.Debug.threadCpuTimeNanos();
+                    }
+                };
+            }
+
+            try
+            {
+                final Object bean = Class.forName( "java.lang.management.ManagementFactory" ).getMethod( "getThreadMXBean" ).invoke( null );
+                final Method cpuTime = Class.forName( "java.lang.management.ThreadMXBean" ).getMethod( "getCurrentThreadCpuTime" );
+                return new CpuClock()
+                {
+                    long threadCpuNanos()
+                    {
+                        try
+                        {
+                            return ((Long) cpuTime.invoke( bean )).longValue();
+                        }
+                        catch ( Exception e )
+                        {
+                            return 0;
+                        }
+                    }
+                };
+            }
+            catch ( Exception e )
+            {
+                Log.ignore( e );
+                return new CpuClock()
+                {
+                    long threadCpuNanos()
+                    {
+                        return 0;
+                    }
+                };
+            }
+        }
+    }
+}
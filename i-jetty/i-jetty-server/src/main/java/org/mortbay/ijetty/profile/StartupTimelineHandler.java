@@ -0,0 +1,92 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.profile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.mortbay.ijetty.stats.LoopbackOnlyHandler;
+
+/**
+ * StartupTimelineHandler
+ *
+ * Serves a {@link StartupTimeline} as JSON, or in the Chrome trace viewer
+ * format when requested with <code>?format=trace</code>. As the timeline
+ * names the webapps and threads of the server, it is only served to clients
+ * on the phone itself.
+ */
+public class StartupTimelineHandler extends AbstractHandler
+{
+    public static final String CONTEXT_PATH = "/ijetty/startup";
+
+    private volatile StartupTimeline timeline;
+
+    /**
+     * @return a context serving the timeline at {@link #CONTEXT_PATH} to
+     *         loopback clients only
+     */
+    public static ContextHandler newContext( StartupTimelineHandler handler )
+    {
+        ContextHandler context = new ContextHandler( CONTEXT_PATH );
+        context.setHandler( new LoopbackOnlyHandler( handler ) );
+        return context;
+    }
+
+    public StartupTimeline getTimeline()
+    {
+        return timeline;
+    }
+
+    public void setTimeline( StartupTimeline timeline )
+    {
+        this.timeline = timeline;
+    }
+
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        if ( baseRequest.isHandled() )
+        {
+            return;
+        }
+
+        baseRequest.setHandled( true );
+        StartupTimeline current = timeline;
+        if ( !HttpMethods.GET.equals( request.getMethod() ) || current == null )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        String json = "trace".equals( request.getParameter( "format" ) ) ? current.toTraceEvents() : current.toJSON();
+        byte[] bytes = json.getBytes( "UTF-8" );
+
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( "application/json; charset=utf-8" );
+        response.setHeader( "Cache-Control", "no-cache" );
+        response.setContentLength( bytes.length );
+        OutputStream out = response.getOutputStream();
+        out.write( bytes );
+        out.close();
+    }
+}
@@ -0,0 +1,253 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.routing;
+
+import java.util.Arrays;
+
+/**
+ * ContextPathTrie
+ *
+ * Immutable map from context paths to values, which finds the longest context
+ * path prefixing a request target in one walk over the target, whatever the
+ * number of paths. A context path matches the target at a segment boundary
+ * only: "/foo" matches "/foo" and "/foo/bar" but not "/foobar", and the root
+ * context path matches every target.
+ *
+ * Each node of the trie is one character of the paths below it. Adding or
+ * removing a path copies the nodes along that path and shares all others with
+ * the trie it was made from, so that an update costs the length of the path
+ * and the old trie stays valid for the readers still using it.
+ */
+public final class ContextPathTrie<V>
+{
+    private static final ContextPathTrie<Object> EMPTY = new ContextPathTrie<Object>( Node.<Object> empty(), 0 );
+
+    private final Node<V> root;
+    private final int size;
+
+    private ContextPathTrie( Node<V> root, int size )
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public static <V> ContextPathTrie<V> empty()
+    {
+        return (ContextPathTrie<V>) EMPTY;
+    }
+
+    /**
+     * @return the context path as a key of the trie: with a leading but no
+     *         trailing slash, and the root context path as the empty string
+     */
+    public static String normalize( String contextPath )
+    {
+        String path = contextPath.startsWith( "/" ) ? contextPath : "/" + contextPath;
+        int end = path.length();
+        while ( end > 0 && path.charAt( end - 1 ) == '/' )
+        {
+            end--;
+        }
+        return end == path.length() ? path : path.substring( 0, end );
+    }
+
+    /**
+     * @return the number of context paths
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the value of exactly the context path, or null
+     */
+    public V get( String contextPath )
+    {
+        String key = normalize( contextPath );
+        Node<V> node = root;
+        for ( int i = 0; node != null && i < key.length(); i++ )
+        {
+            node = node.child( key.charAt( i ) );
+        }
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * @return the value of the longest context path prefixing the target, or
+     *         null if none does
+     */
+    public V match( String target )
+    {
+        return match( target, target.length() );
+    }
+
+    /**
+     * Match the target against the context paths no longer than a maximum,
+     * e.g. to find the next shorter match once a value has been tried.
+     *
+     * @param maxLength
+     *            the length of the longest normalized context path to match
+     * @return the value of the longest context path prefixing the target, or
+     *         null if none does
+     */
+    public V match( String target, int maxLength )
+    {
+        if ( maxLength < 0 )
+        {
+            return null;
+        }
+
+        int end = Math.min( maxLength, target.length() );
+        Node<V> node = root;
+        V found = root.value;
+        for ( int i = 0; i < end; i++ )
+        {
+            node = node.child( target.charAt( i ) );
+            if ( node == null )
+            {
+                break;
+            }
+            if ( node.value != null && (i + 1 == target.length() || target.charAt( i + 1 ) == '/') )
+            {
+                found = node.value;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return a trie with the value of the context path set
+     */
+    public ContextPathTrie<V> with( String contextPath, V value )
+    {
+        if ( value == null )
+        {
+            throw new IllegalArgumentException( "No value for " + contextPath );
+        }
+        boolean added = get( contextPath ) == null;
+        return new ContextPathTrie<V>( put( root, normalize( contextPath ), 0, value ), added ? size + 1 : size );
+    }
+
+    /**
+     * @return a trie without the context path, or this trie if it did not
+     *         have it
+     */
+    public ContextPathTrie<V> without( String contextPath )
+    {
+        if ( get( contextPath ) == null )
+        {
+            return this;
+        }
+        Node<V> pruned = remove( root, normalize( contextPath ), 0 );
+        return new ContextPathTrie<V>( pruned == null ? Node.<V> empty() : pruned, size - 1 );
+    }
+
+    private static <V> Node<V> put( Node<V> node, String key, int depth, V value )
+    {
+        if ( depth == key.length() )
+        {
+            return new Node<V>( node.labels, node.children, value );
+        }
+
+        char c = key.charAt( depth );
+        int i = Arrays.binarySearch( node.labels, c );
+        if ( i >= 0 )
+        {
+            Node<V>[] children = node.children.clone();
+            children[i] = put( children[i], key, depth + 1, value );
+            return new Node<V>( node.labels, children, node.value );
+        }
+
+        i = -i - 1;
+        int n = node.labels.length;
+        char[] labels = new char[n + 1];
+        Node<V>[] children = Node.newArray( n + 1 );
+        System.arraycopy( node.labels, 0, labels, 0, i );
+        System.arraycopy( node.children, 0, children, 0, i );
+        labels[i] = c;
+        children[i] = put( Node.<V> empty(), key, depth + 1, value );
+        System.arraycopy( node.labels, i, labels, i + 1, n - i );
+        System.arraycopy( node.children, i, children, i + 1, n - i );
+        return new Node<V>( labels, children, node.value );
+    }
+
+    /**
+     * @return the node without the key, null if nothing is left of it
+     */
+    private static <V> Node<V> remove( Node<V> node, String key, int depth )
+    {
+        if ( depth == key.length() )
+        {
+            return node.labels.length == 0 ? null : new Node<V>( node.labels, node.children, null );
+        }
+
+        int i = Arrays.binarySearch( node.labels, key.charAt( depth ) );
+        Node<V> child = remove( node.children[i], key, depth + 1 );
+        if ( child != null )
+        {
+            Node<V>[] children = node.children.clone();
+            children[i] = child;
+            return new Node<V>( node.labels, children, node.value );
+        }
+
+        int n = node.labels.length;
+        if ( n == 1 && node.value == null )
+        {
+            return null;
+        }
+        char[] labels = new char[n - 1];
+        Node<V>[] children = Node.newArray( n - 1 );
+        System.arraycopy( node.labels, 0, labels, 0, i );
+        System.arraycopy( node.children, 0, children, 0, i );
+        System.arraycopy( node.labels, i + 1, labels, i, n - i - 1 );
+        System.arraycopy( node.children, i + 1, children, i, n - i - 1 );
+        return new Node<V>( labels, children, node.value );
+    }
+
+    private static final class Node<V>
+    {
+        private static final char[] NO_LABELS = new char[0];
+
+        final char[] labels;
+        final Node<V>[] children;
+        final V value;
+
+        Node( char[] labels, Node<V>[] children, V value )
+        {
+            this.labels = labels;
+            this.children = children;
+            this.value = value;
+        }
+
+        static <V> Node<V> empty()
+        {
+            return new Node<V>( NO_LABELS, Node.<V> newArray( 0 ), null );
+        }
+
+        @SuppressWarnings( "unchecked" )
+        static <V> Node<V>[] newArray( int length )
+        {
+            return new Node[length];
+        }
+
+        Node<V> child( char c )
+        {
+            int i = Arrays.binarySearch( labels, c );
+            return i < 0 ? null : children[i];
+        }
+    }
+}
@@ -0,0 +1,469 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.routing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.AsyncContinuation;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+
+/**
+ * IndexedContextHandlerCollection
+ *
+ * ContextHandlerCollection that routes requests through a
+ * {@link ContextPathTrie} of the context paths, each of which holds the
+ * handlers deployed at that path by virtual host. A request is offered to the
+ * contexts of the longest context path prefixing its target first, and at each
+ * path to the contexts of its host, then of a "*.domain" wildcard of its host,
+ * then to those without virtual hosts, as the stock collection does. The cost
+ * of routing a request depends on the length of its target, not on the number
+ * of contexts deployed.
+ *
+ * The index is updated incrementally when a handler is added or removed, which
+ * is how both deployers deploy and undeploy, and rebuilt when the handlers are
+ * set as a whole. As with the stock collection, the context path and virtual
+ * hosts of a context are read when it is added; call {@link #mapContexts()}
+ * after changing those of a deployed context.
+ *
+ * The index also lists the deployed contexts without walking the handler tree,
+ * for the welcome page, the duplicate check of the webapp deployer and the
+ * statistics handlers. It is published as the {@link #ATTRIBUTE} server
+ * attribute.
+ */
+public class IndexedContextHandlerCollection extends ContextHandlerCollection
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.contexts";
+
+    private static final ContextHandler[] NO_CONTEXTS = new ContextHandler[0];
+
+    private final Object lock = new Object();
+    private boolean updating;
+    private volatile Routes routes = Routes.EMPTY;
+
+    /**
+     * @return the deployed contexts, in the order they were added
+     */
+    public ContextHandler[] getContexts()
+    {
+        return routes.contexts;
+    }
+
+    /**
+     * @return the contexts deployed at exactly the context path, whatever
+     *         their virtual hosts
+     */
+    public ContextHandler[] getContexts( String contextPath )
+    {
+        Route route = routes.trie.get( contextPath );
+        return route == null ? NO_CONTEXTS : route.contexts;
+    }
+
+    /**
+     * @return a context of the longest context path prefixing the target,
+     *         whatever its virtual hosts, or null if the target is outside all
+     *         of them
+     */
+    public ContextHandler getContext( String target )
+    {
+        Route route = routes.trie.match( target );
+        return route == null ? null : route.contexts[0];
+    }
+
+    @Override
+    public void addHandler( Handler handler )
+    {
+        synchronized ( lock )
+        {
+            // index first, so that a context with an illegal path is refused
+            // before it is added
+            Routes indexed = contains( getHandlers(), handler ) ? routes : routes.add( new Handler[]{ handler } );
+            updating = true;
+            try
+            {
+                super.addHandler( handler );
+            }
+            finally
+            {
+                updating = false;
+            }
+            routes = indexed;
+        }
+    }
+
+    @Override
+    public void removeHandler( Handler handler )
+    {
+        synchronized ( lock )
+        {
+            updating = true;
+            try
+            {
+                super.removeHandler( handler );
+            }
+            finally
+            {
+                updating = false;
+            }
+            if ( !contains( getHandlers(), handler ) )
+            {
+                routes = routes.remove( handler );
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from all the handlers, unless called back while a
+     * handler is being added or removed, which updates the index itself.
+     */
+    @Override
+    public void mapContexts()
+    {
+        synchronized ( lock )
+        {
+            if ( !updating )
+            {
+                routes = Routes.EMPTY.add( getHandlers() );
+            }
+        }
+    }
+
+    @Override
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        Handler[] handlers = getHandlers();
+        if ( handlers == null || handlers.length == 0 )
+        {
+            return;
+        }
+
+        AsyncContinuation async = baseRequest.getAsyncContinuation();
+        if ( async.isAsync() )
+        {
+            ContextHandler context = async.getContextHandler();
+            if ( context != null )
+            {
+                context.handle( target, baseRequest, request, response );
+                return;
+            }
+        }
+
+        if ( target == null || !target.startsWith( "/" ) )
+        {
+            for ( Handler handler : handlers )
+            {
+                handler.handle( target, baseRequest, request, response );
+                if ( baseRequest.isHandled() )
+                {
+                    return;
+                }
+            }
+            return;
+        }
+
+        ContextPathTrie<Route> trie = routes.trie;
+        String host = normalizeHost( request.getServerName() );
+        for ( Route route = trie.match( target ); route != null; route = trie.match( target, route.length - 1 ) )
+        {
+            if ( route.handle( host, target, baseRequest, request, response ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the host without a trailing dot, in lower case, allocating only
+     *         if it was not already
+     */
+    static String normalizeHost( String host )
+    {
+        if ( host == null )
+        {
+            return null;
+        }
+        int end = host.endsWith( "." ) ? host.length() - 1 : host.length();
+        for ( int i = 0; i < end; i++ )
+        {
+            if ( Character.isUpperCase( host.charAt( i ) ) )
+            {
+                return host.substring( 0, end ).toLowerCase( Locale.ENGLISH );
+            }
+        }
+        return end == host.length() ? host : host.substring( 0, end );
+    }
+
+    private static boolean contains( Handler[] handlers, Handler handler )
+    {
+        for ( int i = 0; handlers != null && i < handlers.length; i++ )
+        {
+            if ( handlers[i] == handler )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A context deployed behind a handler of the collection, which is the
+     * context itself or a container of it such as a LazyContextHandler.
+     */
+    private static final class Mapping
+    {
+        final Handler handler;
+        final ContextHandler context;
+        final String key;
+
+        Mapping( Handler handler, ContextHandler context, String key )
+        {
+            this.handler = handler;
+            this.context = context;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the index, replaced on every change.
+     */
+    private static final class Routes
+    {
+        static final Routes EMPTY = new Routes( ContextPathTrie.<Route> empty(), new ArrayList<Mapping>() );
+
+        final ContextPathTrie<Route> trie;
+        final List<Mapping> mappings;
+        final ContextHandler[] contexts;
+
+        Routes( ContextPathTrie<Route> trie, List<Mapping> mappings )
+        {
+            this.trie = trie;
+            this.mappings = Collections.unmodifiableList( mappings );
+            this.contexts = new ContextHandler[mappings.size()];
+            for ( int i = 0; i < contexts.length; i++ )
+            {
+                contexts[i] = mappings.get( i ).context;
+            }
+        }
+
+        Routes add( Handler[] handlers )
+        {
+            ContextPathTrie<Route> added = trie;
+            List<Mapping> all = new ArrayList<Mapping>( mappings );
+            for ( int h = 0; handlers != null && h < handlers.length; h++ )
+            {
+                Handler[] children;
+                if ( handlers[h] instanceof ContextHandler )
+                {
+                    children = new Handler[]{ handlers[h] };
+                }
+                else if ( handlers[h] instanceof HandlerContainer )
+                {
+                    children = ((HandlerContainer) handlers[h]).getChildHandlersByClass( ContextHandler.class );
+                }
+                else
+                {
+                    continue;
+                }
+
+                for ( int c = 0; children != null && c < children.length; c++ )
+                {
+                    ContextHandler context = (ContextHandler) children[c];
+                    String contextPath = context.getContextPath();
+                    if ( contextPath == null || contextPath.indexOf( ',' ) >= 0 || contextPath.startsWith( "*" ) )
+                    {
+                        throw new IllegalArgumentException( "Illegal context spec:" + contextPath );
+                    }
+
+                    Mapping mapping = new Mapping( handlers[h], context, ContextPathTrie.normalize( contextPath ) );
+                    added = added.with( mapping.key, new Route( mapping.key, added.get( mapping.key ), mapping, null ) );
+                    all.add( mapping );
+                }
+            }
+            return new Routes( added, all );
+        }
+
+        Routes remove( Handler handler )
+        {
+            ContextPathTrie<Route> removed = trie;
+            List<Mapping> rest = new ArrayList<Mapping>( mappings.size() );
+            for ( Mapping mapping : mappings )
+            {
+                if ( mapping.handler != handler )
+                {
+                    rest.add( mapping );
+                    continue;
+                }
+
+                Route route = removed.get( mapping.key );
+                if ( route != null )
+                {
+                    Route left = new Route( mapping.key, route, null, handler );
+                    removed = left.contexts.length == 0 ? removed.without( mapping.key ) : removed.with( mapping.key, left );
+                }
+            }
+            return rest.size() == mappings.size() ? this : new Routes( removed, rest );
+        }
+    }
+
+    /**
+     * Immutable handlers of one context path, by virtual host.
+     */
+    private static final class Route
+    {
+        private static final Handler[] NO_HANDLERS = new Handler[0];
+
+        final int length;
+        final Mapping[] mappings;
+        final ContextHandler[] contexts;
+        final Handler[] any;
+        final Map<String, Handler[]> hosts = new HashMap<String, Handler[]>();
+        final Map<String, Handler[]> domains = new HashMap<String, Handler[]>();
+
+        /**
+         * @param key
+         *            the normalized context path
+         * @param route
+         *            the route of the context path so far, or null
+         * @param added
+         *            a mapping to add, or null
+         * @param removed
+         *            a handler to remove the mappings of, or null
+         */
+        Route( String key, Route route, Mapping added, Handler removed )
+        {
+            List<Mapping> list = new ArrayList<Mapping>();
+            for ( int i = 0; route != null && i < route.mappings.length; i++ )
+            {
+                if ( route.mappings[i].handler != removed )
+                {
+                    list.add( route.mappings[i] );
+                }
+            }
+            if ( added != null )
+            {
+                list.add( added );
+            }
+
+            length = key.length();
+            mappings = list.toArray( new Mapping[list.size()] );
+            contexts = new ContextHandler[mappings.length];
+            List<Handler> anyHost = new ArrayList<Handler>();
+            for ( int i = 0; i < mappings.length; i++ )
+            {
+                Mapping mapping = mappings[i];
+                contexts[i] = mapping.context;
+                String[] vhosts = mapping.context.getVirtualHosts();
+                if ( vhosts == null || vhosts.length == 0 )
+                {
+                    addTo( anyHost, mapping.handler );
+                    continue;
+                }
+                for ( String vhost : vhosts )
+                {
+                    if ( vhost == null )
+                    {
+                        continue;
+                    }
+                    if ( "*".equals( vhost ) )
+                    {
+                        addTo( anyHost, mapping.handler );
+                    }
+                    else if ( vhost.startsWith( "*." ) )
+                    {
+                        addTo( domains, normalizeHost( vhost.substring( 2 ) ), mapping.handler );
+                    }
+                    else
+                    {
+                        addTo( hosts, normalizeHost( vhost ), mapping.handler );
+                    }
+                }
+            }
+            any = anyHost.toArray( new Handler[anyHost.size()] );
+        }
+
+        private static void addTo( List<Handler> handlers, Handler handler )
+        {
+            if ( !handlers.contains( handler ) )
+            {
+                handlers.add( handler );
+            }
+        }
+
+        private static void addTo( Map<String, Handler[]> byHost, String host, Handler handler )
+        {
+            Handler[] handlers = byHost.get( host );
+            if ( handlers == null )
+            {
+                handlers = NO_HANDLERS;
+            }
+            if ( !contains( handlers, handler ) )
+            {
+                Handler[] more = new Handler[handlers.length + 1];
+                System.arraycopy( handlers, 0, more, 0, handlers.length );
+                more[handlers.length] = handler;
+                byHost.put( host, more );
+            }
+        }
+
+        /**
+         * @return true if one of the handlers handled the request
+         */
+        boolean handle( String host, String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response )
+                throws IOException, ServletException
+        {
+            if ( host != null && !hosts.isEmpty() && handle( hosts.get( host ), target, baseRequest, request, response ) )
+            {
+                return true;
+            }
+            if ( host != null && !domains.isEmpty() )
+            {
+                int dot = host.indexOf( '.' );
+                if ( dot >= 0 && handle( domains.get( host.substring( dot + 1 ) ), target, baseRequest, request, response ) )
+                {
+                    return true;
+                }
+            }
+            return handle( any, target, baseRequest, request, response );
+        }
+
+        private static boolean handle( Handler[] handlers, String target, Request baseRequest, HttpServletRequest request,
+                HttpServletResponse response ) throws IOException, ServletException
+        {
+            for ( int i = 0; handlers != null && i < handlers.length; i++ )
+            {
+                handlers[i].handle( target, baseRequest, request, response );
+                if ( baseRequest.isHandled() )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.ssl;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import org.eclipse.jetty.http.ssl.SslContextFactory;
+import org.eclipse.jetty.util.log.Log;
+
+/**
+ * CachingSslContextFactory
+ *
+ * SslContextFactory that keeps the SSLContext it builds for the life of the
+ * process, so that restarting the server neither reads and decrypts the
+ * keystores again nor throws away the TLS sessions clients could resume.
+ * The cached context is reused as long as the keystore and truststore files,
+ * their types and passwords are unchanged.
+ *
+ * The server session cache of the context is sized and timed out as
+ * configured, so that returning browsers resume their sessions instead of
+ * paying for a full handshake. The connectors count the handshakes on the
+ * {@link SslHandshakeCounter} kept with the context.
+ */
+public class CachingSslContextFactory extends SslContextFactory
+{
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+    public static final int DEFAULT_SESSION_TIMEOUT = 60 * 60;
+
+    private static final Map<String, Cached> CONTEXTS = new HashMap<String, Cached>();
+
+    private String keyStorePath;
+    private String trustStorePath;
+    private String keyStorePassword;
+    private String keyManagerPassword;
+    private String trustStorePassword;
+    private int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    private int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    private volatile SslHandshakeCounter handshakes;
+
+    /**
+     * Forget all the cached contexts, e.g. after the keystores are replaced in
+     * place without their size or modification time changing.
+     */
+    public static void clearCache()
+    {
+        synchronized ( CONTEXTS )
+        {
+            CONTEXTS.clear();
+        }
+    }
+
+    /**
+     * @return the handshake counter of the context, null until started
+     */
+    public SslHandshakeCounter getHandshakeCounter()
+    {
+        return handshakes;
+    }
+
+    public int getSessionCacheSize()
+    {
+        return sessionCacheSize;
+    }
+
+    /**
+     * @param size
+     *            the number of TLS sessions kept for resumption, 0 for no limit
+     */
+    public void setSessionCacheSize( int size )
+    {
+        this.sessionCacheSize = size;
+    }
+
+    public int getSessionTimeout()
+    {
+        return sessionTimeout;
+    }
+
+    /**
+     * @param seconds
+     *            how long a TLS session can be resumed for, 0 for no limit
+     */
+    public void setSessionTimeout( int seconds )
+    {
+        this.sessionTimeout = seconds;
+    }
+
+    @Override
+    public void setKeyStore( String keyStorePath )
+    {
+        this.keyStorePath = keyStorePath;
+        super.setKeyStore( keyStorePath );
+    }
+
+    @Override
+    public void setTrustStore( String trustStorePath )
+    {
+        this.trustStorePath = trustStorePath;
+        super.setTrustStore( trustStorePath );
+    }
+
+    @Override
+    public void setKeyStorePassword( String password )
+    {
+        this.keyStorePassword = password;
+        super.setKeyStorePassword( password );
+    }
+
+    @Override
+    public void setKeyManagerPassword( String password )
+    {
+        this.keyManagerPassword = password;
+        super.setKeyManagerPassword( password );
+    }
+
+    @Override
+    public void setTrustStorePassword( String password )
+    {
+        this.trustStorePassword = password;
+        super.setTrustStorePassword( password );
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        String key = getCacheKey();
+        Cached cached = null;
+        if ( key != null && getSslContext() == null )
+        {
+            synchronized ( CONTEXTS )
+            {
+                cached = CONTEXTS.get( key );
+            }
+            if ( cached != null )
+            {
+                Log.debug( "Reusing SSLContext for " + keyStorePath );
+                setSslContext( cached.context );
+            }
+        }
+
+        super.doStart();
+
+        SSLContext context = getSslContext();
+        if ( cached != null )
+        {
+            handshakes = cached.handshakes;
+        }
+        else
+        {
+            handshakes = new SslHandshakeCounter( sessionCacheSize > 0 ? sessionCacheSize : SslHandshakeCounter.DEFAULT_MAX_SESSIONS );
+            if ( key != null && context != null )
+            {
+                synchronized ( CONTEXTS )
+                {
+                    CONTEXTS.put( key, new Cached( context, handshakes ) );
+                }
+            }
+        }
+
+        if ( context != null )
+        {
+            SSLSessionContext sessions = context.getServerSessionContext();
+            if ( sessions != null )
+            {
+                sessions.setSessionCacheSize( sessionCacheSize );
+                sessions.setSessionTimeout( sessionTimeout );
+            }
+        }
+    }
+
+    /**
+     * @return a key identifying the stores and their settings, or null if the
+     *         context should not be cached
+     */
+    private String getCacheKey()
+    {
+        if ( keyStorePath == null )
+        {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        appendFile( key, keyStorePath );
+        appendFile( key, trustStorePath );
+        key.append( getKeyStoreType() ).append( '|' ).append( getTrustStoreType() ).append( '|' );
+        key.append( getProtocol() ).append( '|' ).append( getNeedClientAuth() ).append( '|' ).append( getWantClientAuth() ).append( '|' );
+        key.append( keyStorePassword ).append( '|' ).append( keyManagerPassword ).append( '|' ).append( trustStorePassword );
+        return key.toString();
+    }
+
+    private static class Cached
+    {
+        private final SSLContext context;
+        private final SslHandshakeCounter handshakes;
+
+        private Cached( SSLContext context, SslHandshakeCounter handshakes )
+        {
+            this.context = context;
+            this.handshakes = handshakes;
+        }
+    }
+
+    private static void appendFile( StringBuilder key, String path )
+    {
+        key.append( path );
+        if ( path != null )
+        {
+            File file = new File( path );
+            key.append( ':' ).append( file.lastModified() ).append( ':' ).append( file.length() );
+        }
+        key.append( '|' );
+    }
+}
@@ -0,0 +1,99 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.ssl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+
+import org.eclipse.jetty.util.TypeUtil;
+
+/**
+ * SslHandshakeCounter
+ *
+ * Counts full TLS handshakes apart from resumed ones. A handshake is taken to
+ * be resumed when its session id has been seen before; the most recently seen
+ * ids are remembered, as many as the session cache can hold.
+ */
+public class SslHandshakeCounter implements HandshakeCompletedListener
+{
+    public static final int DEFAULT_MAX_SESSIONS = 1024;
+
+    private final AtomicLong full = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final Map<String, Boolean> seen;
+
+    public SslHandshakeCounter()
+    {
+        this( DEFAULT_MAX_SESSIONS );
+    }
+
+    public SslHandshakeCounter( final int maxSessions )
+    {
+        seen = new LinkedHashMap<String, Boolean>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Boolean> eldest )
+            {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    public void handshakeCompleted( HandshakeCompletedEvent event )
+    {
+        handshake( TypeUtil.toHexString( event.getSession().getId() ) );
+    }
+
+    /**
+     * Count the handshake that set up a connection.
+     *
+     * @param sessionId
+     *            the TLS session id of the connection, in hex
+     */
+    public void handshake( String sessionId )
+    {
+        if ( sessionId == null )
+        {
+            return;
+        }
+
+        boolean known;
+        synchronized ( seen )
+        {
+            known = seen.put( sessionId, Boolean.TRUE ) != null;
+        }
+        (known ? resumed : full).incrementAndGet();
+    }
+
+    public long getFullHandshakes()
+    {
+        return full.get();
+    }
+
+    public long getResumedHandshakes()
+    {
+        return resumed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "handshakes full=" + full.get() + " resumed=" + resumed.get();
+    }
+}
@@ -0,0 +1,116 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
+
+/**
+ * ContextIndex
+ *
+ * Finds the context a request target belongs to, by the longest context path
+ * that prefixes it, among the contexts deployed in a container. The contexts
+ * are looked up again whenever the handlers of the container change, which
+ * the deployers do by setting a new array.
+ *
+ * Used by the statistics handlers, which sit outside the contexts and so
+ * cannot ask the request which context handled it. For an
+ * {@link IndexedContextHandlerCollection} the lookup is left to its index,
+ * which does not scan the contexts.
+ */
+public class ContextIndex
+{
+    private static final ContextHandler[] NONE = new ContextHandler[0];
+
+    private final HandlerContainer container;
+    private final IndexedContextHandlerCollection indexed;
+    private volatile Object lastHandlers;
+    private volatile ContextHandler[] contexts = NONE;
+
+    public ContextIndex( HandlerContainer container )
+    {
+        this.container = container;
+        this.indexed = container instanceof IndexedContextHandlerCollection ? (IndexedContextHandlerCollection) container : null;
+    }
+
+    public HandlerContainer getContainer()
+    {
+        return container;
+    }
+
+    /**
+     * @return the context of the target, or null if it is outside all of them
+     */
+    public ContextHandler getContext( String target )
+    {
+        if ( indexed != null )
+        {
+            return indexed.getContext( target );
+        }
+
+        ContextHandler[] sorted = getContexts();
+        for ( ContextHandler context : sorted )
+        {
+            String path = context.getContextPath();
+            if ( "/".equals( path ) || target.equals( path ) || (target.startsWith( path ) && target.charAt( path.length() ) == '/') )
+            {
+                return context;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the contexts of the container, longest context path first
+     */
+    public ContextHandler[] getContexts()
+    {
+        Object handlers = indexed != null ? indexed.getContexts() : container.getHandlers();
+        if ( handlers == lastHandlers )
+        {
+            return contexts;
+        }
+
+        List<ContextHandler> found = new ArrayList<ContextHandler>();
+        Handler[] children = indexed != null ? indexed.getContexts() : container.getChildHandlersByClass( ContextHandler.class );
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            ContextHandler context = (ContextHandler) children[i];
+            if ( context.getContextPath() != null )
+            {
+                found.add( context );
+            }
+        }
+
+        ContextHandler[] sorted = found.toArray( new ContextHandler[found.size()] );
+        Arrays.sort( sorted, new Comparator<ContextHandler>()
+        {
+            public int compare( ContextHandler a, ContextHandler b )
+            {
+                return b.getContextPath().length() - a.getContextPath().length();
+            }
+        } );
+        contexts = sorted;
+        lastHandlers = handlers;
+        return sorted;
+    }
+}
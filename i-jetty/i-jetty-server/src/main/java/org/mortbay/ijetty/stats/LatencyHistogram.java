@@ -0,0 +1,202 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ *
+ * Histogram of latencies in microseconds, in fixed log-linear buckets: each
+ * power of two is split into {@link #SUB_BUCKETS} linear buckets, so a
+ * percentile is reported within 12.5% of the true value. Latencies from 0 to
+ * about 2 hours are kept apart; longer ones go in the last bucket.
+ *
+ * Recording takes no lock and allocates nothing; the counts are kept in a
+ * primitive array of {@link #BUCKETS} longs.
+ */
+public class LatencyHistogram
+{
+    public static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int MAX_EXPONENT = 32;
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @return the bucket a value is counted in
+     */
+    public static int getBucket( long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return value < 0 ? 0 : (int) value;
+        }
+        if ( value > MAX_VALUE )
+        {
+            value = MAX_VALUE;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the smallest value counted in a bucket
+     */
+    public static long getLowerBound( int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return the largest value counted in a bucket
+     */
+    public static long getUpperBound( int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return getLowerBound( bucket ) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Count a latency.
+     *
+     * @param micros
+     *            the latency in microseconds
+     */
+    public void record( long micros )
+    {
+        counts.incrementAndGet( getBucket( micros ) );
+        count.incrementAndGet();
+        sum.addAndGet( micros );
+        long current = max.get();
+        while ( micros > current && !max.compareAndSet( current, micros ) )
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Add the counts of this histogram to another.
+     */
+    public void addTo( LatencyHistogram other )
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            long n = counts.get( i );
+            if ( n > 0 )
+            {
+                other.counts.addAndGet( i, n );
+            }
+        }
+        other.count.addAndGet( count.get() );
+        other.sum.addAndGet( sum.get() );
+        long otherMax = other.max.get();
+        long thisMax = max.get();
+        while ( thisMax > otherMax && !other.max.compareAndSet( otherMax, thisMax ) )
+        {
+            otherMax = other.max.get();
+        }
+    }
+
+    public void clear()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            counts.set( i, 0 );
+        }
+        count.set( 0 );
+        sum.set( 0 );
+        max.set( 0 );
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the latencies in microseconds
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return the latency, in microseconds, that the given percentage of the
+     *         latencies do not exceed, 0 if none were counted
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            snapshot[i] = counts.get( i );
+            n += snapshot[i];
+        }
+        if ( n == 0 )
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil( Math.min( 100, Math.max( 0, percentile ) ) / 100.0 * n );
+        if ( rank < 1 )
+        {
+            rank = 1;
+        }
+
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += snapshot[i];
+            if ( seen >= rank )
+            {
+                return Math.min( getUpperBound( i ), max.get() );
+            }
+        }
+        return max.get();
+    }
+}
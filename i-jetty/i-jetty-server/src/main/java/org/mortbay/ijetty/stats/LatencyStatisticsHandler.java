@@ -0,0 +1,354 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * LatencyStatisticsHandler
+ *
+ * Wraps the contexts of the server to record how long each request takes to
+ * handle, in a {@link RollingLatencyHistogram} for its context and another for
+ * the servlet mapping that serves it, keyed by the path spec of the mapping
+ * (e.g. <code>/rest/*</code>) so that the number of histograms stays bounded.
+ *
+ * The wrapped handler must be a {@link HandlerContainer} of the contexts, as
+ * the request's context is found from it by a {@link ContextIndex}. Requests
+ * outside every context are not recorded.
+ *
+ * The servlet mapping of a target is remembered per context, for up to
+ * {@link #MAX_CACHED_TARGETS} targets, so that recording a request to a
+ * target seen before allocates nothing.
+ *
+ * The percentiles of the recent window and the counts since the last reset
+ * are reported as JSON, or in the Prometheus text format as a summary.
+ */
+public class LatencyStatisticsHandler extends HandlerWrapper
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.latency";
+    public static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    public static final int MAX_CACHED_TARGETS = 512;
+
+    private static final String NO_MAPPING = "";
+
+    private final Map<String, RollingLatencyHistogram> contextHistograms = new ConcurrentHashMap<String, RollingLatencyHistogram>();
+    private final Map<String, Map<String, RollingLatencyHistogram>> servletHistograms =
+            new ConcurrentHashMap<String, Map<String, RollingLatencyHistogram>>();
+    private final Map<String, MappingCache> mappingCaches = new ConcurrentHashMap<String, MappingCache>();
+    private volatile ContextIndex contexts;
+
+    @Override
+    public void setHandler( Handler handler )
+    {
+        super.setHandler( handler );
+        contexts = handler instanceof HandlerContainer ? new ContextIndex( (HandlerContainer) handler ) : null;
+    }
+
+    @Override
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            super.handle( target, baseRequest, request, response );
+        }
+        finally
+        {
+            long micros = (System.nanoTime() - start) / 1000;
+            ContextIndex index = contexts;
+            ContextHandler context = index == null ? null : index.getContext( target );
+            if ( context != null )
+            {
+                String contextPath = context.getContextPath();
+                getHistogram( contextHistograms, contextPath ).record( micros );
+
+                String servlet = getServletMapping( context, target );
+                if ( servlet != null )
+                {
+                    getHistogram( getServletHistograms( contextPath ), servlet ).record( micros );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the histogram of a context, null if it has had no request
+     */
+    public RollingLatencyHistogram getContextHistogram( String contextPath )
+    {
+        return contextHistograms.get( contextPath );
+    }
+
+    /**
+     * @return the histogram of a servlet mapping of a context, null if it has
+     *         had no request
+     */
+    public RollingLatencyHistogram getServletHistogram( String contextPath, String pathSpec )
+    {
+        Map<String, RollingLatencyHistogram> histograms = servletHistograms.get( contextPath );
+        return histograms == null ? null : histograms.get( pathSpec );
+    }
+
+    /**
+     * Start all the histograms again.
+     */
+    public void reset()
+    {
+        for ( RollingLatencyHistogram histogram : contextHistograms.values() )
+        {
+            histogram.reset();
+        }
+        for ( Map<String, RollingLatencyHistogram> histograms : servletHistograms.values() )
+        {
+            for ( RollingLatencyHistogram histogram : histograms.values() )
+            {
+                histogram.reset();
+            }
+        }
+    }
+
+    public Map<String, Object> toMap()
+    {
+        List<Object> list = new ArrayList<Object>();
+        for ( String contextPath : sorted( contextHistograms.keySet().toArray( new String[0] ) ) )
+        {
+            RollingLatencyHistogram histogram = contextHistograms.get( contextPath );
+            Map<String, Object> context = toMap( histogram );
+            context.put( "context", contextPath );
+
+            List<Object> servlets = new ArrayList<Object>();
+            Map<String, RollingLatencyHistogram> histograms = servletHistograms.get( contextPath );
+            if ( histograms != null )
+            {
+                for ( String pathSpec : sorted( histograms.keySet().toArray( new String[0] ) ) )
+                {
+                    Map<String, Object> servlet = toMap( histograms.get( pathSpec ) );
+                    servlet.put( "servlet", pathSpec );
+                    servlets.add( servlet );
+                }
+            }
+            context.put( "servlets", servlets );
+            list.add( context );
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "windowMs", Long.valueOf( RollingLatencyHistogram.DEFAULT_SLOTS * RollingLatencyHistogram.DEFAULT_INTERVAL_MS ) );
+        map.put( "contexts", list );
+        return map;
+    }
+
+    public String toJSON()
+    {
+        return JSON.toString( toMap() );
+    }
+
+    /**
+     * @return the histograms as a Prometheus summary: the percentiles of the
+     *         window, and the count and sum since the last reset
+     */
+    public String toPrometheus()
+    {
+        StringBuilder out = new StringBuilder( 1024 );
+        out.append( "# HELP ijetty_request_latency_seconds Time taken to handle requests, percentiles over the last " );
+        out.append( RollingLatencyHistogram.DEFAULT_SLOTS * RollingLatencyHistogram.DEFAULT_INTERVAL_MS / 1000 ).append( "s.\n" );
+        out.append( "# TYPE ijetty_request_latency_seconds summary\n" );
+        for ( String contextPath : sorted( contextHistograms.keySet().toArray( new String[0] ) ) )
+        {
+            String labels = "context=\"" + escapeLabel( contextPath ) + "\"";
+            appendSummary( out, "ijetty_request_latency_seconds", labels, contextHistograms.get( contextPath ) );
+        }
+
+        out.append( "# HELP ijetty_servlet_latency_seconds Time taken to handle requests by servlet mapping, percentiles over the last " );
+        out.append( RollingLatencyHistogram.DEFAULT_SLOTS * RollingLatencyHistogram.DEFAULT_INTERVAL_MS / 1000 ).append( "s.\n" );
+        out.append( "# TYPE ijetty_servlet_latency_seconds summary\n" );
+        for ( String contextPath : sorted( servletHistograms.keySet().toArray( new String[0] ) ) )
+        {
+            Map<String, RollingLatencyHistogram> histograms = servletHistograms.get( contextPath );
+            for ( String pathSpec : sorted( histograms.keySet().toArray( new String[0] ) ) )
+            {
+                String labels = "context=\"" + escapeLabel( contextPath ) + "\",servlet=\"" + escapeLabel( pathSpec ) + "\"";
+                appendSummary( out, "ijetty_servlet_latency_seconds", labels, histograms.get( pathSpec ) );
+            }
+        }
+        return out.toString();
+    }
+
+    private static Map<String, Object> toMap( RollingLatencyHistogram histogram )
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "since", Long.valueOf( histogram.getSince() ) );
+        map.put( "window", toMap( histogram.getWindow() ) );
+        map.put( "total", toMap( histogram.getTotal() ) );
+        return map;
+    }
+
+    private static Map<String, Object> toMap( LatencyHistogram histogram )
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "count", Long.valueOf( histogram.getCount() ) );
+        map.put( "meanMs", toMs( (long) histogram.getMean() ) );
+        for ( double percentile : PERCENTILES )
+        {
+            String name = percentile == Math.floor( percentile ) ? String.valueOf( (int) percentile ) : String.valueOf( percentile ).replace( ".", "" );
+            map.put( "p" + name + "Ms", toMs( histogram.getValueAtPercentile( percentile ) ) );
+        }
+        map.put( "maxMs", toMs( histogram.getMax() ) );
+        return map;
+    }
+
+    private static Double toMs( long micros )
+    {
+        return Double.valueOf( micros / 1000.0 );
+    }
+
+    private static void appendSummary( StringBuilder out, String metric, String labels, RollingLatencyHistogram histogram )
+    {
+        LatencyHistogram window = histogram.getWindow();
+        for ( double percentile : PERCENTILES )
+        {
+            out.append( metric ).append( '{' ).append( labels ).append( ",quantile=\"" ).append( percentile / 100 ).append( "\"} " );
+            out.append( window.getValueAtPercentile( percentile ) / 1000000.0 ).append( '\n' );
+        }
+        LatencyHistogram total = histogram.getTotal();
+        out.append( metric ).append( "_sum{" ).append( labels ).append( "} " ).append( total.getSum() / 1000000.0 ).append( '\n' );
+        out.append( metric ).append( "_count{" ).append( labels ).append( "} " ).append( total.getCount() ).append( '\n' );
+    }
+
+    private static String escapeLabel( String value )
+    {
+        return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+    }
+
+    private static String[] sorted( String[] names )
+    {
+        Arrays.sort( names );
+        return names;
+    }
+
+    /**
+     * @return the path spec of the servlet mapping the target is served by,
+     *         or null if the context is not a started servlet context
+     */
+    private String getServletMapping( ContextHandler context, String target )
+    {
+        if ( !(context instanceof ServletContextHandler) )
+        {
+            return null;
+        }
+        ServletHandler servletHandler = ((ServletContextHandler) context).getServletHandler();
+        if ( servletHandler == null || !servletHandler.isStarted() )
+        {
+            return null;
+        }
+
+        String contextPath = context.getContextPath();
+        MappingCache cache = mappingCaches.get( contextPath );
+        if ( cache == null || cache.servletHandler.get() != servletHandler )
+        {
+            // the context was deployed again
+            cache = new MappingCache( servletHandler );
+            mappingCaches.put( contextPath, cache );
+        }
+        String pathSpec = cache.pathSpecs.get( target );
+        if ( pathSpec == null )
+        {
+            String pathInContext = "/".equals( contextPath ) ? target : target.substring( contextPath.length() );
+            if ( pathInContext.length() == 0 )
+            {
+                pathInContext = "/";
+            }
+            PathMap.Entry entry = servletHandler.getHolderEntry( pathInContext );
+            pathSpec = entry == null ? NO_MAPPING : (String) entry.getKey();
+            if ( cache.pathSpecs.size() < MAX_CACHED_TARGETS )
+            {
+                cache.pathSpecs.put( target, pathSpec );
+            }
+        }
+        return pathSpec == NO_MAPPING ? null : pathSpec;
+    }
+
+    private Map<String, RollingLatencyHistogram> getServletHistograms( String contextPath )
+    {
+        Map<String, RollingLatencyHistogram> histograms = servletHistograms.get( contextPath );
+        if ( histograms == null )
+        {
+            synchronized ( servletHistograms )
+            {
+                histograms = servletHistograms.get( contextPath );
+                if ( histograms == null )
+                {
+                    histograms = new ConcurrentHashMap<String, RollingLatencyHistogram>();
+                    servletHistograms.put( contextPath, histograms );
+                }
+            }
+        }
+        return histograms;
+    }
+
+    private static RollingLatencyHistogram getHistogram( Map<String, RollingLatencyHistogram> map, String name )
+    {
+        RollingLatencyHistogram histogram = map.get( name );
+        if ( histogram == null )
+        {
+            synchronized ( map )
+            {
+                histogram = map.get( name );
+                if ( histogram == null )
+                {
+                    histogram = new RollingLatencyHistogram( name );
+                    map.put( name, histogram );
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * The servlet mappings of the targets of one deployment of a context,
+     * which is not held on to once undeployed.
+     */
+    private static class MappingCache
+    {
+        final WeakReference<ServletHandler> servletHandler;
+        final Map<String, String> pathSpecs = new ConcurrentHashMap<String, String>();
+
+        MappingCache( ServletHandler servletHandler )
+        {
+            this.servletHandler = new WeakReference<ServletHandler>( servletHandler );
+        }
+    }
+}
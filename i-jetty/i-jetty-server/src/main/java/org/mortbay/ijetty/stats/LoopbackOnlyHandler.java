@@ -0,0 +1,81 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * LoopbackOnlyHandler
+ *
+ * Passes on only the requests made from the phone itself, answering any
+ * other with 403, for the reports that tell more about the server and its
+ * webapps than a client on the network should see. The server listens on
+ * every interface and these reports are not behind the console login.
+ */
+public class LoopbackOnlyHandler extends HandlerWrapper
+{
+    public LoopbackOnlyHandler( Handler handler )
+    {
+        setHandler( handler );
+    }
+
+    /**
+     * @return true if the request came from a loopback address
+     */
+    public static boolean isLoopback( HttpServletRequest request )
+    {
+        // the address of the socket, a literal that is not looked up
+        String address = request.getRemoteAddr();
+        if ( address == null || address.length() == 0 )
+        {
+            return false;
+        }
+        try
+        {
+            return InetAddress.getByName( address ).isLoopbackAddress();
+        }
+        catch ( UnknownHostException e )
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        if ( baseRequest.isHandled() )
+        {
+            return;
+        }
+        if ( !isLoopback( request ) )
+        {
+            baseRequest.setHandled( true );
+            response.sendError( HttpServletResponse.SC_FORBIDDEN );
+            return;
+        }
+        super.handle( target, baseRequest, request, response );
+    }
+}
@@ -0,0 +1,231 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RequestStatistics
+ *
+ * Counts of the requests handled by a context or received on a connector:
+ * how many, how many at once, their responses by status class, the bytes
+ * read and written and the time spent handling them.
+ *
+ * A request is counted as an error when it ends with a 5xx status or when
+ * handling it throws.
+ */
+public class RequestStatistics
+{
+    private final String name;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger activeMax = new AtomicInteger();
+    private final AtomicLong[] responses = new AtomicLong[5];
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong timeTotal = new AtomicLong();
+    private final AtomicLong timeMax = new AtomicLong();
+    private volatile long since = System.currentTimeMillis();
+
+    public RequestStatistics( String name )
+    {
+        this.name = name;
+        for ( int i = 0; i < responses.length; i++ )
+        {
+            responses[i] = new AtomicLong();
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Count a request coming in.
+     */
+    public void requestStarted()
+    {
+        requests.incrementAndGet();
+        int now = active.incrementAndGet();
+        int max = activeMax.get();
+        while ( now > max && !activeMax.compareAndSet( max, now ) )
+        {
+            max = activeMax.get();
+        }
+    }
+
+    /**
+     * Count a request that has been handled.
+     *
+     * @param status
+     *            the status of the response
+     * @param read
+     *            the bytes of request content, -1 if unknown
+     * @param written
+     *            the bytes of response content, -1 if unknown
+     * @param ms
+     *            the time taken to handle the request
+     * @param failed
+     *            true if handling the request threw
+     */
+    public void requestCompleted( int status, long read, long written, long ms, boolean failed )
+    {
+        active.decrementAndGet();
+
+        int statusClass = status / 100;
+        if ( statusClass >= 1 && statusClass <= 5 )
+        {
+            responses[statusClass - 1].incrementAndGet();
+        }
+        if ( failed || statusClass == 5 )
+        {
+            errors.incrementAndGet();
+        }
+        if ( read > 0 )
+        {
+            bytesIn.addAndGet( read );
+        }
+        if ( written > 0 )
+        {
+            bytesOut.addAndGet( written );
+        }
+
+        timeTotal.addAndGet( ms );
+        long max = timeMax.get();
+        while ( ms > max && !timeMax.compareAndSet( max, ms ) )
+        {
+            max = timeMax.get();
+        }
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public int getRequestsActive()
+    {
+        return active.get();
+    }
+
+    public int getRequestsActiveMax()
+    {
+        return activeMax.get();
+    }
+
+    /**
+     * @param statusClass
+     *            1 to 5, for 1xx to 5xx responses
+     */
+    public long getResponses( int statusClass )
+    {
+        return responses[statusClass - 1].get();
+    }
+
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.get();
+    }
+
+    public long getRequestTimeTotal()
+    {
+        return timeTotal.get();
+    }
+
+    public long getRequestTimeMax()
+    {
+        return timeMax.get();
+    }
+
+    /**
+     * @return the time the counts started, in ms since the epoch
+     */
+    public long getSince()
+    {
+        return since;
+    }
+
+    /**
+     * @return the requests per second since the counts started
+     */
+    public double getRequestRate()
+    {
+        long elapsed = System.currentTimeMillis() - since;
+        return elapsed > 0 ? requests.get() * 1000.0 / elapsed : 0;
+    }
+
+    /**
+     * Start counting again. Requests in progress remain active.
+     */
+    public void reset()
+    {
+        requests.set( 0 );
+        activeMax.set( active.get() );
+        for ( AtomicLong count : responses )
+        {
+            count.set( 0 );
+        }
+        errors.set( 0 );
+        bytesIn.set( 0 );
+        bytesOut.set( 0 );
+        timeTotal.set( 0 );
+        timeMax.set( 0 );
+        since = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> toMap()
+    {
+        long count = requests.get();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "name", name );
+        map.put( "since", Long.valueOf( since ) );
+        map.put( "requests", Long.valueOf( count ) );
+        map.put( "requestsPerSecond", Double.valueOf( Math.round( getRequestRate() * 100 ) / 100.0 ) );
+        map.put( "requestsActive", Integer.valueOf( active.get() ) );
+        map.put( "requestsActiveMax", Integer.valueOf( activeMax.get() ) );
+        for ( int i = 1; i <= responses.length; i++ )
+        {
+            map.put( "responses" + i + "xx", Long.valueOf( getResponses( i ) ) );
+        }
+        map.put( "errors", Long.valueOf( errors.get() ) );
+        map.put( "bytesIn", Long.valueOf( bytesIn.get() ) );
+        map.put( "bytesOut", Long.valueOf( bytesOut.get() ) );
+        map.put( "requestTimeMeanMs", Double.valueOf( count > 0 ? Math.round( timeTotal.get() * 100.0 / count ) / 100.0 : 0 ) );
+        map.put( "requestTimeMaxMs", Long.valueOf( timeMax.get() ) );
+        return map;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " requests=" + requests.get() + " active=" + active.get() + " errors=" + errors.get() + " in=" + bytesIn.get() + " out=" +
+                bytesOut.get();
+    }
+}
@@ -0,0 +1,134 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * RollingLatencyHistogram
+ *
+ * Keeps the latencies of a recent window as well as all those since the last
+ * reset. The window is made of a ring of {@link LatencyHistogram}s, each
+ * covering one interval; a slot is cleared by the first latency recorded in
+ * it after the ring comes round again, so an idle recorder costs nothing.
+ *
+ * A latency recorded while its slot is being cleared may be lost, which only
+ * affects the window counts.
+ */
+public class RollingLatencyHistogram
+{
+    public static final int DEFAULT_SLOTS = 6;
+    public static final long DEFAULT_INTERVAL_MS = 10000L;
+
+    private final String name;
+    private final long intervalMs;
+    private final LatencyHistogram[] slots;
+    private final AtomicLongArray epochs;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private volatile long since = System.currentTimeMillis();
+
+    public RollingLatencyHistogram( String name )
+    {
+        this( name, DEFAULT_SLOTS, DEFAULT_INTERVAL_MS );
+    }
+
+    /**
+     * @param slots
+     *            the number of intervals in the window
+     * @param intervalMs
+     *            the length of an interval
+     */
+    public RollingLatencyHistogram( String name, int slots, long intervalMs )
+    {
+        this.name = name;
+        this.intervalMs = intervalMs;
+        this.slots = new LatencyHistogram[slots];
+        this.epochs = new AtomicLongArray( slots );
+        for ( int i = 0; i < slots; i++ )
+        {
+            this.slots[i] = new LatencyHistogram();
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the length of the window in ms
+     */
+    public long getWindowMs()
+    {
+        return intervalMs * slots.length;
+    }
+
+    /**
+     * @return the time of the last reset, in ms since the epoch
+     */
+    public long getSince()
+    {
+        return since;
+    }
+
+    public void record( long micros )
+    {
+        long epoch = System.currentTimeMillis() / intervalMs;
+        int slot = (int) (epoch % slots.length);
+        long current = epochs.get( slot );
+        if ( current != epoch && epochs.compareAndSet( slot, current, epoch ) )
+        {
+            slots[slot].clear();
+        }
+        slots[slot].record( micros );
+        total.record( micros );
+    }
+
+    /**
+     * @return the latencies recorded in the window, up to the current interval
+     */
+    public LatencyHistogram getWindow()
+    {
+        long epoch = System.currentTimeMillis() / intervalMs;
+        LatencyHistogram window = new LatencyHistogram();
+        for ( int i = 0; i < slots.length; i++ )
+        {
+            if ( epoch - epochs.get( i ) < slots.length )
+            {
+                slots[i].addTo( window );
+            }
+        }
+        return window;
+    }
+
+    /**
+     * @return the latencies recorded since the last reset
+     */
+    public LatencyHistogram getTotal()
+    {
+        return total;
+    }
+
+    public void reset()
+    {
+        for ( int i = 0; i < slots.length; i++ )
+        {
+            slots[i].clear();
+            epochs.set( i, 0 );
+        }
+        total.clear();
+        since = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,264 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * ServerStatisticsHandler
+ *
+ * Wraps the handlers of the server to count every request, in total, for the
+ * context that handles it and for the connector it arrived on. The context of
+ * a request is found by a {@link ContextIndex} of the container given to
+ * {@link #setContexts(HandlerContainer)}; requests outside every context are
+ * counted under {@link #NO_CONTEXT}.
+ *
+ * The connection counts of the connectors are turned on when the handler
+ * starts, and reported alongside their request counts.
+ *
+ * A suspended request is counted when its first dispatch returns.
+ */
+public class ServerStatisticsHandler extends HandlerWrapper
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.statistics";
+    public static final String NO_CONTEXT = "(none)";
+
+    private final RequestStatistics total = new RequestStatistics( "server" );
+    private final Map<String, RequestStatistics> contextStatistics = new ConcurrentHashMap<String, RequestStatistics>();
+    private final Map<Connector, RequestStatistics> connectorStatistics = new ConcurrentHashMap<Connector, RequestStatistics>();
+    private volatile ContextIndex contexts;
+
+    public HandlerContainer getContexts()
+    {
+        return contexts == null ? null : contexts.getContainer();
+    }
+
+    /**
+     * @param contexts
+     *            the container the contexts are deployed to, looked at again
+     *            whenever its handlers change
+     */
+    public void setContexts( HandlerContainer contexts )
+    {
+        this.contexts = contexts == null ? null : new ContextIndex( contexts );
+    }
+
+    public RequestStatistics getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return the counts of a context, null if it has had no request
+     */
+    public RequestStatistics getContextStatistics( String contextPath )
+    {
+        return contextStatistics.get( contextPath );
+    }
+
+    /**
+     * @return the counts of a connector, null if it has had no request
+     */
+    public RequestStatistics getConnectorStatistics( Connector connector )
+    {
+        return connectorStatistics.get( connector );
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        Connector[] connectors = getServer() == null ? null : getServer().getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length; i++ )
+        {
+            if ( connectors[i] instanceof AbstractConnector )
+            {
+                ((AbstractConnector) connectors[i]).setStatsOn( true );
+            }
+        }
+        super.doStart();
+    }
+
+    @Override
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        RequestStatistics context = getStatistics( contextStatistics, findContextPath( target ) );
+        Connector connector = baseRequest.getConnection() == null ? null : baseRequest.getConnection().getConnector();
+        RequestStatistics connection = connector == null ? null : getStatistics( connector );
+
+        long start = System.currentTimeMillis();
+        total.requestStarted();
+        context.requestStarted();
+        if ( connection != null )
+        {
+            connection.requestStarted();
+        }
+
+        boolean failed = true;
+        try
+        {
+            super.handle( target, baseRequest, request, response );
+            failed = false;
+        }
+        finally
+        {
+            long ms = System.currentTimeMillis() - start;
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : baseRequest.getResponse().getStatus();
+            long read = request.getContentLength();
+            long written = baseRequest.getResponse().getContentCount();
+
+            total.requestCompleted( status, read, written, ms, failed );
+            context.requestCompleted( status, read, written, ms, failed );
+            if ( connection != null )
+            {
+                connection.requestCompleted( status, read, written, ms, failed );
+            }
+        }
+    }
+
+    /**
+     * Start all the counts again.
+     */
+    public void reset()
+    {
+        total.reset();
+        for ( RequestStatistics statistics : contextStatistics.values() )
+        {
+            statistics.reset();
+        }
+        for ( RequestStatistics statistics : connectorStatistics.values() )
+        {
+            statistics.reset();
+        }
+        Connector[] connectors = getServer() == null ? null : getServer().getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length; i++ )
+        {
+            if ( connectors[i] instanceof AbstractConnector )
+            {
+                ((AbstractConnector) connectors[i]).statsReset();
+            }
+        }
+    }
+
+    /**
+     * @return the counts of the server, its connectors and contexts
+     */
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "server", total.toMap() );
+
+        List<Object> connectors = new ArrayList<Object>();
+        Connector[] serverConnectors = getServer() == null ? null : getServer().getConnectors();
+        for ( int i = 0; serverConnectors != null && i < serverConnectors.length; i++ )
+        {
+            Connector connector = serverConnectors[i];
+            RequestStatistics statistics = getStatistics( connector );
+            Map<String, Object> entry = statistics.toMap();
+            if ( connector instanceof AbstractConnector && ((AbstractConnector) connector).getStatsOn() )
+            {
+                AbstractConnector stats = (AbstractConnector) connector;
+                entry.put( "connections", Long.valueOf( stats.getConnections() ) );
+                entry.put( "connectionsOpen", Long.valueOf( stats.getConnectionsOpen() ) );
+                entry.put( "connectionsOpenMax", Long.valueOf( stats.getConnectionsOpenMax() ) );
+                entry.put( "connectionsDurationMeanMs", Double.valueOf( Math.round( stats.getConnectionsDurationMean() * 100 ) / 100.0 ) );
+                entry.put( "connectionsRequestsMean", Double.valueOf( Math.round( stats.getConnectionsRequestsMean() * 100 ) / 100.0 ) );
+            }
+            connectors.add( entry );
+        }
+        map.put( "connectors", connectors );
+
+        List<Object> contextList = new ArrayList<Object>();
+        String[] paths = contextStatistics.keySet().toArray( new String[0] );
+        Arrays.sort( paths );
+        for ( String path : paths )
+        {
+            contextList.add( contextStatistics.get( path ).toMap() );
+        }
+        map.put( "contexts", contextList );
+        return map;
+    }
+
+    public String toJSON()
+    {
+        return JSON.toString( toMap() );
+    }
+
+    private RequestStatistics getStatistics( Connector connector )
+    {
+        RequestStatistics statistics = connectorStatistics.get( connector );
+        if ( statistics == null )
+        {
+            synchronized ( connectorStatistics )
+            {
+                statistics = connectorStatistics.get( connector );
+                if ( statistics == null )
+                {
+                    String name = connector.getName();
+                    statistics = new RequestStatistics( name == null ? connector.toString() : name );
+                    connectorStatistics.put( connector, statistics );
+                }
+            }
+        }
+        return statistics;
+    }
+
+    private static RequestStatistics getStatistics( Map<String, RequestStatistics> map, String name )
+    {
+        RequestStatistics statistics = map.get( name );
+        if ( statistics == null )
+        {
+            synchronized ( map )
+            {
+                statistics = map.get( name );
+                if ( statistics == null )
+                {
+                    statistics = new RequestStatistics( name );
+                    map.put( name, statistics );
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the path of the context the target belongs to, or
+     *         {@link #NO_CONTEXT}
+     */
+    private String findContextPath( String target )
+    {
+        ContextIndex index = contexts;
+        ContextHandler context = index == null ? null : index.getContext( target );
+        return context == null ? NO_CONTEXT : context.getContextPath();
+    }
+}
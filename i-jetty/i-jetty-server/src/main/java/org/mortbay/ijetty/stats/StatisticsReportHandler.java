@@ -0,0 +1,183 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
+import org.mortbay.ijetty.webapp.AndroidClassLoader;
+import org.mortbay.ijetty.webapp.DexCache;
+import org.mortbay.ijetty.webapp.SharedLibraries;
+
+/**
+ * StatisticsReportHandler
+ *
+ * Serves the counts of a {@link ServerStatisticsHandler} as JSON at the root
+ * of its context, the histograms of a {@link LatencyStatisticsHandler} as
+ * JSON at <code>/latency</code> and in the Prometheus text format at
+ * <code>/metrics</code>, and the hit rates of the lookup caches of the webapp
+ * class loaders, with their warm-up profiles, the {@link DexCache} and the
+ * {@link SharedLibraries} as JSON at <code>/classloaders</code>. The reports
+ * are read only, with GET; the counts are started again through the Java API
+ * of the statistics handlers, by the app hosting the server. As the class
+ * loader report tells the paths of the server and the state of each webapp,
+ * it is only served to clients on the phone itself.
+ */
+public class StatisticsReportHandler extends AbstractHandler
+{
+    public static final String CONTEXT_PATH = "/ijetty/stats";
+
+    private final ServerStatisticsHandler statistics;
+    private final LatencyStatisticsHandler latency;
+
+    public StatisticsReportHandler( ServerStatisticsHandler statistics, LatencyStatisticsHandler latency )
+    {
+        this.statistics = statistics;
+        this.latency = latency;
+    }
+
+    /**
+     * @return a context serving the reports at {@link #CONTEXT_PATH}
+     */
+    public static ContextHandler newContext( ServerStatisticsHandler statistics, LatencyStatisticsHandler latency )
+    {
+        ContextHandler context = new ContextHandler( CONTEXT_PATH );
+        context.setHandler( new StatisticsReportHandler( statistics, latency ) );
+        return context;
+    }
+
+    public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response ) throws IOException,
+            ServletException
+    {
+        if ( baseRequest.isHandled() )
+        {
+            return;
+        }
+
+        baseRequest.setHandled( true );
+        if ( !HttpMethods.GET.equals( request.getMethod() ) )
+        {
+            response.setHeader( "Allow", HttpMethods.GET );
+            response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        String body;
+        String contentType = "application/json; charset=utf-8";
+        if ( "/".equals( target ) )
+        {
+            body = statistics.toJSON();
+        }
+        else if ( "/latency".equals( target ) && latency != null )
+        {
+            body = latency.toJSON();
+        }
+        else if ( "/metrics".equals( target ) && latency != null )
+        {
+            body = latency.toPrometheus();
+            contentType = "text/plain; version=0.0.4; charset=utf-8";
+        }
+        else if ( "/classloaders".equals( target ) )
+        {
+            if ( !LoopbackOnlyHandler.isLoopback( request ) )
+            {
+                response.sendError( HttpServletResponse.SC_FORBIDDEN );
+                return;
+            }
+            body = JSON.toString( getClassLoaderCaches() );
+        }
+        else
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        byte[] bytes = body.getBytes( "UTF-8" );
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( contentType );
+        response.setHeader( "Cache-Control", "no-cache" );
+        response.setContentLength( bytes.length );
+        OutputStream out = response.getOutputStream();
+        out.write( bytes );
+        out.close();
+    }
+
+    /**
+     * @return the lookup caches of the class loader of each started webapp
+     */
+    private Map<String, Object> getClassLoaderCaches()
+    {
+        HandlerContainer container = statistics.getContexts();
+        Handler[] contexts;
+        if ( container instanceof IndexedContextHandlerCollection )
+        {
+            contexts = ((IndexedContextHandlerCollection) container).getContexts();
+        }
+        else
+        {
+            contexts = container == null ? null : container.getChildHandlersByClass( ContextHandler.class );
+        }
+
+        List<Object> loaders = new ArrayList<Object>();
+        for ( int i = 0; contexts != null && i < contexts.length; i++ )
+        {
+            ContextHandler context = (ContextHandler) contexts[i];
+            if ( context.getClassLoader() instanceof AndroidClassLoader )
+            {
+                AndroidClassLoader loader = (AndroidClassLoader) context.getClassLoader();
+                Map<String, Object> entry = new LinkedHashMap<String, Object>();
+                entry.put( "contextPath", context.getContextPath() );
+                entry.put( "classes", loader.getClassCache().toMap() );
+                entry.put( "resources", loader.getResourceCache().toMap() );
+                entry.put( "resourceLists", loader.getResourcesCache().toMap() );
+                if ( loader.getWarmupProfile() != null )
+                {
+                    entry.put( "warmup", loader.getWarmupProfile().toMap() );
+                }
+                loaders.add( entry );
+            }
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "classLoaders", loaders );
+        Object dexCache = getServer() == null ? null : getServer().getAttribute( DexCache.ATTRIBUTE );
+        if ( dexCache instanceof DexCache )
+        {
+            map.put( "dexCache", ((DexCache) dexCache).toMap() );
+        }
+        Object shared = getServer() == null ? null : getServer().getAttribute( SharedLibraries.ATTRIBUTE );
+        if ( shared instanceof SharedLibraries )
+        {
+            map.put( "sharedLibraries", ((SharedLibraries) shared).toMap() );
+        }
+        return map;
+    }
+}
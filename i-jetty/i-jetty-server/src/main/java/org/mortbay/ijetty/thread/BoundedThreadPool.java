@@ -0,0 +1,156 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.mortbay.ijetty.memory.MemoryPressureCoordinator;
+import org.mortbay.ijetty.memory.Reclaimable;
+
+/**
+ * BoundedThreadPool
+ *
+ * QueuedThreadPool with a bounded job queue. Once the queue is full further
+ * jobs are refused straight away, so the connectors close or back off instead
+ * of letting requests pile up behind a busy device.
+ *
+ * Under memory pressure the pool lets its idle threads above the minimum
+ * exit after {@link #SHRUNK_IDLE_MS} rather than the configured idle time,
+ * for {@link #SHRINK_PERIOD_MS}.
+ *
+ * @see ThreadPoolSizing
+ */
+public class BoundedThreadPool extends QueuedThreadPool implements Reclaimable
+{
+    public static final int SHRUNK_IDLE_MS = 1000;
+    public static final long SHRINK_PERIOD_MS = 5 * 60 * 1000L;
+
+    /** rough cost of a parked thread: its stack and thread structures */
+    public static final long THREAD_BYTES_ESTIMATE = 64 * 1024;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private int configuredIdleTimeMs;
+    private volatile long shrunkUntil;
+
+    public BoundedThreadPool( int minThreads, int maxThreads, int maxIdleTimeMs, int maxQueued )
+    {
+        setName( "ijetty" );
+        setMinThreads( minThreads );
+        setMaxThreads( maxThreads );
+        setMaxIdleTimeMs( maxIdleTimeMs );
+        setMaxQueued( maxQueued );
+    }
+
+    @Override
+    public boolean dispatch( Runnable job )
+    {
+        if ( shrunkUntil != 0 && System.currentTimeMillis() > shrunkUntil )
+        {
+            restore();
+        }
+
+        if ( super.dispatch( job ) )
+        {
+            return true;
+        }
+
+        long count = rejected.incrementAndGet();
+        if ( Log.isDebugEnabled() )
+        {
+            Log.debug( "Rejected job " + job + " (" + count + " rejected) queue full for " + this );
+        }
+        return false;
+    }
+
+    /**
+     * Let the idle threads above the minimum exit quickly for a while, once
+     * memory runs low or the process is in the middle of the cached list or
+     * further down.
+     *
+     * @return an estimate of the memory held by those threads
+     */
+    public long reclaim( int level )
+    {
+        switch ( level )
+        {
+            case MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_LOW:
+            case MemoryPressureCoordinator.TRIM_MEMORY_RUNNING_CRITICAL:
+            case MemoryPressureCoordinator.TRIM_MEMORY_MODERATE:
+            case MemoryPressureCoordinator.TRIM_MEMORY_COMPLETE:
+                break;
+            default:
+                return 0;
+        }
+
+        synchronized ( this )
+        {
+            if ( shrunkUntil == 0 )
+            {
+                configuredIdleTimeMs = getMaxIdleTimeMs();
+                setMaxIdleTimeMs( Math.min( configuredIdleTimeMs, SHRUNK_IDLE_MS ) );
+            }
+            shrunkUntil = System.currentTimeMillis() + SHRINK_PERIOD_MS;
+        }
+
+        int surplus = Math.min( getIdleThreads(), getThreads() - getMinThreads() );
+        return Math.max( 0, surplus ) * THREAD_BYTES_ESTIMATE;
+    }
+
+    /**
+     * Resize the running pool. Threads above a lowered maximum go as they
+     * become idle. If the pool is shrunk for memory pressure, the idle time
+     * applies once that is over.
+     */
+    public synchronized void setLimits( int minThreads, int maxThreads, int maxIdleTimeMs )
+    {
+        setMaxThreads( maxThreads );
+        setMinThreads( Math.min( minThreads, maxThreads ) );
+        if ( shrunkUntil != 0 )
+        {
+            configuredIdleTimeMs = maxIdleTimeMs;
+            setMaxIdleTimeMs( Math.min( maxIdleTimeMs, SHRUNK_IDLE_MS ) );
+        }
+        else
+        {
+            setMaxIdleTimeMs( maxIdleTimeMs );
+        }
+    }
+
+    private synchronized void restore()
+    {
+        if ( shrunkUntil != 0 && System.currentTimeMillis() > shrunkUntil )
+        {
+            setMaxIdleTimeMs( configuredIdleTimeMs );
+            shrunkUntil = 0;
+        }
+    }
+
+    /**
+     * @return the number of jobs refused because the queue was full
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BoundedThreadPool[min=" + getMinThreads() + ",max=" + getMaxThreads() + ",idle=" + getMaxIdleTimeMs() + "ms,queue=" +
+                getMaxQueued() + "]";
+    }
+}
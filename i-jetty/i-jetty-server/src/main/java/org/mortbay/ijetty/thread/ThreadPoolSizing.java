@@ -0,0 +1,138 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.thread;
+
+/**
+ * ThreadPoolSizing
+ *
+ * Works out the size of the server thread pool from the number of cores on
+ * the device and the number of deployed webapps. Any value explicitly set to
+ * something greater than zero overrides the derived one.
+ */
+public class ThreadPoolSizing
+{
+    public static final int MIN_POOL_THREADS = 8;
+    public static final int MAX_POOL_THREADS = 64;
+
+    private int processors = Runtime.getRuntime().availableProcessors();
+    private int webapps;
+    private int minThreads;
+    private int maxThreads;
+    private int maxIdleTimeMs;
+    private int maxQueued;
+
+    public int getProcessors()
+    {
+        return processors;
+    }
+
+    public void setProcessors( int processors )
+    {
+        this.processors = Math.max( 1, processors );
+    }
+
+    public int getWebApps()
+    {
+        return webapps;
+    }
+
+    public void setWebApps( int webapps )
+    {
+        this.webapps = Math.max( 0, webapps );
+    }
+
+    /**
+     * @return the explicit minimum, or one thread per core (at least 2)
+     */
+    public int getMinThreads()
+    {
+        if ( minThreads > 0 )
+        {
+            return minThreads;
+        }
+        return Math.max( 2, processors );
+    }
+
+    public void setMinThreads( int minThreads )
+    {
+        this.minThreads = minThreads;
+    }
+
+    /**
+     * @return the explicit maximum, or 8 threads per core plus 2 per webapp,
+     *         kept between {@link #MIN_POOL_THREADS} and {@link #MAX_POOL_THREADS}
+     */
+    public int getMaxThreads()
+    {
+        int max = maxThreads;
+        if ( max <= 0 )
+        {
+            max = Math.min( MAX_POOL_THREADS, Math.max( MIN_POOL_THREADS, processors * 8 + webapps * 2 ) );
+        }
+        return Math.max( max, getMinThreads() );
+    }
+
+    public void setMaxThreads( int maxThreads )
+    {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @return the explicit idle timeout, or 60s divided across the cores (at
+     *         least 10s) so that bigger pools give their threads back sooner
+     */
+    public int getMaxIdleTimeMs()
+    {
+        if ( maxIdleTimeMs > 0 )
+        {
+            return maxIdleTimeMs;
+        }
+        return Math.max( 10000, 60000 / processors );
+    }
+
+    public void setMaxIdleTimeMs( int maxIdleTimeMs )
+    {
+        this.maxIdleTimeMs = maxIdleTimeMs;
+    }
+
+    /**
+     * @return the explicit queue bound, or 4 jobs per core (at least 16)
+     */
+    public int getMaxQueued()
+    {
+        if ( maxQueued > 0 )
+        {
+            return maxQueued;
+        }
+        return Math.max( 16, processors * 4 );
+    }
+
+    public void setMaxQueued( int maxQueued )
+    {
+        this.maxQueued = maxQueued;
+    }
+
+    public BoundedThreadPool newThreadPool()
+    {
+        return new BoundedThreadPool( getMinThreads(), getMaxThreads(), getMaxIdleTimeMs(), getMaxQueued() );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ThreadPoolSizing[cpus=" + processors + ",webapps=" + webapps + ",min=" + getMinThreads() + ",max=" + getMaxThreads() +
+                ",idle=" + getMaxIdleTimeMs() + "ms,queue=" + getMaxQueued() + "]";
+    }
+}
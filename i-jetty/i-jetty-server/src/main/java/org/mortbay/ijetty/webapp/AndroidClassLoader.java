@@ -15,12 +15,18 @@
 
 package org.mortbay.ijetty.webapp;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.zip.CRC32;
 
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.util.log.Log;
@@ -34,14 +40,67 @@ import dalvik.system.DexClassLoader;
  * AndroidClassLoader
  *
  * Loads classes dynamically from dex files wrapped inside a zip.
+ *
+ * Classes are loaded in parallel, so that request threads loading different
+ * classes during warm-up do not queue behind each other. Only the search of
+ * the dex path holds a lock, one of a fixed set picked by the class name, so
+ * that concurrent lookups of one class wait for the first instead of all
+ * searching the path;
+ * the parent and the dex loader define the classes and are safe to call
+ * concurrently.
+ *
+ * The results of class and resource lookups, found or not, are kept in a
+ * {@link LookupCache} each, as frameworks probe for optional classes and
+ * resources over and over. The caches are emptied when the class path
+ * changes and go with the loader, which is made anew each time the webapp is
+ * deployed.
+ *
+ * The archives on the path are indexed by {@link ArchiveIndex} when the
+ * loader is initialized, the index being kept next to the temp directory of
+ * the webapp, so that a resource is read straight from the archive holding it
+ * and a class that none of the archives has a package of is not searched for
+ * in the dex path. The dex path itself stays one DexClassLoader, as the
+ * classes of one archive may link to those of another.
+ *
+ * If the deployer gave the webapp a {@link DexCache}, the dex path is made of
+ * the cached copies of the archives, so that their optimized dex outlives the
+ * temp directory of the webapp and is shared with any webapp with the same
+ * archive.
+ *
+ * The system and server class patterns of the webapp are compiled into a
+ * {@link ClassMatcher} each when the loader is made, as every lookup checks
+ * them, and again if they changed when it is initialized and once the webapp
+ * is configured.
+ *
+ * With {@link SharedLibraries}, the archives other webapps have too are
+ * loaded once for all of them, and the dex loader of the webapp only loads
+ * the others, finding the shared classes through its parent.
+ *
+ * The classes the webapp loads from its archives when first used are
+ * recorded in a {@link WarmupProfile}, and loaded ahead of its first requests
+ * on the next starts.
  */
 @SuppressWarnings( "unchecked" )
 public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
 {
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final int CLASS_LOADING_LOCKS = 32;
+
     private WebAppContext context;
     private ClassLoader parent;
     private ClassLoader delegate;
+    private ArchiveIndex index;
+    private volatile ClassMatcher systemClasses;
+    private volatile ClassMatcher serverClasses;
+    private volatile WarmupProfile warmupProfile;
+    private SharedLibraries sharedLibraries;
+    private SharedLibraries.Tier tier;
     private String path = "";
+    private final Object[] classLoadingLocks = new Object[CLASS_LOADING_LOCKS];
+    private final LookupCache classCache = new LookupCache( "classes", DEFAULT_CACHE_SIZE );
+    private final LookupCache resourceCache = new LookupCache( "resources", DEFAULT_CACHE_SIZE );
+    private final LookupCache resourcesCache = new LookupCache( "resourceLists", DEFAULT_CACHE_SIZE / 4 );
 
     public AndroidClassLoader( String path, ClassLoader parent, WebAppContext context ) throws IOException
     {
@@ -59,6 +118,11 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
         //super(parent, context);
         this.parent = parent;
         this.context = context;
+        for ( int i = 0; i < classLoadingLocks.length; i++ )
+        {
+            classLoadingLocks[i] = new Object();
+        }
+        refreshClassMatchers();
     }
 
     public WebAppContext getContext()
@@ -66,25 +130,258 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
         return context;
     }
 
+    /**
+     * @return the cache of class lookups
+     */
+    public LookupCache getClassCache()
+    {
+        return classCache;
+    }
+
+    /**
+     * @return the cache of {@link #getResource(String)} lookups
+     */
+    public LookupCache getResourceCache()
+    {
+        return resourceCache;
+    }
+
+    /**
+     * @return the cache of {@link #getResources(String)} lookups
+     */
+    public LookupCache getResourcesCache()
+    {
+        return resourcesCache;
+    }
+
+    /**
+     * @param size
+     *            the number of class and of resource lookups to keep, 0 to
+     *            keep none
+     */
+    public void setCacheSize( int size )
+    {
+        classCache.setCapacity( size );
+        resourceCache.setCapacity( size );
+        resourcesCache.setCapacity( size / 4 );
+    }
+
+    private void clearCaches()
+    {
+        classCache.clear();
+        resourceCache.clear();
+        resourcesCache.clear();
+    }
+
     public void init() throws IOException
     {
-        if ( path == null || "".equals( path.trim() ) )
+        clearCaches();
+        refreshClassMatchers();
+        index = null;
+        List<File> archives = new ArrayList<File>();
+        StringTokenizer tok = new StringTokenizer( path == null ? "" : path, ":" );
+        while ( tok.hasMoreTokens() )
         {
-            delegate = new DexClassLoader( "", ((WebAppContext) getContext()).getTempDirectory().getCanonicalPath(), null, parent );
+            archives.add( new File( tok.nextToken() ) );
         }
-        else
+
+        //the archives other webapps have too are loaded by the shared tier
+        releaseSharedLibraries();
+        List<File> own = archives;
+        ClassLoader delegateParent = parent;
+        SharedLibraries shared = SharedLibraries.getSharedLibraries( context );
+        if ( shared != null && parent != null && !archives.isEmpty() )
         {
-            delegate = new DexClassLoader( path, ((WebAppContext) getContext()).getTempDirectory().getCanonicalPath(), null, parent );
+            Map<File, SharedLibraries.Library> libraries = shared.acquire( systemClasses, serverClasses, archives.toArray( new File[archives.size()] ), parent );
+            if ( !libraries.isEmpty() )
+            {
+                own = new ArrayList<File>( archives );
+                own.removeAll( libraries.keySet() );
+                sharedLibraries = shared;
+                tier = new SharedLibraries.Tier( parent, libraries.values() );
+                delegateParent = tier;
+            }
+        }
+
+        String dexPath = join( own );
+        String optimizedDir = context.getTempDirectory().getCanonicalPath();
+        DexCache dexCache = DexCache.getDexCache( context );
+        if ( dexCache != null && !own.isEmpty() )
+        {
+            try
+            {
+                dexPath = dexCache.getDexPath( own.toArray( new File[own.size()] ) );
+                optimizedDir = dexCache.getDirectory().getCanonicalPath();
+            }
+            catch ( IOException e )
+            {
+                Log.warn( "Not caching the dex of " + context + ": " + e );
+            }
+        }
+        delegate = new DexClassLoader( dexPath, optimizedDir, null, delegateParent );
+
+        if ( !archives.isEmpty() )
+        {
+            index = ArchiveIndex.load( archives.toArray( new File[archives.size()] ), getIndexFile() );
         }
 
         if ( Log.isDebugEnabled() )
         {
-            Log.debug( "Android webapp classloader path= " + path + " tmpdir=" + ((WebAppContext) getContext()).getTempDirectory() + " dexloader = " +
+            Log.debug( "Android webapp classloader path= " + path + " dexpath=" + dexPath + " optimized=" + optimizedDir + " dexloader = " +
                     "" +
                     delegate + " parentloader=" + parent );
         }
     }
 
+    private static String join( List<File> archives )
+    {
+        StringBuilder path = new StringBuilder();
+        for ( File archive : archives )
+        {
+            if ( path.length() > 0 )
+            {
+                path.append( ':' );
+            }
+            path.append( archive.getPath() );
+        }
+        return path.toString();
+    }
+
+    /**
+     * Give back the shared libraries the webapp used, when it is stopped.
+     */
+    public void releaseSharedLibraries()
+    {
+        SharedLibraries.Tier released = tier;
+        if ( released != null )
+        {
+            tier = null;
+            sharedLibraries.release( Arrays.asList( released.getLibraries() ) );
+            sharedLibraries = null;
+        }
+    }
+
+    /**
+     * @return the tier the shared libraries of the webapp are loaded by, or
+     *         null if it has none
+     */
+    public SharedLibraries.Tier getSharedTier()
+    {
+        return tier;
+    }
+
+    /**
+     * @return the file the archive index is kept in, beside the temp
+     *         directory of the webapp, which may be emptied when it stops
+     */
+    protected File getIndexFile() throws IOException
+    {
+        return getStateFile( ".archives" );
+    }
+
+    /**
+     * @return the file the {@link WarmupProfile} is kept in, beside the temp
+     *         directory of the webapp
+     */
+    protected File getWarmupFile() throws IOException
+    {
+        return getStateFile( ".warmup" );
+    }
+
+    private File getStateFile( String suffix ) throws IOException
+    {
+        File tmp = context.getTempDirectory().getCanonicalFile();
+        return tmp.getParentFile() == null ? null : new File( tmp.getParentFile(), tmp.getName() + suffix );
+    }
+
+    /**
+     * @return what identifies the content of the archives on the path: their
+     *         hashes if a {@link DexCache} is used, else their names, sizes
+     *         and modification times
+     */
+    public String getVersion() throws IOException
+    {
+        DexCache dexCache = DexCache.getDexCache( context );
+        CRC32 crc = new CRC32();
+        File[] archives = index == null ? new File[0] : index.getArchives();
+        for ( File archive : archives )
+        {
+            String id = dexCache != null ? dexCache.getHash( archive ) : archive.getName() + "/" + archive.length() + "/" + archive.lastModified();
+            crc.update( (id + "\n").getBytes( "UTF-8" ) );
+        }
+        return archives.length + "-" + Long.toHexString( crc.getValue() );
+    }
+
+    /**
+     * @return the profile the classes loaded from the archives are recorded
+     *         in, or null
+     */
+    public WarmupProfile getWarmupProfile()
+    {
+        return warmupProfile;
+    }
+
+    public void setWarmupProfile( WarmupProfile warmupProfile )
+    {
+        this.warmupProfile = warmupProfile;
+    }
+
+    /**
+     * @return the index of the archives on the path, null until
+     *         {@link #init()} or if there are none
+     */
+    public ArchiveIndex getArchiveIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Find a resource in the archives on the path, through the index.
+     */
+    @Override
+    protected URL findResource( String name )
+    {
+        ArchiveIndex archives = index;
+        if ( archives == null )
+        {
+            return null;
+        }
+        File[] found = archives.getArchives( name );
+        return found.length == 0 ? null : toURL( found[0], name );
+    }
+
+    @Override
+    protected Enumeration<URL> findResources( String name ) throws IOException
+    {
+        List<URL> urls = new ArrayList<URL>();
+        ArchiveIndex archives = index;
+        if ( archives != null )
+        {
+            for ( File archive : archives.getArchives( name ) )
+            {
+                URL url = toURL( archive, name );
+                if ( url != null )
+                {
+                    urls.add( url );
+                }
+            }
+        }
+        return Collections.enumeration( urls );
+    }
+
+    private static URL toURL( File archive, String name )
+    {
+        try
+        {
+            return new URL( "jar:" + archive.toURI().toURL().toExternalForm() + "!/" + name );
+        }
+        catch ( MalformedURLException e )
+        {
+            Log.ignore( e );
+            return null;
+        }
+    }
+
     public void addClassPath( Resource resource ) throws IOException
     {
         if ( resource instanceof ResourceCollection )
@@ -119,6 +416,7 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
         }
 
         path += classPath;
+        clearCaches();
         Log.debug( "Path = " + path );
     }
 
@@ -163,8 +461,21 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
 
     public Enumeration<URL> getResources( String name ) throws IOException
     {
-        boolean system_class = context.isSystemClass( name );
-        boolean server_class = context.isServerClass( name );
+        Object cached = resourcesCache.get( name );
+        if ( cached != null )
+        {
+            return Collections.enumeration( Arrays.asList( (URL[]) cached ) );
+        }
+
+        List<URL> found = findAllResources( name );
+        resourcesCache.put( name, found.toArray( new URL[found.size()] ) );
+        return Collections.enumeration( found );
+    }
+
+    private List<URL> findAllResources( String name ) throws IOException
+    {
+        boolean system_class = isSystemClass( name );
+        boolean server_class = isServerClass( name );
 
         List<URL> from_parent = toList( server_class ? null : parent.getResources( name ) );
         List<URL> from_webapp = toList( (system_class && !from_parent.isEmpty()) ? null : this.findResources( name ) );
@@ -172,10 +483,10 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
         if ( context.isParentLoaderPriority() )
         {
             from_parent.addAll( from_webapp );
-            return Collections.enumeration( from_parent );
+            return from_parent;
         }
         from_webapp.addAll( from_parent );
-        return Collections.enumeration( from_webapp );
+        return from_webapp;
     }
 
     private List<URL> toList( Enumeration<URL> e )
@@ -189,11 +500,24 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
     }
 
     public URL getResource( String name )
+    {
+        Object cached = resourceCache.get( name );
+        if ( cached != null )
+        {
+            return cached == LookupCache.NOT_FOUND ? null : (URL) cached;
+        }
+
+        URL url = findAnyResource( name );
+        resourceCache.put( name, url );
+        return url;
+    }
+
+    private URL findAnyResource( String name )
     {
         URL url = null;
         boolean tried_parent = false;
-        boolean system_class = context.isSystemClass( name );
-        boolean server_class = context.isServerClass( name );
+        boolean system_class = isSystemClass( name );
+        boolean server_class = isServerClass( name );
 
         if ( system_class && server_class )
         {
@@ -243,22 +567,115 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
         return url;
     }
 
+    /**
+     * Compile the system and server class patterns of the webapp again if
+     * they changed since, e.g. by its jetty-web.xml, forgetting the lookups
+     * made with the old ones.
+     */
+    public void refreshClassMatchers()
+    {
+        String[] system = context.getSystemClasses();
+        String[] server = context.getServerClasses();
+        ClassMatcher systemMatcher = systemClasses;
+        ClassMatcher serverMatcher = serverClasses;
+        boolean changed = false;
+        if ( systemMatcher == null || !systemMatcher.isCompiledFrom( system ) )
+        {
+            systemClasses = new ClassMatcher( system );
+            changed = systemMatcher != null;
+        }
+        if ( serverMatcher == null || !serverMatcher.isCompiledFrom( server ) )
+        {
+            serverClasses = new ClassMatcher( server );
+            changed |= serverMatcher != null;
+        }
+        if ( changed )
+        {
+            clearCaches();
+        }
+    }
+
+    private boolean isSystemClass( String name )
+    {
+        ClassMatcher matcher = systemClasses;
+        return matcher == null ? context.isSystemClass( name ) : matcher.match( name );
+    }
+
+    private boolean isServerClass( String name )
+    {
+        ClassMatcher matcher = serverClasses;
+        return matcher == null ? context.isServerClass( name ) : matcher.match( name );
+    }
+
+    /**
+     * @return the lock held while searching the dex path for the class, as
+     *         with a parallel capable loader of Java 7, but striped over a
+     *         fixed number of locks rather than kept for every class name
+     *         ever looked up
+     */
+    protected Object getClassLoadingLock( String className )
+    {
+        int hash = className.hashCode();
+        hash ^= (hash >>> 16);
+        return classLoadingLocks[hash & (CLASS_LOADING_LOCKS - 1)];
+    }
+
     @Override
-    protected synchronized Class loadClass( String name, boolean resolve ) throws ClassNotFoundException
+    protected Class loadClass( String name, boolean resolve ) throws ClassNotFoundException
+    {
+        Object cached = classCache.get( name );
+        if ( cached == LookupCache.NOT_FOUND )
+        {
+            throw new ClassNotFoundException( name );
+        }
+
+        Class<?> c = (Class<?>) cached;
+        if ( c == null )
+        {
+            try
+            {
+                c = lookupClass( name );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                classCache.put( name, null );
+                throw e;
+            }
+            if ( c == null )
+            {
+                return null;
+            }
+            classCache.put( name, c );
+
+            WarmupProfile profile = warmupProfile;
+            if ( profile != null && (c.getClassLoader() == delegate || (tier != null && tier.isShared( c ))) )
+            {
+                profile.record( name );
+            }
+        }
+
+        if ( resolve )
+        {
+            resolveClass( c );
+        }
+        return c;
+    }
+
+    private Class<?> lookupClass( String name ) throws ClassNotFoundException
     {
         Class<?> c = findLoadedClass( name );
         ClassNotFoundException ex = null;
         boolean tried_parent = false;
 
-        boolean system_class = ((WebAppContext) getContext()).isSystemClass( name );
-        boolean server_class = ((WebAppContext) getContext()).isServerClass( name );
+        boolean system_class = isSystemClass( name );
+        boolean server_class = isServerClass( name );
 
         if ( system_class && server_class )
         {
             return null;
         }
 
-        if ( c == null && parent != null && (((WebAppContext) getContext()).isParentLoaderPriority() || system_class) && !server_class )
+        if ( c == null && parent != null && (context.isParentLoaderPriority() || system_class) && !server_class )
         {
             tried_parent = true;
             try
@@ -275,22 +692,33 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
             }
         }
 
-        if ( c == null )
+        if ( c == null && delegate != null )
         {
+            if ( Log.isDebugEnabled() )
+            {
+                Log.debug( "loading class " + name + " trying delegate loader" + delegate );
+            }
             try
             {
-                if ( delegate != null )
+                if ( index != null && parent != null && !index.mayHaveClass( name ) )
                 {
-                    if ( Log.isDebugEnabled() )
+                    // in none of the archives, so the delegate would only ask the parent
+                    if ( !tried_parent )
                     {
-                        Log.debug( "loading class " + name + " trying delegate loader" + delegate );
+                        c = parent.loadClass( name );
                     }
-                    c = delegate.loadClass( name );
-                    if ( Log.isDebugEnabled() )
+                }
+                else
+                {
+                    synchronized ( getClassLoadingLock( name ) )
                     {
-                        Log.debug( "delegate loaded " + c );
+                        c = delegate.loadClass( name );
                     }
                 }
+                if ( Log.isDebugEnabled() )
+                {
+                    Log.debug( "delegate loaded " + c );
+                }
             }
             catch ( ClassNotFoundException e )
             {
@@ -309,11 +737,6 @@ public class AndroidClassLoader extends ClassLoader //extends WebAppClassLoader
             throw ex;
         }
 
-        if ( resolve )
-        {
-            resolveClass( c );
-        }
-
         if ( Log.isDebugEnabled() )
         {
             Log.debug( "loaded " + c + " from " + c.getClassLoader() );
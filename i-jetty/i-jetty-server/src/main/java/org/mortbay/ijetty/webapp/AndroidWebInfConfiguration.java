@@ -15,13 +15,19 @@
 
 package org.mortbay.ijetty.webapp;
 
+import java.util.EventListener;
 import java.util.List;
 
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.eclipse.jetty.util.LazyList;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceCollection;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.webapp.WebInfConfiguration;
+import org.mortbay.ijetty.profile.StartupTimeline;
 
 public class AndroidWebInfConfiguration extends WebInfConfiguration
 {
@@ -31,7 +37,15 @@ public class AndroidWebInfConfiguration extends WebInfConfiguration
     {
         context.setClassLoader( new AndroidClassLoader( this.getClass().getClassLoader(), context ) );
 
+        StartupTimeline timeline = StartupTimeline.getTimeline( context );
+        StartupTimeline.Span unpack = timeline == null ? null : timeline.begin( context.getContextPath(), "unpack" );
         super.preConfigure( context );
+        if ( timeline != null )
+        {
+            unpack.end();
+            // the descriptors are parsed by the configurations that follow this one
+            timeline.start( context.getContextPath(), "webxml" );
+        }
         Log.debug( "Setting classloader parent=" + getClass().getClassLoader() + " for context: " + context );
     }
 
@@ -47,6 +61,14 @@ public class AndroidWebInfConfiguration extends WebInfConfiguration
             return;
         }
 
+        StartupTimeline timeline = StartupTimeline.getTimeline( context );
+        StartupTimeline.Span classloader = null;
+        if ( timeline != null )
+        {
+            timeline.end( context.getContextPath(), "webxml" );
+            classloader = timeline.begin( context.getContextPath(), "classloader" );
+        }
+
         Resource web_inf = context.getWebInf();
         String paths = "";
         //Make a loader containing all .zip files in WEB-INF/lib
@@ -76,7 +98,24 @@ public class AndroidWebInfConfiguration extends WebInfConfiguration
         }
 
         //initialize the paths for the dex class loader
-        ((AndroidClassLoader) context.getClassLoader()).init();
+        AndroidClassLoader loader = (AndroidClassLoader) context.getClassLoader();
+        loader.init();
+        if ( classloader != null )
+        {
+            classloader.end();
+        }
+
+        //jetty-web.xml, configured after this, may change the class patterns
+        context.addEventListener( new ClassMatcherRefresher( loader ) );
+
+        //record the classes of the first requests, or load those recorded before
+        if ( WarmupProfile.isEnabled( context ) && loader.getArchiveIndex() != null )
+        {
+            WarmupProfile warmup = WarmupProfile.load( loader.getWarmupFile(), loader.getVersion() );
+            loader.setWarmupProfile( warmup );
+            context.addEventListener( warmup );
+            warmup.preload( loader, context.getContextPath(), timeline );
+        }
 
         // Look for extra resource
         List<Resource> resources = (List<Resource>) context.getAttribute( RESOURCE_URLS );
@@ -91,5 +130,58 @@ public class AndroidWebInfConfiguration extends WebInfConfiguration
             }
             context.setBaseResource( new ResourceCollection( collection ) );
         }
+
+        if ( timeline != null )
+        {
+            // ended when the context has started
+            timeline.start( context.getContextPath(), "init" );
+        }
+    }
+
+    public void deconfigure( WebAppContext context ) throws Exception
+    {
+        if ( context.getClassLoader() instanceof AndroidClassLoader )
+        {
+            AndroidClassLoader loader = (AndroidClassLoader) context.getClassLoader();
+            WarmupProfile warmup = loader.getWarmupProfile();
+            if ( warmup != null )
+            {
+                context.setEventListeners( (EventListener[]) LazyList.removeFromArray( context.getEventListeners(), warmup ) );
+            }
+            loader.releaseSharedLibraries();
+        }
+
+        EventListener[] listeners = context.getEventListeners();
+        for ( int i = 0; listeners != null && i < listeners.length; i++ )
+        {
+            if ( listeners[i] instanceof ClassMatcherRefresher )
+            {
+                context.setEventListeners( (EventListener[]) LazyList.removeFromArray( context.getEventListeners(), listeners[i] ) );
+            }
+        }
+        super.deconfigure( context );
+    }
+
+    /**
+     * Compiles the class patterns of the loader again, if they changed, once
+     * all the configurations have been applied.
+     */
+    private static class ClassMatcherRefresher implements ServletContextListener
+    {
+        private final AndroidClassLoader loader;
+
+        ClassMatcherRefresher( AndroidClassLoader loader )
+        {
+            this.loader = loader;
+        }
+
+        public void contextInitialized( ServletContextEvent event )
+        {
+            loader.refreshClassMatchers();
+        }
+
+        public void contextDestroyed( ServletContextEvent event )
+        {
+        }
     }
 }
@@ -0,0 +1,431 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+
+/**
+ * ArchiveIndex
+ *
+ * Index of the archives on the class path of a webapp: which of them hold
+ * each resource, and the packages of the classes each of them holds, read
+ * from its classes.dex or, off the phone, its class files. It lets the class
+ * loader go straight to the archive of a resource, and not search the dex
+ * path at all for a class none of the archives has a package of.
+ *
+ * An archive whose classes cannot be listed, e.g. a dex in a format not
+ * understood here, is taken to hold every package.
+ *
+ * The index is kept in a file and only the archives whose size or last
+ * modification time changed since are read again.
+ */
+public class ArchiveIndex
+{
+    private static final String VERSION = "ijetty-archive-index 1";
+    private static final int[] NONE = new int[0];
+
+    private final File[] archives;
+    private final Map<String, int[]> resources = new HashMap<String, int[]>();
+    private final Set<String> packages = new HashSet<String>();
+    private boolean allPackages;
+
+    private ArchiveIndex( File[] archives )
+    {
+        this.archives = archives;
+    }
+
+    /**
+     * Index the archives, reusing what the store file holds for the archives
+     * that have not changed, and write the index back to it if any had.
+     *
+     * @param store
+     *            the file the index is kept in, or null to not keep it
+     */
+    public static ArchiveIndex load( File[] archives, File store )
+    {
+        Map<String, Entry> stored = store == null ? new HashMap<String, Entry>() : read( store );
+        boolean changed = stored.size() != archives.length;
+
+        ArchiveIndex index = new ArchiveIndex( archives );
+        List<Entry> entries = new ArrayList<Entry>();
+        for ( int i = 0; i < archives.length; i++ )
+        {
+            File archive = archives[i];
+            Entry entry = stored.get( archive.getAbsolutePath() );
+            if ( entry == null || entry.size != archive.length() || entry.modified != archive.lastModified() )
+            {
+                entry = scan( archive );
+                changed = true;
+            }
+            entries.add( entry );
+            index.add( i, entry );
+        }
+
+        if ( changed && store != null )
+        {
+            write( store, entries );
+        }
+        return index;
+    }
+
+    public File[] getArchives()
+    {
+        return archives;
+    }
+
+    /**
+     * @return the archives holding the resource, in class path order
+     */
+    public File[] getArchives( String resource )
+    {
+        int[] found = resources.get( resource );
+        if ( found == null )
+        {
+            return new File[0];
+        }
+        File[] files = new File[found.length];
+        for ( int i = 0; i < found.length; i++ )
+        {
+            files[i] = archives[found[i]];
+        }
+        return files;
+    }
+
+    /**
+     * @return false if none of the archives can hold the class
+     */
+    public boolean mayHaveClass( String className )
+    {
+        if ( allPackages )
+        {
+            return true;
+        }
+        int dot = className.lastIndexOf( '.' );
+        return packages.contains( dot < 0 ? "" : className.substring( 0, dot ) );
+    }
+
+    private void add( int archive, Entry entry )
+    {
+        allPackages |= !entry.classesKnown;
+        packages.addAll( entry.packages );
+        for ( String name : entry.resources )
+        {
+            int[] found = resources.get( name );
+            if ( found == null )
+            {
+                found = NONE;
+            }
+            int[] more = new int[found.length + 1];
+            System.arraycopy( found, 0, more, 0, found.length );
+            more[found.length] = archive;
+            resources.put( name, more );
+        }
+    }
+
+    /**
+     * Read the entries and classes of an archive.
+     */
+    static Entry scan( File archive )
+    {
+        Entry entry = new Entry( archive.getAbsolutePath(), archive.length(), archive.lastModified() );
+        ZipFile zip = null;
+        try
+        {
+            zip = new ZipFile( archive );
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while ( e.hasMoreElements() )
+            {
+                ZipEntry ze = e.nextElement();
+                String name = ze.getName();
+                if ( ze.isDirectory() || name.indexOf( '\n' ) >= 0 )
+                {
+                    continue;
+                }
+
+                if ( name.startsWith( "classes" ) && name.endsWith( ".dex" ) && name.indexOf( '/' ) < 0 )
+                {
+                    InputStream in = zip.getInputStream( ze );
+                    try
+                    {
+                        entry.classesKnown &= readDexPackages( IO.readBytes( in ), entry.packages );
+                    }
+                    finally
+                    {
+                        IO.close( in );
+                    }
+                    continue;
+                }
+
+                if ( name.endsWith( ".class" ) )
+                {
+                    int slash = name.lastIndexOf( '/' );
+                    entry.packages.add( slash < 0 ? "" : name.substring( 0, slash ).replace( '/', '.' ) );
+                }
+                entry.resources.add( name );
+            }
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Cannot index " + archive + ": " + e );
+            entry.classesKnown = false;
+        }
+        finally
+        {
+            if ( zip != null )
+            {
+                try
+                {
+                    zip.close();
+                }
+                catch ( IOException e )
+                {
+                    Log.ignore( e );
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Add the packages of the classes defined in a dex file.
+     *
+     * @return false if the dex could not be read
+     */
+    static boolean readDexPackages( byte[] dex, Set<String> packages )
+    {
+        Set<String> classes = new HashSet<String>();
+        if ( !readDexTypes( dex, classes, null ) )
+        {
+            return false;
+        }
+        for ( String className : classes )
+        {
+            int dot = className.lastIndexOf( '.' );
+            packages.add( dot < 0 ? "" : className.substring( 0, dot ) );
+        }
+        return true;
+    }
+
+    /**
+     * Add the names of the classes defined in a dex file and, if asked for,
+     * of all the classes it refers to, its own included.
+     *
+     * @param referenced
+     *            the set to add the referred to classes to, or null
+     * @return false if the dex could not be read
+     */
+    static boolean readDexTypes( byte[] dex, Set<String> defined, Set<String> referenced )
+    {
+        if ( dex.length < 0x70 || dex[0] != 'd' || dex[1] != 'e' || dex[2] != 'x' || dex[3] != '\n' )
+        {
+            return false;
+        }
+
+        try
+        {
+            int stringIdsOff = readInt( dex, 60 );
+            int typeIdsSize = readInt( dex, 64 );
+            int typeIdsOff = readInt( dex, 68 );
+            int classDefsSize = readInt( dex, 96 );
+            int classDefsOff = readInt( dex, 100 );
+            for ( int i = 0; i < classDefsSize; i++ )
+            {
+                int classIdx = readInt( dex, classDefsOff + i * 32 );
+                defined.add( readClassName( dex, stringIdsOff, typeIdsOff, classIdx ) );
+            }
+            for ( int i = 0; referenced != null && i < typeIdsSize; i++ )
+            {
+                String className = readClassName( dex, stringIdsOff, typeIdsOff, i );
+                if ( className != null )
+                {
+                    referenced.add( className );
+                }
+            }
+            return true;
+        }
+        catch ( Exception e )
+        {
+            Log.ignore( e );
+            return false;
+        }
+    }
+
+    /**
+     * @return the name of the class of a type of a dex file, or null if it
+     *         is a primitive type or an array of them
+     */
+    private static String readClassName( byte[] dex, int stringIdsOff, int typeIdsOff, int typeIdx ) throws IOException
+    {
+        int descriptorIdx = readInt( dex, typeIdsOff + typeIdx * 4 );
+        int dataOff = readInt( dex, stringIdsOff + descriptorIdx * 4 );
+
+        // skip the uleb128 length, then read up to the NUL
+        while ( (dex[dataOff] & 0x80) != 0 )
+        {
+            dataOff++;
+        }
+        dataOff++;
+        while ( dex[dataOff] == '[' )
+        {
+            dataOff++;
+        }
+        if ( dex[dataOff] != 'L' )
+        {
+            return null;
+        }
+        int end = dataOff;
+        while ( dex[end] != 0 )
+        {
+            end++;
+        }
+
+        // a descriptor is Lpackage/path/Name;
+        return new String( dex, dataOff + 1, end - dataOff - 2, "UTF-8" ).replace( '/', '.' );
+    }
+
+    private static int readInt( byte[] b, int off )
+    {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+
+    private static Map<String, Entry> read( File store )
+    {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        if ( !store.exists() )
+        {
+            return entries;
+        }
+
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader( new InputStreamReader( new FileInputStream( store ), "UTF-8" ) );
+            if ( !VERSION.equals( in.readLine() ) )
+            {
+                return entries;
+            }
+
+            Entry entry = null;
+            String line;
+            while ( (line = in.readLine()) != null )
+            {
+                if ( line.startsWith( "A\t" ) )
+                {
+                    String[] fields = line.split( "\t" );
+                    entry = new Entry( fields[1], Long.parseLong( fields[2] ), Long.parseLong( fields[3] ) );
+                    entry.classesKnown = "1".equals( fields[4] );
+                    entries.put( entry.path, entry );
+                }
+                else if ( entry != null && line.startsWith( "P\t" ) )
+                {
+                    entry.packages.add( line.substring( 2 ) );
+                }
+                else if ( entry != null && line.startsWith( "R\t" ) )
+                {
+                    entry.resources.add( line.substring( 2 ) );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            Log.warn( "Cannot read archive index " + store + ": " + e );
+            entries.clear();
+        }
+        finally
+        {
+            IO.close( in );
+        }
+        return entries;
+    }
+
+    private static void write( File store, List<Entry> entries )
+    {
+        File tmp = new File( store.getPath() + ".tmp" );
+        Writer out = null;
+        try
+        {
+            out = new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" );
+            out.write( VERSION + "\n" );
+            for ( Entry entry : entries )
+            {
+                out.write( "A\t" + entry.path + "\t" + entry.size + "\t" + entry.modified + "\t" + (entry.classesKnown ? "1" : "0") + "\n" );
+                for ( String pkg : entry.packages )
+                {
+                    out.write( "P\t" + pkg + "\n" );
+                }
+                for ( String name : entry.resources )
+                {
+                    out.write( "R\t" + name + "\n" );
+                }
+            }
+            out.close();
+            out = null;
+            if ( !tmp.renameTo( store ) )
+            {
+                store.delete();
+                tmp.renameTo( store );
+            }
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Cannot write archive index " + store + ": " + e );
+        }
+        finally
+        {
+            IO.close( out );
+            tmp.delete();
+        }
+    }
+
+    /**
+     * What one archive holds.
+     */
+    static class Entry
+    {
+        final String path;
+        final long size;
+        final long modified;
+        final Set<String> packages = new HashSet<String>();
+        final List<String> resources = new ArrayList<String>();
+        boolean classesKnown = true;
+
+        Entry( String path, long size, long modified )
+        {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ClassMatcher
+ *
+ * The system or server class patterns of a webapp, compiled once, to be
+ * matched as by the ClasspathPattern of the WebAppContext without walking
+ * the patterns for every class and resource looked up.
+ *
+ * As there, the first pattern to match decides, a pattern starting with "-"
+ * excludes what it matches, a pattern ending with "." matches the classes of
+ * a package and its subpackages, and any other matches a class and its
+ * inner classes. The package patterns are kept in a character trie, walked
+ * once per package, the package result being remembered; the class patterns
+ * are looked up by name.
+ */
+public class ClassMatcher
+{
+    private static final Entry NONE = new Entry( Integer.MAX_VALUE, false );
+
+    private final String[] patterns;
+    private final Node packageTrie = new Node();
+    private final Map<String, Entry> classes = new HashMap<String, Entry>();
+    private final ConcurrentMap<String, Entry> packages = new ConcurrentHashMap<String, Entry>();
+
+    public ClassMatcher( String[] patterns )
+    {
+        this.patterns = patterns == null ? new String[0] : (String[]) patterns.clone();
+        for ( int i = 0; i < this.patterns.length; i++ )
+        {
+            String pattern = this.patterns[i] == null ? "" : this.patterns[i].trim();
+            boolean result = !pattern.startsWith( "-" );
+            String path = result ? pattern : pattern.substring( 1 );
+            if ( path.length() == 0 )
+            {
+                continue;
+            }
+
+            Entry entry = new Entry( i, result );
+            if ( path.endsWith( "." ) )
+            {
+                Node node = packageTrie;
+                for ( int c = 0; c < path.length(); c++ )
+                {
+                    node = node.child( path.charAt( c ), true );
+                }
+                if ( node.entry == null )
+                {
+                    node.entry = entry;
+                }
+            }
+            else if ( !classes.containsKey( path ) )
+            {
+                classes.put( path, entry );
+            }
+        }
+    }
+
+    /**
+     * @return true if the matcher was compiled from these patterns
+     */
+    public boolean isCompiledFrom( String[] patterns )
+    {
+        return Arrays.equals( this.patterns, patterns == null ? new String[0] : patterns );
+    }
+
+    public String[] getPatterns()
+    {
+        return (String[]) patterns.clone();
+    }
+
+    /**
+     * @param name
+     *            a class name, or a resource name with "/" separators
+     */
+    public boolean match( String name )
+    {
+        name = name.replace( '/', '.' );
+        int start = 0;
+        while ( start < name.length() && name.charAt( start ) == '.' )
+        {
+            start++;
+        }
+        if ( start > 0 )
+        {
+            name = name.substring( start );
+        }
+
+        int dot = name.lastIndexOf( '.' );
+        Entry best = matchPackage( dot < 0 ? "" : name.substring( 0, dot + 1 ) );
+
+        if ( !classes.isEmpty() )
+        {
+            // as the ClasspathPattern, compare only up to the first '$'
+            int dollar = name.indexOf( '$' );
+            best = first( best, classes.get( dollar < 0 ? name : name.substring( 0, dollar ) ) );
+        }
+        return best.result;
+    }
+
+    /**
+     * @return the first package pattern matching the package, remembered
+     */
+    private Entry matchPackage( String pkg )
+    {
+        Entry best = packages.get( pkg );
+        if ( best != null )
+        {
+            return best;
+        }
+
+        best = NONE;
+        Node node = packageTrie;
+        for ( int c = 0; c < pkg.length() && node != null; c++ )
+        {
+            node = node.child( pkg.charAt( c ), false );
+            if ( node != null )
+            {
+                best = first( best, node.entry );
+            }
+        }
+        packages.put( pkg, best );
+        return best;
+    }
+
+    private static Entry first( Entry best, Entry entry )
+    {
+        return entry != null && entry.index < best.index ? entry : best;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.asList( patterns ).toString();
+    }
+
+    private static class Entry
+    {
+        final int index;
+        final boolean result;
+
+        Entry( int index, boolean result )
+        {
+            this.index = index;
+            this.result = result;
+        }
+    }
+
+    private static class Node
+    {
+        Map<Character, Node> children;
+        Entry entry;
+
+        Node child( char c, boolean create )
+        {
+            Node child = children == null ? null : children.get( Character.valueOf( c ) );
+            if ( child == null && create )
+            {
+                if ( children == null )
+                {
+                    children = new HashMap<Character, Node>( 4 );
+                }
+                child = new Node();
+                children.put( Character.valueOf( c ), child );
+            }
+            return child;
+        }
+    }
+}
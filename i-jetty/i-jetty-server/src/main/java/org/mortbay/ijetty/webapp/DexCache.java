@@ -0,0 +1,488 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+
+/**
+ * DexCache
+ *
+ * Keeps the optimized dex of the archives of the webapps across restarts and
+ * redeploys. Each archive is copied once into the cache directory, named by
+ * the SHA-256 of its content, and the dex loader is pointed at the copy with
+ * the cache directory as its optimized output, so the optimized dex is named
+ * by the hash too: it is made the first time an archive is loaded and reused
+ * by every later deploy of it, by any webapp, for as long as it is cached.
+ *
+ * The copy is kept rather than loading the archive where the webapp was
+ * unpacked, as dalvik checks the optimized dex against the modification time
+ * of its source, which unpacking sets anew.
+ *
+ * Each use of an archive touches a <code>.used</code> marker beside it, and
+ * {@link #cleanup()} evicts the least recently used archives, with their
+ * optimized dex, until the cache fits its size. Archives loaded since the
+ * server started are never evicted.
+ */
+public class DexCache
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.dexCache";
+
+    private static final String ARCHIVE = ".zip";
+    private static final String USED = ".used";
+    private static final String TMP = ".tmp";
+    private static final int HASH_LENGTH = 64;
+
+    private final File dir;
+    private long maxSize;
+    private final ConcurrentMap<String, Digest> digests = new ConcurrentHashMap<String, Digest>();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    private final Set<String> inUse = new HashSet<String>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize
+     *            the bytes the cache is trimmed to by {@link #cleanup()}
+     */
+    public DexCache( File dir, long maxSize )
+    {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache set on the context by its deployer, or null
+     */
+    public static DexCache getDexCache( ContextHandler context )
+    {
+        Object cache = context.getAttribute( ATTRIBUTE );
+        return cache instanceof DexCache ? (DexCache) cache : null;
+    }
+
+    public File getDirectory()
+    {
+        return dir;
+    }
+
+    public synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize( long maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cached copies of the archives, as a dex path to load them
+     *         from with the cache directory as the optimized output
+     */
+    public String getDexPath( File[] archives ) throws IOException
+    {
+        StringBuilder path = new StringBuilder();
+        for ( File archive : archives )
+        {
+            if ( path.length() > 0 )
+            {
+                path.append( ':' );
+            }
+            path.append( get( archive ).getCanonicalPath() );
+        }
+        return path.toString();
+    }
+
+    /**
+     * @return the cached copy of the archive, copied into the cache if no
+     *         archive with the same content is in it yet
+     */
+    public File get( File archive ) throws IOException
+    {
+        String hash = getHash( archive );
+        synchronized ( this )
+        {
+            inUse.add( hash );
+        }
+
+        File copy = new File( dir, hash + ARCHIVE );
+        synchronized ( getLock( hash ) )
+        {
+            boolean optimized = new File( dir, hash + ".dex" ).exists();
+            if ( !copy.exists() )
+            {
+                optimized = false;
+                copy( archive, copy );
+            }
+            touch( new File( dir, hash + USED ) );
+            synchronized ( this )
+            {
+                if ( optimized )
+                {
+                    hits++;
+                }
+                else
+                {
+                    misses++;
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the SHA-256 of the content of the archive, read again only if
+     *         its size or modification time changed
+     */
+    public String getHash( File archive ) throws IOException
+    {
+        String key = archive.getAbsolutePath();
+        long size = archive.length();
+        long modified = archive.lastModified();
+        Digest digest = digests.get( key );
+        if ( digest == null || digest.size != size || digest.modified != modified )
+        {
+            digest = new Digest( hash( archive ), size, modified );
+            digests.put( key, digest );
+        }
+        return digest.hash;
+    }
+
+    /**
+     * Evict the least recently used archives and their optimized dex until
+     * the cache fits its size, and remove partial copies and files with no
+     * archive left.
+     *
+     * @return the bytes removed
+     */
+    public synchronized long cleanup()
+    {
+        File[] files = dir.listFiles();
+        if ( files == null )
+        {
+            return 0;
+        }
+
+        // the files of each archive, by hash
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for ( File file : files )
+        {
+            String name = file.getName();
+            int dot = name.indexOf( '.' );
+            if ( dot != HASH_LENGTH || !file.isFile() )
+            {
+                continue;
+            }
+            String hash = name.substring( 0, dot );
+            Entry entry = entries.get( hash );
+            if ( entry == null )
+            {
+                entry = new Entry( hash );
+                entries.put( hash, entry );
+            }
+            entry.add( file );
+        }
+
+        long removed = 0;
+        long total = 0;
+        List<Entry> evictable = new ArrayList<Entry>();
+        for ( Entry entry : entries.values() )
+        {
+            if ( inUse.contains( entry.hash ) )
+            {
+                // may be being copied
+                total += entry.size;
+                continue;
+            }
+
+            removed += entry.deletePartial();
+            if ( !entry.hasArchive )
+            {
+                removed += entry.delete();
+            }
+            else
+            {
+                total += entry.size;
+                evictable.add( entry );
+            }
+        }
+
+        Collections.sort( evictable, new Comparator<Entry>()
+        {
+            public int compare( Entry a, Entry b )
+            {
+                return a.getUsed() < b.getUsed() ? -1 : a.getUsed() > b.getUsed() ? 1 : 0;
+            }
+        } );
+        for ( int i = 0; i < evictable.size() && total > maxSize; i++ )
+        {
+            Entry entry = evictable.get( i );
+            total -= entry.size;
+            removed += entry.delete();
+            evictions++;
+        }
+
+        if ( removed > 0 )
+        {
+            Log.info( "Removed " + removed + " bytes from dex cache " + dir + ", " + total + " bytes cached" );
+        }
+        return removed;
+    }
+
+    /**
+     * @return the bytes of archives and optimized dex in the cache
+     */
+    public long getSize()
+    {
+        long size = 0;
+        File[] files = dir.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ )
+        {
+            size += files[i].length();
+        }
+        return size;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "directory", dir.getPath() );
+        map.put( "size", Long.valueOf( getSize() ) );
+        map.put( "maxSize", Long.valueOf( maxSize ) );
+        map.put( "archives", Integer.valueOf( inUse.size() ) );
+        map.put( "hits", Long.valueOf( hits ) );
+        map.put( "misses", Long.valueOf( misses ) );
+        map.put( "evictions", Long.valueOf( evictions ) );
+        return map;
+    }
+
+    private Object getLock( String hash )
+    {
+        Object lock = locks.get( hash );
+        if ( lock == null )
+        {
+            Object created = new Object();
+            lock = locks.putIfAbsent( hash, created );
+            if ( lock == null )
+            {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Copy through a temporary file, so that a copy cut short is never taken
+     * for a cached archive.
+     */
+    private void copy( File from, File to ) throws IOException
+    {
+        if ( !dir.exists() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot make " + dir );
+        }
+
+        File tmp = new File( to.getPath() + TMP );
+        InputStream in = new FileInputStream( from );
+        try
+        {
+            OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                IO.copy( in, out );
+            }
+            finally
+            {
+                IO.close( out );
+            }
+            if ( !tmp.renameTo( to ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + to );
+            }
+        }
+        finally
+        {
+            IO.close( in );
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Rewrite the marker, as setting the modification time is not supported
+     * by every file system the jetty dir may be on.
+     */
+    private static void touch( File marker )
+    {
+        try
+        {
+            new FileOutputStream( marker ).close();
+        }
+        catch ( IOException e )
+        {
+            Log.ignore( e );
+        }
+    }
+
+    private static String hash( File archive ) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "SHA-256 not supported: " + e );
+        }
+
+        InputStream in = new FileInputStream( archive );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ( (len = in.read( buffer )) >= 0 )
+            {
+                digest.update( buffer, 0, len );
+            }
+        }
+        finally
+        {
+            IO.close( in );
+        }
+
+        StringBuilder hex = new StringBuilder( HASH_LENGTH );
+        for ( byte b : digest.digest() )
+        {
+            hex.append( Character.forDigit( (b >> 4) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return hex.toString();
+    }
+
+    private static class Digest
+    {
+        final String hash;
+        final long size;
+        final long modified;
+
+        Digest( String hash, long size, long modified )
+        {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * The files of one cached archive: the archive, its optimized dex and
+     * its marker.
+     */
+    private static class Entry
+    {
+        final String hash;
+        final List<File> files = new ArrayList<File>();
+        final List<File> partial = new ArrayList<File>();
+        boolean hasArchive;
+        long size;
+        long marked;
+        long modified;
+
+        Entry( String hash )
+        {
+            this.hash = hash;
+        }
+
+        void add( File file )
+        {
+            String name = file.getName();
+            if ( name.endsWith( TMP ) )
+            {
+                partial.add( file );
+                return;
+            }
+            files.add( file );
+            size += file.length();
+            hasArchive |= name.endsWith( ARCHIVE );
+            if ( name.endsWith( USED ) )
+            {
+                marked = file.lastModified();
+            }
+            modified = Math.max( modified, file.lastModified() );
+        }
+
+        /**
+         * @return when the archive was last used, or else cached
+         */
+        long getUsed()
+        {
+            return marked > 0 ? marked : modified;
+        }
+
+        long deletePartial()
+        {
+            return delete( partial );
+        }
+
+        long delete()
+        {
+            return delete( files );
+        }
+
+        private static long delete( List<File> files )
+        {
+            long deleted = 0;
+            for ( File file : files )
+            {
+                long length = file.length();
+                if ( file.delete() )
+                {
+                    deleted += length;
+                }
+            }
+            return deleted;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LookupCache
+ *
+ * Bounded cache of the results of looking names up in a class loader, found
+ * or not: a lookup that found nothing is kept as {@link #NOT_FOUND}, so that
+ * probing for a missing class or resource is answered without searching
+ * again.
+ *
+ * Lookups read a concurrent map without locking, so that threads loading
+ * classes of the webapp do not wait on each other for the cache. Once the
+ * cache is full, entries are dropped in the order they were added, except
+ * that an entry looked up since it was last passed over is given a second
+ * chance (the clock approximation of least recently used). Only adding and
+ * dropping entries takes a lock, and that only follows a lookup that missed.
+ *
+ * Counts its hits and misses, for the hit rate to be reported.
+ */
+public class LookupCache
+{
+    /**
+     * The cached result of a lookup that found nothing.
+     */
+    public static final Object NOT_FOUND = new Object()
+    {
+        @Override
+        public String toString()
+        {
+            return "NOT_FOUND";
+        }
+    };
+
+    private final String name;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final LinkedList<Entry> clock = new LinkedList<Entry>();
+    private volatile int capacity;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the number of lookups kept, 0 to keep none
+     */
+    public LookupCache( String name, int capacity )
+    {
+        this.name = name;
+        this.capacity = Math.max( 0, capacity );
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the cached result, {@link #NOT_FOUND} if the lookup found
+     *         nothing, or null if it is not cached
+     */
+    public Object get( String key )
+    {
+        Entry entry = entries.get( key );
+        if ( entry == null )
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        if ( !entry.referenced )
+        {
+            entry.referenced = true;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * @param value
+     *            the result of the lookup, or null if it found nothing
+     */
+    public void put( String key, Object value )
+    {
+        if ( capacity <= 0 )
+        {
+            return;
+        }
+
+        synchronized ( clock )
+        {
+            // a lookup of the same name that missed alongside found the same
+            Entry entry = new Entry( key, value == null ? NOT_FOUND : value );
+            if ( entries.putIfAbsent( key, entry ) == null )
+            {
+                clock.addLast( entry );
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Forget the cached lookups, e.g. when the class path changes.
+     */
+    public void clear()
+    {
+        synchronized ( clock )
+        {
+            entries.clear();
+            clock.clear();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity( int capacity )
+    {
+        synchronized ( clock )
+        {
+            this.capacity = Math.max( 0, capacity );
+            evict();
+        }
+    }
+
+    public int getSize()
+    {
+        return entries.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of the lookups answered from the cache, 0 if none yet
+     */
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long lookups = h + misses.get();
+        return lookups == 0 ? 0 : (double) h / lookups;
+    }
+
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "name", name );
+        map.put( "size", Integer.valueOf( entries.size() ) );
+        map.put( "capacity", Integer.valueOf( capacity ) );
+        map.put( "hits", Long.valueOf( hits.get() ) );
+        map.put( "misses", Long.valueOf( misses.get() ) );
+        map.put( "hitRate", Double.valueOf( Math.round( getHitRate() * 10000 ) / 10000.0 ) );
+        return map;
+    }
+
+    /**
+     * Drop entries until the cache fits, passing over those looked up since
+     * they were last passed over, holding the lock of the clock.
+     */
+    private void evict()
+    {
+        while ( clock.size() > capacity )
+        {
+            Entry entry = clock.removeFirst();
+            if ( entry.referenced && capacity > 0 )
+            {
+                entry.referenced = false;
+                clock.addLast( entry );
+            }
+            else
+            {
+                entries.remove( entry.key, entry );
+            }
+        }
+    }
+
+    private static class Entry
+    {
+        final String key;
+        final Object value;
+        volatile boolean referenced;
+
+        Entry( String key, Object value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+
+import dalvik.system.DexClassLoader;
+
+/**
+ * SharedLibraries
+ *
+ * The archives the webapps have in common, loaded once for all of them. An
+ * archive of a webapp is shared with every other webapp that has an archive
+ * with the same content, as told by the {@link DexCache}: it is loaded by a
+ * dex loader of its own over its cached copy, whose parent is that of the
+ * webapp class loaders, and the dex loader of each webapp finds its classes
+ * through a {@link Tier} over the libraries it uses. The classes, and the
+ * memory of the dex, are then held once however many webapps bundle them.
+ *
+ * An archive is only shared if it stands on its own: every class its dex
+ * refers to is either in it or found by the parent, as it cannot see the
+ * other archives of a webapp. Nor is an archive holding a system or server
+ * class of the webapp, so that those rules apply as before; that is checked
+ * from the classes listed in its dex, before it is cached or loaded, and
+ * remembered for the system and server classes of the webapp so that the
+ * archive is not read again each time the webapp is deployed or woken.
+ * Archives whose classes cannot be listed, such as plain jars, are not
+ * shared.
+ *
+ * A webapp opts out with the init parameter {@link #INIT_PARAM} set to
+ * false. A library is dropped once the last webapp using it has released it.
+ */
+public class SharedLibraries
+{
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.sharedLibraries";
+
+    /**
+     * The context init parameter that, set to false, keeps all the archives
+     * of the webapp to itself.
+     */
+    public static final String INIT_PARAM = "org.mortbay.ijetty.sharedLibraries";
+
+    private final DexCache dexCache;
+    private final Map<String, Library> libraries = new HashMap<String, Library>();
+    private final Map<String, Boolean> standalone = new HashMap<String, Boolean>();
+    private final Map<String, Set<String>> rejected = new HashMap<String, Set<String>>();
+
+    public SharedLibraries( DexCache dexCache )
+    {
+        this.dexCache = dexCache;
+    }
+
+    /**
+     * @return the shared libraries set on the context by its deployer, or
+     *         null if there are none or the webapp opted out
+     */
+    public static SharedLibraries getSharedLibraries( ContextHandler context )
+    {
+        Object shared = context.getAttribute( ATTRIBUTE );
+        String param = context.getInitParameter( INIT_PARAM );
+        if ( !(shared instanceof SharedLibraries) || (param != null && "false".equalsIgnoreCase( param.trim() )) )
+        {
+            return null;
+        }
+        return (SharedLibraries) shared;
+    }
+
+    public DexCache getDexCache()
+    {
+        return dexCache;
+    }
+
+    /**
+     * Take the shared libraries of the archives of a webapp, loading those
+     * not used by any other webapp yet.
+     *
+     * @param systemClasses
+     *            the system classes of the webapp
+     * @param serverClasses
+     *            the server classes of the webapp
+     * @param parent
+     *            the parent of the class loader of the webapp
+     * @return the shared library of each archive that can be shared, in
+     *         class path order
+     */
+    public synchronized Map<File, Library> acquire( ClassMatcher systemClasses, ClassMatcher serverClasses, File[] archives, ClassLoader parent )
+    {
+        Map<File, Library> acquired = new LinkedHashMap<File, Library>();
+        Set<String> rejectedByWebapp = getRejected( systemClasses, serverClasses );
+        for ( File archive : archives )
+        {
+            try
+            {
+                String hash = dexCache.getHash( archive );
+                if ( rejectedByWebapp.contains( hash ) )
+                {
+                    continue;
+                }
+
+                Library library = libraries.get( hash );
+                if ( library == null || library.parent != parent )
+                {
+                    library = load( hash, archive, parent, systemClasses, serverClasses, rejectedByWebapp );
+                    if ( library == null )
+                    {
+                        continue;
+                    }
+                }
+                else if ( !isAllowed( library.classes, systemClasses, serverClasses ) )
+                {
+                    rejectedByWebapp.add( hash );
+                    continue;
+                }
+
+                if ( !libraries.containsKey( hash ) )
+                {
+                    libraries.put( hash, library );
+                }
+                library.users++;
+                acquired.put( archive, library );
+            }
+            catch ( IOException e )
+            {
+                Log.warn( "Not sharing " + archive + ": " + e );
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * Give the libraries back, dropping those no webapp uses any longer.
+     */
+    public synchronized void release( Collection<Library> released )
+    {
+        for ( Library library : released )
+        {
+            if ( --library.users <= 0 && libraries.get( library.hash ) == library )
+            {
+                libraries.remove( library.hash );
+                Log.info( "Unloaded shared library " + library.archive.getName() );
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the archives that cannot be shared by webapps
+     *         with these system and server classes
+     */
+    private Set<String> getRejected( ClassMatcher systemClasses, ClassMatcher serverClasses )
+    {
+        String key = systemClasses + " " + serverClasses;
+        Set<String> hashes = rejected.get( key );
+        if ( hashes == null )
+        {
+            hashes = new HashSet<String>();
+            rejected.put( key, hashes );
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the library of the archive, or null if it cannot be shared
+     */
+    private Library load( String hash, File archive, ClassLoader parent, ClassMatcher systemClasses, ClassMatcher serverClasses,
+            Set<String> rejectedByWebapp ) throws IOException
+    {
+        Boolean known = standalone.get( hash );
+        if ( Boolean.FALSE.equals( known ) )
+        {
+            return null;
+        }
+
+        Set<String> classes = new HashSet<String>();
+        Set<String> referenced = new HashSet<String>();
+        if ( !readTypes( archive, classes, referenced ) || classes.isEmpty() )
+        {
+            standalone.put( hash, Boolean.FALSE );
+            return null;
+        }
+
+        // before the archive is cached and its dex optimized for nothing
+        if ( !isAllowed( classes, systemClasses, serverClasses ) )
+        {
+            if ( Log.isDebugEnabled() )
+            {
+                Log.debug( "Not sharing " + archive + ", it holds system or server classes" );
+            }
+            rejectedByWebapp.add( hash );
+            return null;
+        }
+
+        if ( known == null )
+        {
+            referenced.removeAll( classes );
+            for ( String className : referenced )
+            {
+                if ( !isFound( parent, className ) )
+                {
+                    if ( Log.isDebugEnabled() )
+                    {
+                        Log.debug( "Not sharing " + archive + ", it needs " + className );
+                    }
+                    standalone.put( hash, Boolean.FALSE );
+                    return null;
+                }
+            }
+            standalone.put( hash, Boolean.TRUE );
+        }
+
+        File copy = dexCache.get( archive );
+        ClassLoader loader = new DexClassLoader( copy.getCanonicalPath(), dexCache.getDirectory().getCanonicalPath(), null, parent );
+        Log.info( "Loaded shared library " + archive.getName() + " as " + copy.getName() );
+        return new Library( hash, copy, parent, loader, classes );
+    }
+
+    /**
+     * @return false if one of the classes is a system or server class of the
+     *         webapp
+     */
+    private static boolean isAllowed( Set<String> classes, ClassMatcher systemClasses, ClassMatcher serverClasses )
+    {
+        for ( String className : classes )
+        {
+            if ( systemClasses.match( className ) || serverClasses.match( className ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFound( ClassLoader parent, String className )
+    {
+        try
+        {
+            parent.loadClass( className );
+            return true;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return false;
+        }
+        catch ( LinkageError e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Read the classes defined and referred to by the dex files of an
+     * archive.
+     *
+     * @return false if it has none or they could not be read
+     */
+    private static boolean readTypes( File archive, Set<String> classes, Set<String> referenced )
+    {
+        ZipFile zip = null;
+        boolean found = false;
+        try
+        {
+            zip = new ZipFile( archive );
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while ( e.hasMoreElements() )
+            {
+                ZipEntry ze = e.nextElement();
+                String name = ze.getName();
+                if ( name.startsWith( "classes" ) && name.endsWith( ".dex" ) && name.indexOf( '/' ) < 0 )
+                {
+                    InputStream in = zip.getInputStream( ze );
+                    try
+                    {
+                        if ( !ArchiveIndex.readDexTypes( IO.readBytes( in ), classes, referenced ) )
+                        {
+                            return false;
+                        }
+                        found = true;
+                    }
+                    finally
+                    {
+                        IO.close( in );
+                    }
+                }
+            }
+            return found;
+        }
+        catch ( IOException e )
+        {
+            Log.ignore( e );
+            return false;
+        }
+        finally
+        {
+            if ( zip != null )
+            {
+                try
+                {
+                    zip.close();
+                }
+                catch ( IOException e )
+                {
+                    Log.ignore( e );
+                }
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> toMap()
+    {
+        List<Object> list = new ArrayList<Object>();
+        for ( Library library : libraries.values() )
+        {
+            Map<String, Object> entry = new LinkedHashMap<String, Object>();
+            entry.put( "archive", library.archive.getName() );
+            entry.put( "classes", Integer.valueOf( library.classes.size() ) );
+            entry.put( "webapps", Integer.valueOf( library.users ) );
+            list.add( entry );
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "libraries", list );
+        return map;
+    }
+
+    /**
+     * An archive loaded once for the webapps that have it.
+     */
+    public static class Library
+    {
+        private final String hash;
+        private final File archive;
+        private final ClassLoader parent;
+        private final ClassLoader loader;
+        private final Set<String> classes;
+        private final Set<String> packages = new HashSet<String>();
+        private int users;
+
+        Library( String hash, File archive, ClassLoader parent, ClassLoader loader, Set<String> classes )
+        {
+            this.hash = hash;
+            this.archive = archive;
+            this.parent = parent;
+            this.loader = loader;
+            this.classes = classes;
+            for ( String className : classes )
+            {
+                int dot = className.lastIndexOf( '.' );
+                packages.add( dot < 0 ? "" : className.substring( 0, dot ) );
+            }
+        }
+
+        /**
+         * @return the cached copy of the archive it is loaded from
+         */
+        public File getArchive()
+        {
+            return archive;
+        }
+
+        public ClassLoader getLoader()
+        {
+            return loader;
+        }
+
+        public boolean hasPackage( String pkg )
+        {
+            return packages.contains( pkg );
+        }
+    }
+
+    /**
+     * The parent of the dex loader of a webapp: finds the classes of the
+     * shared libraries of the webapp, after those of its own parent.
+     */
+    public static class Tier extends ClassLoader
+    {
+        private final Library[] libraries;
+
+        public Tier( ClassLoader parent, Collection<Library> libraries )
+        {
+            super( parent );
+            this.libraries = libraries.toArray( new Library[libraries.size()] );
+        }
+
+        public Library[] getLibraries()
+        {
+            return libraries;
+        }
+
+        /**
+         * @return true if one of the libraries loaded the class
+         */
+        public boolean isShared( Class<?> c )
+        {
+            ClassLoader loader = c.getClassLoader();
+            for ( Library library : libraries )
+            {
+                if ( library.loader == loader )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected Class<?> findClass( String name ) throws ClassNotFoundException
+        {
+            int dot = name.lastIndexOf( '.' );
+            String pkg = dot < 0 ? "" : name.substring( 0, dot );
+            for ( Library library : libraries )
+            {
+                if ( library.hasPackage( pkg ) )
+                {
+                    try
+                    {
+                        return library.loader.loadClass( name );
+                    }
+                    catch ( ClassNotFoundException e )
+                    {
+                        Log.ignore( e );
+                    }
+                }
+            }
+            throw new ClassNotFoundException( name );
+        }
+    }
+}
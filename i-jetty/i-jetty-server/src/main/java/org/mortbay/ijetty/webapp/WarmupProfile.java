@@ -0,0 +1,448 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.webapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
+
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.log.Log;
+import org.mortbay.ijetty.profile.StartupTimeline;
+
+/**
+ * WarmupProfile
+ *
+ * The classes a webapp loads from its archives when it is first used, in the
+ * order it loads them, so that they can be loaded ahead of its first
+ * requests the next time it starts.
+ *
+ * If there is no profile for the archives of the webapp, the classes are
+ * recorded from the start of the webapp until it has served
+ * {@link #setMaxRequests(int) some requests} or has been started for
+ * {@link #setWindow(long) some time}, and the profile is written to its file
+ * on a background thread, or as the webapp stops if it stops first.
+ * If there is, the classes are loaded on a background thread of low priority
+ * from when the class loader is initialized, and the webapp waits for them,
+ * up to {@link #setPreloadTimeout(long) a timeout}, before it takes
+ * requests. Classes are loaded but not initialized, so that no code of the
+ * webapp runs on that thread.
+ *
+ * The profile is kept with the version of the archives it was recorded with,
+ * and is recorded again when they change.
+ */
+public class WarmupProfile implements ServletContextListener, ServletRequestListener
+{
+    /**
+     * The context attribute that, set to false, turns the profiles off.
+     */
+    public static final String ATTRIBUTE = "org.mortbay.ijetty.warmup";
+
+    public static final long DEFAULT_WINDOW = 30000;
+    public static final int DEFAULT_MAX_REQUESTS = 20;
+    public static final int DEFAULT_MAX_CLASSES = 2000;
+    public static final long DEFAULT_PRELOAD_TIMEOUT = 10000;
+
+    private static final String VERSION = "ijetty-warmup-profile 1";
+
+    private final File store;
+    private final String version;
+    private final List<String> profile;
+    private final Set<String> recorded = new LinkedHashSet<String>();
+    private volatile boolean recording;
+    private long window = DEFAULT_WINDOW;
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxClasses = DEFAULT_MAX_CLASSES;
+    private long preloadTimeout = DEFAULT_PRELOAD_TIMEOUT;
+    private long started;
+    private int requests;
+    private String contextPath;
+    private StartupTimeline timeline;
+    private Thread preloader;
+    private volatile boolean cancelled;
+    private volatile int preloaded;
+    private volatile int missing;
+
+    private WarmupProfile( File store, String version, List<String> profile )
+    {
+        this.store = store;
+        this.version = version;
+        this.profile = profile;
+        this.recording = profile.isEmpty();
+    }
+
+    /**
+     * @return true unless the {@link #ATTRIBUTE} of the context is false
+     */
+    public static boolean isEnabled( ContextHandler context )
+    {
+        Object enabled = context.getAttribute( ATTRIBUTE );
+        return enabled == null || !"false".equalsIgnoreCase( enabled.toString().trim() );
+    }
+
+    /**
+     * Read the profile kept in the store file, to be replayed if it was
+     * recorded with this version of the archives and recorded otherwise.
+     */
+    public static WarmupProfile load( File store, String version )
+    {
+        List<String> classes = new ArrayList<String>();
+        if ( store == null || !store.exists() )
+        {
+            return new WarmupProfile( store, version, classes );
+        }
+
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader( new InputStreamReader( new FileInputStream( store ), "UTF-8" ) );
+            if ( VERSION.equals( in.readLine() ) && version.equals( in.readLine() ) )
+            {
+                String line;
+                while ( (line = in.readLine()) != null )
+                {
+                    if ( line.length() > 0 )
+                    {
+                        classes.add( line );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Cannot read warm-up profile " + store + ": " + e );
+            classes.clear();
+        }
+        finally
+        {
+            IO.close( in );
+        }
+        return new WarmupProfile( store, version, classes );
+    }
+
+    /**
+     * @return the classes to preload, empty if the profile is being recorded
+     */
+    public List<String> getProfile()
+    {
+        return Collections.unmodifiableList( profile );
+    }
+
+    public boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * @param window
+     *            the ms after the start of the webapp that classes are
+     *            recorded for
+     */
+    public void setWindow( long window )
+    {
+        this.window = window;
+    }
+
+    /**
+     * @param maxRequests
+     *            the number of requests that classes are recorded for
+     */
+    public void setMaxRequests( int maxRequests )
+    {
+        this.maxRequests = maxRequests;
+    }
+
+    public void setMaxClasses( int maxClasses )
+    {
+        this.maxClasses = maxClasses;
+    }
+
+    /**
+     * @param preloadTimeout
+     *            the ms the webapp waits for the preloading before it takes
+     *            requests
+     */
+    public void setPreloadTimeout( long preloadTimeout )
+    {
+        this.preloadTimeout = preloadTimeout;
+    }
+
+    /**
+     * Record that the webapp loaded the class, while recording.
+     */
+    public void record( String className )
+    {
+        if ( !recording )
+        {
+            return;
+        }
+
+        List<String> classes = null;
+        synchronized ( recorded )
+        {
+            if ( isOver() )
+            {
+                classes = finish();
+            }
+            else if ( recorded.size() < maxClasses )
+            {
+                recorded.add( className );
+            }
+        }
+        writeInBackground( classes );
+    }
+
+    /**
+     * Start loading the classes of the profile, if there is one, on a
+     * background thread.
+     */
+    public void preload( final ClassLoader loader, String contextPath, StartupTimeline timeline )
+    {
+        this.contextPath = contextPath;
+        this.timeline = timeline;
+        if ( profile.isEmpty() )
+        {
+            return;
+        }
+
+        preloader = new Thread( "warmup " + contextPath )
+        {
+            @Override
+            public void run()
+            {
+                for ( String className : profile )
+                {
+                    if ( cancelled )
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        loader.loadClass( className );
+                        preloaded++;
+                    }
+                    catch ( ClassNotFoundException e )
+                    {
+                        missing++;
+                    }
+                    catch ( LinkageError e )
+                    {
+                        missing++;
+                    }
+                }
+            }
+        };
+        preloader.setPriority( Thread.MIN_PRIORITY );
+        preloader.setDaemon( true );
+        preloader.setContextClassLoader( loader );
+        preloader.start();
+    }
+
+    /**
+     * Wait for the preloading, as the webapp starts, and start the window of
+     * the recording.
+     */
+    public void contextInitialized( ServletContextEvent event )
+    {
+        synchronized ( recorded )
+        {
+            started = System.currentTimeMillis();
+        }
+
+        Thread thread = preloader;
+        if ( thread == null )
+        {
+            return;
+        }
+
+        StartupTimeline.Span span = timeline == null ? null : timeline.begin( contextPath, "warmup" );
+        long start = System.currentTimeMillis();
+        try
+        {
+            thread.join( preloadTimeout );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        if ( span != null )
+        {
+            span.end();
+        }
+
+        if ( thread.isAlive() )
+        {
+            Log.info( "Preloaded " + preloaded + " of " + profile.size() + " classes of " + contextPath + " before starting, the rest continue" );
+        }
+        else
+        {
+            Log.info( "Preloaded " + preloaded + " classes of " + contextPath + " in " + (System.currentTimeMillis() - start) + "ms" );
+        }
+    }
+
+    /**
+     * Stop the preloading and keep what was recorded so far.
+     */
+    public void contextDestroyed( ServletContextEvent event )
+    {
+        cancelled = true;
+        List<String> classes;
+        synchronized ( recorded )
+        {
+            classes = finish();
+        }
+        if ( classes != null )
+        {
+            write( classes );
+        }
+    }
+
+    public void requestInitialized( ServletRequestEvent event )
+    {
+    }
+
+    public void requestDestroyed( ServletRequestEvent event )
+    {
+        if ( !recording )
+        {
+            return;
+        }
+
+        List<String> classes = null;
+        synchronized ( recorded )
+        {
+            requests++;
+            if ( requests >= maxRequests || isOver() )
+            {
+                classes = finish();
+            }
+        }
+        writeInBackground( classes );
+    }
+
+    private boolean isOver()
+    {
+        return started > 0 && System.currentTimeMillis() - started > window;
+    }
+
+    /**
+     * Stop recording, holding the lock of the recorded classes.
+     *
+     * @return a copy of the classes to write, or null if there are none or
+     *         recording had already stopped
+     */
+    private List<String> finish()
+    {
+        if ( !recording )
+        {
+            return null;
+        }
+        recording = false;
+        if ( store == null || recorded.isEmpty() )
+        {
+            return null;
+        }
+        return new ArrayList<String>( recorded );
+    }
+
+    /**
+     * Write the profile on a thread of its own, so that the request or class
+     * loading thread that ended the recording does not wait for the file.
+     */
+    private void writeInBackground( final List<String> classes )
+    {
+        if ( classes == null )
+        {
+            return;
+        }
+
+        Thread writer = new Thread( "warmup " + contextPath )
+        {
+            @Override
+            public void run()
+            {
+                write( classes );
+            }
+        };
+        writer.setPriority( Thread.MIN_PRIORITY );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    private void write( List<String> classes )
+    {
+        File tmp = new File( store.getPath() + ".tmp" );
+        Writer out = null;
+        try
+        {
+            out = new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" );
+            out.write( VERSION + "\n" );
+            out.write( version + "\n" );
+            for ( String className : classes )
+            {
+                out.write( className + "\n" );
+            }
+            out.close();
+            out = null;
+            if ( !tmp.renameTo( store ) )
+            {
+                store.delete();
+                tmp.renameTo( store );
+            }
+            Log.info( "Recorded warm-up profile of " + classes.size() + " classes for " + contextPath );
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Cannot write warm-up profile " + store + ": " + e );
+        }
+        finally
+        {
+            IO.close( out );
+            tmp.delete();
+        }
+    }
+
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put( "recording", Boolean.valueOf( recording ) );
+        synchronized ( recorded )
+        {
+            map.put( "recorded", Integer.valueOf( recorded.size() ) );
+        }
+        map.put( "profile", Integer.valueOf( profile.size() ) );
+        map.put( "preloaded", Integer.valueOf( preloaded ) );
+        map.put( "missing", Integer.valueOf( missing ) );
+        return map;
+    }
+}
@@ -33,6 +33,8 @@ import java.util.Enumeration;
 
 import org.eclipse.jetty.util.IO;
 import org.mortbay.ijetty.log.AndroidLogger;
+import org.mortbay.ijetty.stats.RequestStatistics;
+import org.mortbay.ijetty.stats.ServerStatisticsHandler;
 import org.mortbay.ijetty.util.AndroidInfo;
 import org.mortbay.ijetty.util.IJettyToast;
 import org.slf4j.Logger;
@@ -55,6 +57,7 @@ import android.text.Html;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.View.OnLongClickListener;
 import android.widget.Button;
 import android.widget.ScrollView;
 import android.widget.TextView;
@@ -105,12 +108,14 @@ public class IJetty extends Activity
 
     private TextView footer;
     private TextView info;
+    private TextView stats;
     private TextView console;
 
     private ScrollView consoleScroller;
 
     private final StringBuilder consoleBuffer = new StringBuilder( 128 );
     private Runnable scrollTask;
+    private final Runnable statsTask = new StatsRefreshTask();
     private ProgressDialog progressDialog;
     private Thread progressThread;
     private final Handler handler;
@@ -181,6 +186,8 @@ public class IJetty extends Activity
         webappsButton.setOnClickListener( new WebappConfigButtonOnClickListener( this ) );
 
         info = (TextView) findViewById( R.id.info );
+        stats = (TextView) findViewById( R.id.stats );
+        stats.setOnLongClickListener( new StatsOnLongClickListener() );
         footer = (TextView) findViewById( R.id.footer );
         console = (TextView) findViewById( R.id.console );
         consoleScroller = (ScrollView) findViewById( R.id.consoleScroller );
@@ -240,9 +247,17 @@ public class IJetty extends Activity
             stopButton.setEnabled( false );
         }
 
+        statsTask.run();
         super.onResume();
     }
 
+    @Override
+    protected void onPause()
+    {
+        stats.removeCallbacks( statsTask );
+        super.onPause();
+    }
+
     @Override
     protected Dialog onCreateDialog( int id )
     {
@@ -452,6 +467,54 @@ public class IJetty extends Activity
         }
     }
 
+    /**
+     * Shows a summary of the request counts of the running server, refreshed
+     * every few seconds while the activity is in front.
+     */
+    private class StatsRefreshTask implements Runnable
+    {
+        private static final long REFRESH_MS = 5000;
+
+        public void run()
+        {
+            stats.removeCallbacks( this );
+            stats.postDelayed( this, REFRESH_MS );
+
+            ServerStatisticsHandler statistics = IJettyService.getStatistics();
+            if ( statistics == null )
+            {
+                stats.setVisibility( View.GONE );
+                return;
+            }
+
+            RequestStatistics total = statistics.getTotal();
+            StringBuilder statsBuffer = new StringBuilder( 128 );
+            statsBuffer.append( formatJettyInfoLine( "%d requests (%.2f/s), %d active, %d errors", total.getRequests(), total.getRequestRate(),
+                    total.getRequestsActive(), total.getErrors() ) );
+            statsBuffer.append( formatJettyInfoLine( "%d KB in, %d KB out", total.getBytesIn() / 1024, total.getBytesOut() / 1024 ) );
+            stats.setText( Html.fromHtml( statsBuffer.toString() ) );
+            stats.setVisibility( View.VISIBLE );
+        }
+    }
+
+    /**
+     * Starts the statistics of the running server again on a long press of
+     * the summary.
+     */
+    private class StatsOnLongClickListener implements OnLongClickListener
+    {
+        public boolean onLongClick( View v )
+        {
+            if ( !IJettyService.resetStatistics() )
+            {
+                return false;
+            }
+            IJettyToast.showQuickToast( IJetty.this, R.string.stats_reset );
+            statsTask.run();
+            return true;
+        }
+    }
+
     /**
      * ProgressThread
      *
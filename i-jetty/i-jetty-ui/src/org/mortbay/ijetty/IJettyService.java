@@ -17,29 +17,20 @@ package org.mortbay.ijetty;
 
 import static org.mortbay.ijetty.common.LogSupport.TAG;
 
-import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.mortbay.ijetty.bootstrap.ServerBootstrap;
+import org.mortbay.ijetty.bootstrap.ServerConfig;
 import org.mortbay.ijetty.deployer.AndroidContextDeployer;
-import org.mortbay.ijetty.deployer.AndroidWebAppDeployer;
 import org.mortbay.ijetty.handler.DefaultHandler;
+import org.mortbay.ijetty.power.PowerProfileManager;
+import org.mortbay.ijetty.stats.ServerStatisticsHandler;
 import org.mortbay.ijetty.util.IJettyToast;
 import org.eclipse.jetty.server.Connector;
-import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.http.HttpGenerator;
-import org.eclipse.jetty.http.ssl.SslContextFactory;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.bio.SocketConnector;
-import org.eclipse.jetty.server.handler.ContextHandlerCollection;
-import org.eclipse.jetty.server.handler.HandlerCollection;
-import org.eclipse.jetty.server.nio.SelectChannelConnector;
-import org.eclipse.jetty.security.HashLoginService;
-import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
-import org.eclipse.jetty.server.ssl.SslSocketConnector;
-import org.eclipse.jetty.util.security.Credential;
 
 
 import android.app.Notification;
@@ -80,25 +71,18 @@ public class IJettyService extends Service
 
     private static Resources resources;
 
-    public static final String[] configurationClasses =
-            new String[]{ "org.mortbay.ijetty.webapp.AndroidWebInfConfiguration", "org.eclipse.jetty.webapp.WebXmlConfiguration",
-                    "org.eclipse.jetty.webapp.JettyWebXmlConfiguration", "org.eclipse.jetty.webapp.TagLibConfiguration" };
+    public static final String[] configurationClasses = ServerConfig.ANDROID_CONFIGURATION_CLASSES;
 
     private static final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private static volatile ServerStatisticsHandler statistics;
+    private static volatile ServerBootstrap running;
 
     private NotificationManager notificationManager;
     private final AtomicReference<Server> server = new AtomicReference<Server>();
-    private ContextHandlerCollection contexts;
-    private boolean useNIO;
-    private boolean useSSL;
-    private int port;
-    private int sslPort;
-    private String consolePassword;
-    private String keymgrPassword;
-    private String keystorePassword;
-    private String truststorePassword;
-    private String keystoreFile;
-    private String truststoreFile;
+    private ServerConfig config;
+    private ServerBootstrap bootstrap;
+    private boolean powerProfiles;
+    private PowerProfileManager powerProfileManager;
     private SharedPreferences preferences;
     private PackageInfo packageInfo;
     private android.os.Handler handler;
@@ -141,6 +125,30 @@ public class IJettyService extends Service
         return isRunning.get();
     }
 
+    /**
+     * @return the request counts of the running server, null when stopped
+     */
+    public static ServerStatisticsHandler getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Start the request counts and latencies of the running server again.
+     *
+     * @return false if the server is not running
+     */
+    public static boolean resetStatistics()
+    {
+        ServerBootstrap current = running;
+        if ( current == null )
+        {
+            return false;
+        }
+        current.resetStatistics();
+        return true;
+    }
+
     public IJettyService()
     {
         handler = new android.os.Handler()
@@ -267,44 +275,84 @@ public class IJettyService extends Service
             String nioKey = getText( R.string.pref_nio_key ).toString();
             String sslKey = getText( R.string.pref_ssl_key ).toString();
 
-            useSSL = preferences.getBoolean( sslKey, Boolean.valueOf( sslEnabledDefault ) );
-            useNIO = preferences.getBoolean( nioKey, Boolean.valueOf( nioEnabledDefault ) );
-            port = Integer.parseInt( preferences.getString( portKey, portDefault ) );
-            if ( useSSL )
+            config = new ServerConfig();
+            config.setHome( IJetty.JETTY_DIR );
+            config.setSsl( preferences.getBoolean( sslKey, Boolean.valueOf( sslEnabledDefault ) ) );
+            config.setNio( preferences.getBoolean( nioKey, Boolean.valueOf( nioEnabledDefault ) ) );
+            config.setPort( Integer.parseInt( preferences.getString( portKey, portDefault ) ) );
+            if ( config.isSsl() )
             {
-                sslPort = Integer.parseInt( preferences.getString( sslPortKey, sslPortDefault ) );
+                config.setSslPort( Integer.parseInt( preferences.getString( sslPortKey, sslPortDefault ) ) );
                 String defaultValue = getText( R.string.pref_keystore_pwd_value ).toString();
                 String key = getText( R.string.pref_keystore_pwd_key ).toString();
-                keystorePassword = preferences.getString( key, defaultValue );
+                config.setKeystorePassword( preferences.getString( key, defaultValue ) );
 
                 defaultValue = getText( R.string.pref_keymgr_pwd_value ).toString();
                 key = getText( R.string.pref_keymgr_pwd_key ).toString();
-                keymgrPassword = preferences.getString( key, defaultValue );
+                config.setKeymanagerPassword( preferences.getString( key, defaultValue ) );
 
                 defaultValue = getText( R.string.pref_truststore_pwd_value ).toString();
                 key = getText( R.string.pref_truststore_pwd_key ).toString();
-                truststorePassword = preferences.getString( key, defaultValue );
+                config.setTruststorePassword( preferences.getString( key, defaultValue ) );
 
                 defaultValue = getText( R.string.pref_keystore_file ).toString();
                 key = getText( R.string.pref_keystore_file_key ).toString();
-                keystoreFile = preferences.getString( key, defaultValue );
+                config.setKeystore( preferences.getString( key, defaultValue ) );
 
                 defaultValue = getText( R.string.pref_truststore_file ).toString();
                 key = getText( R.string.pref_truststore_file_key ).toString();
-                truststoreFile = preferences.getString( key, defaultValue );
-            }
-
-            consolePassword = preferences.getString( pwdKey, pwdDefault );
+                config.setTruststore( preferences.getString( key, defaultValue ) );
 
-            Log.d( TAG, "pref port = " + port );
-            Log.d( TAG, "pref use nio = " + useNIO );
-            Log.d( TAG, "pref use ssl = " + useSSL );
-            Log.d( TAG, "pref ssl port = " + sslPort );
+                config.setSslSessionCacheSize( getIntPreference( R.string.pref_ssl_session_cache_key, R.string.pref_ssl_session_cache_value ) );
+                config.setSslSessionTimeout( getIntPreference( R.string.pref_ssl_session_timeout_key, R.string.pref_ssl_session_timeout_value ) );
+            }
 
-            //Get a wake lock to stop the cpu going to sleep
-            PowerManager pm = (PowerManager) getSystemService( Context.POWER_SERVICE );
-            wakeLock = pm.newWakeLock( PowerManager.SCREEN_DIM_WAKE_LOCK, "IJetty" );
-            wakeLock.acquire();
+            config.setConsolePassword( preferences.getString( pwdKey, pwdDefault ) );
+
+            config.setMinThreads( getIntPreference( R.string.pref_min_threads_key, R.string.pref_min_threads_value ) );
+            config.setMaxThreads( getIntPreference( R.string.pref_max_threads_key, R.string.pref_max_threads_value ) );
+            config.setThreadIdleTimeout( getIntPreference( R.string.pref_thread_idle_key, R.string.pref_thread_idle_value ) );
+            config.setMaxQueued( getIntPreference( R.string.pref_max_queued_key, R.string.pref_max_queued_value ) );
+
+            String directBuffersDefault = getText( R.string.pref_direct_buffers_value ).toString();
+            String directBuffersKey = getText( R.string.pref_direct_buffers_key ).toString();
+            config.setDirectBuffers( preferences.getBoolean( directBuffersKey, Boolean.valueOf( directBuffersDefault ) ) );
+            config.setHeaderBufferSize( getIntPreference( R.string.pref_header_buffer_key, R.string.pref_header_buffer_value ) );
+            config.setRequestBufferSize( getIntPreference( R.string.pref_request_buffer_key, R.string.pref_request_buffer_value ) );
+            config.setBufferPoolSize( getIntPreference( R.string.pref_buffer_pool_key, R.string.pref_buffer_pool_value ) );
+
+            String parallelStartDefault = getText( R.string.pref_parallel_start_value ).toString();
+            String parallelStartKey = getText( R.string.pref_parallel_start_key ).toString();
+            config.setParallelStart( preferences.getBoolean( parallelStartKey, Boolean.valueOf( parallelStartDefault ) ) );
+
+            String lazyStartDefault = getText( R.string.pref_lazy_start_value ).toString();
+            String lazyStartKey = getText( R.string.pref_lazy_start_key ).toString();
+            config.setLazyStart( preferences.getBoolean( lazyStartKey, Boolean.valueOf( lazyStartDefault ) ) );
+            config.setIdleHibernateMinutes( getIntPreference( R.string.pref_idle_hibernate_key, R.string.pref_idle_hibernate_value ) );
+
+            // the Android pieces of the server
+            config.setConfigurationClasses( configurationClasses );
+            config.setAttribute( CONTENT_RESOLVER_ATTRIBUTE, getContentResolver() );
+            config.setAttribute( ANDROID_CONTEXT_ATTRIBUTE, (Context) IJettyService.this );
+            config.setDefaultHandler( new DefaultHandler() );
+
+            String powerProfilesDefault = getText( R.string.pref_power_profiles_value ).toString();
+            String powerProfilesKey = getText( R.string.pref_power_profiles_key ).toString();
+            powerProfiles = preferences.getBoolean( powerProfilesKey, Boolean.valueOf( powerProfilesDefault ) );
+
+            Log.d( TAG, "pref port = " + config.getPort() );
+            Log.d( TAG, "pref use nio = " + config.isNio() );
+            Log.d( TAG, "pref use ssl = " + config.isSsl() );
+            Log.d( TAG, "pref ssl port = " + config.getSslPort() );
+
+            //Get a wake lock to stop the cpu going to sleep, unless the
+            //performance profiles take care of it once the server is up
+            if ( !powerProfiles )
+            {
+                PowerManager pm = (PowerManager) getSystemService( Context.POWER_SERVICE );
+                wakeLock = pm.newWakeLock( PowerManager.SCREEN_DIM_WAKE_LOCK, "IJetty" );
+                wakeLock.acquire();
+            }
 
             new JettyStarterThread( handler ).start();
 
@@ -352,151 +400,48 @@ public class IJettyService extends Service
     public void onLowMemory()
     {
         Log.i( TAG, "Low on memory" );
+        ServerBootstrap current = bootstrap;
+        if ( current != null )
+        {
+            current.getMemoryPressure().onLowMemory();
+        }
         super.onLowMemory();
     }
 
     /**
-     * Get a reference to the Jetty Server instance
-     * @return
+     * Called from API level 14 (ComponentCallbacks2) with how hard the system
+     * is pressed for memory.
      */
-    public Server getServer()
-    {
-        return server.get();
-    }
-
-    protected Server newServer()
-    {
-        return new Server();
-    }
-
-    protected ContextHandlerCollection newContexts()
+    public void onTrimMemory( int level )
     {
-        return new ContextHandlerCollection();
-    }
-
-    protected void configureConnectors()
-    {
-        Log.i( TAG, "configuring connectors" );
-        if ( server.get() != null )
+        Log.i( TAG, "Trim memory level " + level );
+        ServerBootstrap current = bootstrap;
+        if ( current != null )
         {
-            if ( useNIO )
-            {
-                SelectChannelConnector nioConnector = new SelectChannelConnector();
-                nioConnector.setUseDirectBuffers( false );
-                nioConnector.setPort( port );
-                server.get().addConnector( nioConnector );
-                Log.i( TAG, "configured (" + SelectChannelConnector.class.getName() + ") on port: " + port );
-            }
-            else
-            {
-                SocketConnector bioConnector = new SocketConnector();
-                bioConnector.setPort( port );
-                server.get().addConnector( bioConnector );
-                Log.i( TAG, "configured (" + SocketConnector.class.getName() + ") on port: " + port );
-            }
-
-            if ( useSSL )
-            {
-                SslContextFactory sslContextFactory = new SslContextFactory();
-                sslContextFactory.setKeyStore( keystoreFile );
-                sslContextFactory.setTrustStore( truststoreFile );
-                sslContextFactory.setKeyStorePassword( keystorePassword );
-                sslContextFactory.setKeyManagerPassword( keymgrPassword );
-                sslContextFactory.setKeyStoreType( "bks" );
-                sslContextFactory.setTrustStorePassword( truststorePassword );
-                sslContextFactory.setTrustStoreType( "bks" );
-
-                //TODO SslSelectChannelConnector does not work on android 1.6, but does work on android 2.2
-                if ( useNIO )
-                {
-                    SslSelectChannelConnector sslConnector = new SslSelectChannelConnector( sslContextFactory );
-                    sslConnector.setPort( sslPort );
-                    server.get().addConnector( sslConnector );
-                    Log.i( TAG, "configured (" + sslConnector.getClass().getName() + ") on port: " + sslPort );
-                }
-                else
-                {
-                    SslSocketConnector sslConnector = new SslSocketConnector( sslContextFactory );
-                    sslConnector.setPort( sslPort );
-                    server.get().addConnector( sslConnector );
-                    Log.i( TAG, "configured (" + sslConnector.getClass().getName() + " )on port: " + sslPort );
-                }
-            }
+            current.getMemoryPressure().onTrimMemory( level );
         }
     }
 
-    protected void configureHandlers()
+    /**
+     * Get a reference to the Jetty Server instance
+     * @return
+     */
+    public Server getServer()
     {
-        Log.i( TAG, "configuring handlers" );
-        if ( server.get() != null )
-        {
-            HandlerCollection handlers = new HandlerCollection();
-            contexts = new ContextHandlerCollection();
-            handlers.setHandlers( new Handler[]{ contexts, new DefaultHandler() } );
-            server.get().setHandler( handlers );
-        }
+        return server.get();
     }
 
-    protected void configureDeployers() throws Exception
+    private int getIntPreference( int keyId, int defaultId )
     {
-        Log.i( TAG, "configuring deployers" );
-        AndroidWebAppDeployer staticDeployer = new AndroidWebAppDeployer();
-        AndroidContextDeployer contextDeployer = new AndroidContextDeployer();
-
-        File jettyDir = IJetty.JETTY_DIR;
-        if ( jettyDir.exists() )
-        {
-            // If the webapps dir exists, start the static webapp deployer
-            File webappDir = new File( jettyDir, IJetty.WEBAPP_DIR );
-            Log.i( TAG, "webapp directory: " + webappDir.getAbsolutePath() );
-            if ( webappDir.exists() )
-            {
-                staticDeployer.setWebAppDir( IJetty.JETTY_DIR + "/" + IJetty.WEBAPP_DIR );
-                staticDeployer.setDefaultsDescriptor( IJetty.JETTY_DIR + "/" + IJetty.ETC_DIR + "/webdefault.xml" );
-                staticDeployer.setContexts( contexts );
-                staticDeployer.setAttribute( CONTENT_RESOLVER_ATTRIBUTE, getContentResolver() );
-                staticDeployer.setAttribute( ANDROID_CONTEXT_ATTRIBUTE, (Context) IJettyService.this );
-                staticDeployer.setConfigurationClasses( configurationClasses );
-                staticDeployer.setAllowDuplicates( false );
-            }
-
-            // Use a ContextDeploy so we can hot-deploy webapps and config at startup.
-            if ( new File( jettyDir, IJetty.CONTEXTS_DIR ).exists() )
-            {
-                contextDeployer.setScanInterval( 10 ); // Don't eat the battery
-                contextDeployer.setConfigurationDir( IJetty.JETTY_DIR + "/" + IJetty.CONTEXTS_DIR );
-                contextDeployer.setAttribute( CONTENT_RESOLVER_ATTRIBUTE, getContentResolver() );
-                contextDeployer.setAttribute( ANDROID_CONTEXT_ATTRIBUTE, (Context) IJettyService.this );
-                contextDeployer.setContexts( contexts );
-            }
-
-            if ( server.get() != null )
-            {
-                Log.i( TAG, "Adding context deployer: " + contextDeployer);
-                server.get().addBean( contextDeployer );
-                Log.i( TAG, "Adding webapp deployer: " + staticDeployer );
-                server.get().addBean( staticDeployer );
-            }
-        }
-        else
+        String value = preferences.getString( getText( keyId ).toString(), getText( defaultId ).toString() );
+        try
         {
-            Log.w( TAG, "Not loading any webapps - none on SD card." );
+            return Integer.parseInt( value.trim() );
         }
-    }
-
-    public void configureRealm() throws IOException
-    {
-        File realmProps = new File( IJetty.JETTY_DIR + "/" + IJetty.ETC_DIR + "/realm.properties" );
-        if ( realmProps.exists() )
+        catch ( NumberFormatException e )
         {
-            HashLoginService realm = new HashLoginService( "Console", IJetty.JETTY_DIR + "/" + IJetty.ETC_DIR + "/realm.properties" );
-            realm.setRefreshInterval( 0 );
-            if ( consolePassword != null )
-            {
-                realm.putUser( "admin", Credential.getCredential( consolePassword ),
-                        new String[]{ "admin" } ); //set the admin password for console webapp
-            }
-            server.get().addBean( realm );
+            Log.w( TAG, "Ignoring bad value for " + getText( keyId ) + ": " + value );
+            return 0;
         }
     }
 
@@ -504,23 +449,24 @@ public class IJettyService extends Service
     {
         Log.i( TAG, "starting jetty server" );
 
-        //Set jetty.home
-        System.setProperty( "jetty.home", IJetty.JETTY_DIR.getAbsolutePath() );
-        Log.i( TAG, "jetty.home: " + IJetty.JETTY_DIR.getAbsolutePath() );
-
         //ipv6 workaround for froyo
         String preferIPv6Addresses = "false";
         System.setProperty( "java.net.preferIPv6Addresses", preferIPv6Addresses );
         Log.i( TAG, "preferIPv6Addresses: " + preferIPv6Addresses );
 
-        server.set( newServer() );
+        ServerBootstrap newBootstrap = new ServerBootstrap( config );
+        bootstrap = newBootstrap;
+        newBootstrap.start();
+        server.set( newBootstrap.getServer() );
+        statistics = newBootstrap.getStatistics();
+        running = newBootstrap;
 
-        configureConnectors();
-        configureHandlers();
-        configureDeployers();
-        configureRealm();
-
-        server.get().start();
+        if ( powerProfiles )
+        {
+            AndroidContextDeployer contextDeployer = newBootstrap.getContextDeployer();
+            powerProfileManager = new PowerProfileManager( this, server.get(), contextDeployer.isStarted() ? contextDeployer : null, statistics );
+            powerProfileManager.start();
+        }
 
         isRunning.set( true );
 
@@ -537,9 +483,17 @@ public class IJettyService extends Service
         try
         {
             Log.i( TAG, "Jetty stopping" );
-            server.get().stop();
+            if ( powerProfileManager != null )
+            {
+                powerProfileManager.stop();
+                powerProfileManager = null;
+            }
+            bootstrap.stop();
             Log.i( TAG, "Jetty server stopped" );
+            bootstrap = null;
             server.set( null );
+            statistics = null;
+            running = null;
             resources = null;
             isRunning.set( false );
         }
@@ -5,11 +5,19 @@ import static org.mortbay.ijetty.common.LogSupport.TAG;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.http.HttpMethods;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.server.Connector;
@@ -18,16 +26,34 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.ByteArrayISO8859Writer;
-import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.component.Container;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.mortbay.ijetty.deployer.LazyContextHandler;
+import org.mortbay.ijetty.routing.IndexedContextHandlerCollection;
 
 import android.util.Log;
 
 
+/**
+ * DefaultHandler
+ *
+ * Answers "/" with a welcome page listing the deployed contexts, and any other
+ * request no context handled with 404.
+ *
+ * The page is rendered once and kept, per scheme, local name and port as its
+ * links depend on them, until a context starts, stops or fails, or a handler
+ * is added to or removed from the server. It is served with an ETag, so that
+ * a client that already has it, such as a monitoring probe, gets a 304.
+ */
 public class DefaultHandler extends org.eclipse.jetty.server.handler.DefaultHandler
 {
     public static final String FORMAT_STRING = "EEE dd MMM yyyy HH:mm:ss.SSS zzz";
 
     private final SimpleDateFormat format = new SimpleDateFormat( FORMAT_STRING );
+    private final Map<String, Page> pages = new ConcurrentHashMap<String, Page>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Map<LifeCycle, Boolean> watched = new WeakHashMap<LifeCycle, Boolean>();
+    private final Invalidator invalidator = new Invalidator();
 
     public void handle( String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response )
             throws IOException, ServletException
@@ -39,39 +65,167 @@ public class DefaultHandler extends org.eclipse.jetty.server.handler.DefaultHand
 
         baseRequest.setHandled( true );
         String method = request.getMethod();
+        boolean head = method.equals( HttpMethods.HEAD );
 
-        if ( !method.equals( HttpMethods.GET ) || !request.getRequestURI().equals( "/" ) )
+        if ( (!head && !method.equals( HttpMethods.GET )) || !request.getRequestURI().equals( "/" ) )
         {
             response.sendError( HttpServletResponse.SC_NOT_FOUND );
             return;
         }
 
-        response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+        Page page = getPage( request );
+        response.setHeader( HttpHeaders.ETAG, page.etag );
+        response.setHeader( HttpHeaders.CACHE_CONTROL, "no-cache" );
+
+        if ( matches( request.getHeader( HttpHeaders.IF_NONE_MATCH ), page.etag ) )
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+
+        response.setStatus( HttpServletResponse.SC_OK );
         response.setContentType( MimeTypes.TEXT_HTML );
+        response.setContentLength( page.content.length );
+        if ( !head )
+        {
+            OutputStream out = response.getOutputStream();
+            out.write( page.content );
+            out.close();
+        }
+    }
+
+    @Override
+    public void setServer( Server server )
+    {
+        Server old = getServer();
+        if ( old != null && old != server )
+        {
+            old.getContainer().removeEventListener( invalidator );
+        }
+        super.setServer( server );
+        if ( server != null && server != old )
+        {
+            server.getContainer().addEventListener( invalidator );
+        }
+        invalidate();
+    }
+
+    /**
+     * Drop the rendered pages, so that the next request renders them again.
+     */
+    public void invalidate()
+    {
+        generation.incrementAndGet();
+        pages.clear();
+    }
 
-        // TODO remove?
-        String uri = request.getRequestURI();
-        uri = StringUtil.replace( uri, "<", "&lt;" );
-        uri = StringUtil.replace( uri, ">", "&gt;" );
+    private Page getPage( HttpServletRequest request ) throws IOException
+    {
+        // by address, as the local name may need a reverse lookup
+        String key = request.getScheme() + "://" + request.getLocalAddr() + ":" + request.getLocalPort();
+        Page page = pages.get( key );
+        if ( page != null )
+        {
+            return page;
+        }
+
+        synchronized ( format )
+        {
+            page = pages.get( key );
+            if ( page == null )
+            {
+                int rendered = generation.get();
+                ByteArrayISO8859Writer writer = new ByteArrayISO8859Writer( 1500 );
+                createHtml( request, writer );
+                page = new Page( writer.getByteArray() );
 
-        ByteArrayISO8859Writer writer = new ByteArrayISO8859Writer( 1500 );
-        createHtml( request, writer );
+                // not kept if invalidated while rendering, as it may be stale
+                if ( rendered == generation.get() )
+                {
+                    pages.put( key, page );
+                }
+            }
+            return page;
+        }
+    }
 
-        response.setContentLength( writer.size() );
+    /**
+     * @return true if the If-None-Match header lists the ETag
+     */
+    private static boolean matches( String ifNoneMatch, String etag )
+    {
+        if ( ifNoneMatch == null )
+        {
+            return false;
+        }
+        for ( String tag : ifNoneMatch.split( "," ) )
+        {
+            tag = tag.trim();
+            if ( tag.startsWith( "W/" ) )
+            {
+                tag = tag.substring( 2 );
+            }
+            if ( tag.equals( "*" ) || tag.equals( etag ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        OutputStream out = response.getOutputStream();
-        writer.writeTo( out );
-        out.close();
+    /**
+     * Invalidate the pages when the lifecycle changes, so that the page shows
+     * its new state.
+     */
+    private void watch( LifeCycle lifeCycle )
+    {
+        synchronized ( watched )
+        {
+            if ( watched.put( lifeCycle, Boolean.TRUE ) == null )
+            {
+                lifeCycle.addLifeCycleListener( invalidator );
+            }
+        }
     }
 
     private void createHtml( HttpServletRequest request, ByteArrayISO8859Writer writer ) throws IOException
     {
         writer.write( "<HTML>\n<HEAD>\n<TITLE>Welcome to i-jetty" );
         writer.write( "</TITLE>\n<BODY>\n<H2>Welcome to i-jetty</H2>\n" );
-        writer.write( "<p>i-jetty is running successfully. (" + format.format( System.currentTimeMillis() ) + ")</p>" );
+        writer.write( "<p>i-jetty is running successfully. (contexts as of " + format.format( System.currentTimeMillis() ) + ")</p>" );
 
         Server server = getServer();
-        Handler[] handlers = (server == null ? null : server.getChildHandlersByClass( ContextHandler.class ));
+        IndexedContextHandlerCollection index =
+                (server == null ? null : (IndexedContextHandlerCollection) server.getAttribute( IndexedContextHandlerCollection.ATTRIBUTE ));
+        Handler[] handlers;
+        Handler[] placeholders;
+        if ( index != null )
+        {
+            // placeholders are handlers of the collection itself
+            handlers = index.getContexts();
+            placeholders = index.getHandlers();
+        }
+        else
+        {
+            handlers = (server == null ? null : server.getChildHandlersByClass( ContextHandler.class ));
+            placeholders = (server == null ? null : server.getChildHandlersByClass( LazyContextHandler.class ));
+        }
+
+        // contexts that are not started yet but will be on their first request
+        Set<Handler> onDemand = new HashSet<Handler>();
+        for ( int p = 0; placeholders != null && p < placeholders.length; p++ )
+        {
+            if ( !(placeholders[p] instanceof LazyContextHandler) )
+            {
+                continue;
+            }
+            LazyContextHandler placeholder = (LazyContextHandler) placeholders[p];
+            watch( placeholder );
+            if ( placeholder.isRunning() && placeholder.getFailure() == null )
+            {
+                onDemand.add( placeholder.getContext() );
+            }
+        }
 
         int i;
         for ( i = 0; handlers != null && i < handlers.length; i++ )
@@ -82,7 +236,8 @@ public class DefaultHandler extends org.eclipse.jetty.server.handler.DefaultHand
             }
 
             ContextHandler context = (ContextHandler) handlers[i];
-            if ( context.isRunning() )
+            watch( context );
+            if ( context.isRunning() || onDemand.contains( context ) )
             {
                 writer.write( "<li><a href=\"" );
                 String url = getUrl( request, context );
@@ -97,6 +252,10 @@ public class DefaultHandler extends org.eclipse.jetty.server.handler.DefaultHand
 
                 writer.write( "&nbsp;-->&nbsp;" );
                 writer.write( context.toString() );
+                if ( !context.isRunning() )
+                {
+                    writer.write( " [on demand]" );
+                }
                 writer.write( "</a></li>\n" );
             }
             else
@@ -184,4 +343,71 @@ public class DefaultHandler extends org.eclipse.jetty.server.handler.DefaultHand
         return "/" + contextPath;
     }
 
+    private static class Page
+    {
+        final byte[] content;
+        final String etag;
+
+        Page( byte[] content )
+        {
+            this.content = content;
+            CRC32 crc = new CRC32();
+            crc.update( content );
+            this.etag = "\"" + Long.toHexString( crc.getValue() ) + "-" + content.length + "\"";
+        }
+    }
+
+    /**
+     * Invalidates the pages on the lifecycle events of the contexts and on
+     * handlers being added to or removed from the server.
+     */
+    private class Invalidator implements LifeCycle.Listener, Container.Listener
+    {
+        public void lifeCycleStarting( LifeCycle event )
+        {
+        }
+
+        public void lifeCycleStarted( LifeCycle event )
+        {
+            invalidate();
+        }
+
+        public void lifeCycleFailure( LifeCycle event, Throwable cause )
+        {
+            invalidate();
+        }
+
+        public void lifeCycleStopping( LifeCycle event )
+        {
+        }
+
+        public void lifeCycleStopped( LifeCycle event )
+        {
+            invalidate();
+        }
+
+        public void addBean( Object bean )
+        {
+        }
+
+        public void removeBean( Object bean )
+        {
+        }
+
+        public void add( Container.Relationship relationship )
+        {
+            if ( relationship.getChild() instanceof Handler )
+            {
+                invalidate();
+            }
+        }
+
+        public void remove( Container.Relationship relationship )
+        {
+            if ( relationship.getChild() instanceof Handler )
+            {
+                invalidate();
+            }
+        }
+    }
 }
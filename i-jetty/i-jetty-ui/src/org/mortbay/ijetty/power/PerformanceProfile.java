@@ -0,0 +1,133 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.power;
+
+import android.os.PowerManager;
+
+/**
+ * PerformanceProfile
+ *
+ * The resources the server may use in a given device state: the size and idle
+ * time of the thread pool, the idle timeout of connections, the period
+ * between scans for changed context files and the wake lock held.
+ *
+ * The profiles are derived from the full capacity the server was configured
+ * with, see {@link #newProfiles(int, int, int, int, int)}.
+ */
+public class PerformanceProfile
+{
+    public static final String CHARGING = "charging";
+    public static final String INTERACTIVE = "interactive";
+    public static final String BACKGROUND = "background";
+    public static final String IDLE = "idle";
+
+    /** wake lock type for a profile that holds none */
+    public static final int NO_WAKE_LOCK = 0;
+
+    private final String name;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int threadIdleMs;
+    private final int connectorIdleMs;
+    private final int scanIntervalSecs;
+    private final int wakeLockType;
+
+    public PerformanceProfile( String name, int minThreads, int maxThreads, int threadIdleMs, int connectorIdleMs, int scanIntervalSecs,
+            int wakeLockType )
+    {
+        this.name = name;
+        this.minThreads = Math.min( minThreads, maxThreads );
+        this.maxThreads = maxThreads;
+        this.threadIdleMs = threadIdleMs;
+        this.connectorIdleMs = connectorIdleMs;
+        this.scanIntervalSecs = scanIntervalSecs;
+        this.wakeLockType = wakeLockType;
+    }
+
+    /**
+     * Work out the profiles from the full capacity of the server.
+     *
+     * <ul>
+     * <li>charging: full capacity, and the screen kept dim-on as i-jetty always
+     * did, which also keeps the wifi radio awake</li>
+     * <li>interactive: full capacity with just the CPU kept awake, the user
+     * having the screen on anyway</li>
+     * <li>background: screen off, half the threads and shorter timeouts</li>
+     * <li>idle: screen off and no recent request, a single core thread, a
+     * quarter of the threads and slow scanning</li>
+     * </ul>
+     * The CPU is kept awake in every profile, otherwise the server could not
+     * answer at all with the screen off.
+     *
+     * @return the profiles, in the order charging, interactive, background,
+     *         idle
+     */
+    public static PerformanceProfile[] newProfiles( int minThreads, int maxThreads, int threadIdleMs, int connectorIdleMs, int scanIntervalSecs )
+    {
+        int scan = Math.max( 1, scanIntervalSecs );
+        return new PerformanceProfile[]{
+                new PerformanceProfile( CHARGING, minThreads, maxThreads, threadIdleMs, connectorIdleMs, scan, PowerManager.SCREEN_DIM_WAKE_LOCK ),
+                new PerformanceProfile( INTERACTIVE, minThreads, maxThreads, threadIdleMs, connectorIdleMs, scan, PowerManager.PARTIAL_WAKE_LOCK ),
+                new PerformanceProfile( BACKGROUND, 1, Math.max( 2, maxThreads / 2 ), Math.min( threadIdleMs, 10000 ), Math.min( connectorIdleMs,
+                        30000 ), scan * 3, PowerManager.PARTIAL_WAKE_LOCK ),
+                new PerformanceProfile( IDLE, 1, Math.max( 2, maxThreads / 4 ), Math.min( threadIdleMs, 2000 ), Math.min( connectorIdleMs, 10000 ),
+                        scan * 12, PowerManager.PARTIAL_WAKE_LOCK ) };
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getMinThreads()
+    {
+        return minThreads;
+    }
+
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    public int getThreadIdleMs()
+    {
+        return threadIdleMs;
+    }
+
+    public int getConnectorIdleMs()
+    {
+        return connectorIdleMs;
+    }
+
+    public int getScanIntervalSecs()
+    {
+        return scanIntervalSecs;
+    }
+
+    /**
+     * @return the PowerManager wake lock type, or {@link #NO_WAKE_LOCK}
+     */
+    public int getWakeLockType()
+    {
+        return wakeLockType;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "[threads=" + minThreads + "-" + maxThreads + ",threadIdle=" + threadIdleMs + "ms,connectorIdle=" + connectorIdleMs +
+                "ms,scan=" + scanIntervalSecs + "s,wakeLock=" + wakeLockType + "]";
+    }
+}
@@ -0,0 +1,326 @@
+//========================================================================
+//Copyright 2008 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.ijetty.power;
+
+import static org.mortbay.ijetty.common.LogSupport.TAG;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.mortbay.ijetty.deployer.AndroidContextDeployer;
+import org.mortbay.ijetty.stats.RequestStatistics;
+import org.mortbay.ijetty.stats.ServerStatisticsHandler;
+import org.mortbay.ijetty.thread.BoundedThreadPool;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * PowerProfileManager
+ *
+ * Switches the running server between {@link PerformanceProfile}s as the
+ * device state changes:
+ * <ul>
+ * <li>plugged in: charging</li>
+ * <li>busy, i.e. handling requests faster than {@link #BUSY_REQUESTS_PER_SEC}
+ * or with more than half its threads active: interactive, so that load always
+ * ramps up to full capacity</li>
+ * <li>screen on: interactive</li>
+ * <li>screen off with a request in the last {@link #IDLE_AFTER_MS}:
+ * background</li>
+ * <li>otherwise: idle</li>
+ * </ul>
+ * The screen and charging state come from broadcasts, the request activity
+ * from the {@link ServerStatisticsHandler}, which is polled every
+ * {@link #POLL_MS}.
+ *
+ * Switching a profile resizes the thread pool, sets the idle timeout of the
+ * connectors and the scan interval of the context deployer, and swaps the
+ * wake lock, acquiring the new one before releasing the old.
+ */
+public class PowerProfileManager
+{
+    public static final long POLL_MS = 5000L;
+    public static final long IDLE_AFTER_MS = 5 * 60 * 1000L;
+    public static final double BUSY_REQUESTS_PER_SEC = 2.0;
+
+    private final Context context;
+    private final Server server;
+    private final BoundedThreadPool threadPool;
+    private final AndroidContextDeployer contextDeployer;
+    private final ServerStatisticsHandler statistics;
+    private final PerformanceProfile charging;
+    private final PerformanceProfile interactive;
+    private final PerformanceProfile background;
+    private final PerformanceProfile idle;
+    private final android.os.Handler handler = new android.os.Handler( Looper.getMainLooper() );
+    private final Runnable pollTask = new PollTask();
+    private final BroadcastReceiver receiver = new DeviceStateReceiver();
+
+    private boolean screenOn = true;
+    private boolean pluggedIn;
+    private long lastRequests;
+    private long lastPoll;
+    private long lastActive;
+    private boolean busy;
+    private PerformanceProfile current;
+    private PowerManager.WakeLock wakeLock;
+
+    /**
+     * @param contextDeployer
+     *            the deployer whose scan interval is adjusted, or null
+     * @param statistics
+     *            the request counts of the server, or null to go by the
+     *            screen and charging state only
+     */
+    public PowerProfileManager( Context context, Server server, AndroidContextDeployer contextDeployer, ServerStatisticsHandler statistics )
+    {
+        this.context = context;
+        this.server = server;
+        this.threadPool = server.getThreadPool() instanceof BoundedThreadPool ? (BoundedThreadPool) server.getThreadPool() : null;
+        this.contextDeployer = contextDeployer;
+        this.statistics = statistics;
+
+        int minThreads = threadPool == null ? 1 : threadPool.getMinThreads();
+        int maxThreads = threadPool == null ? 1 : threadPool.getMaxThreads();
+        int threadIdleMs = threadPool == null ? 0 : threadPool.getMaxIdleTimeMs();
+        int connectorIdleMs = 0;
+        Connector[] connectors = server.getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length; i++ )
+        {
+            connectorIdleMs = Math.max( connectorIdleMs, connectors[i].getMaxIdleTime() );
+        }
+        int scanIntervalSecs = contextDeployer == null ? 0 : contextDeployer.getScanInterval();
+
+        PerformanceProfile[] profiles = PerformanceProfile.newProfiles( minThreads, maxThreads, threadIdleMs, connectorIdleMs, scanIntervalSecs );
+        charging = profiles[0];
+        interactive = profiles[1];
+        background = profiles[2];
+        idle = profiles[3];
+    }
+
+    /**
+     * Start following the device state, applying the profile that suits it
+     * now.
+     */
+    public synchronized void start()
+    {
+        PowerManager pm = (PowerManager) context.getSystemService( Context.POWER_SERVICE );
+        screenOn = pm.isScreenOn();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction( Intent.ACTION_SCREEN_ON );
+        filter.addAction( Intent.ACTION_SCREEN_OFF );
+        filter.addAction( Intent.ACTION_BATTERY_CHANGED );
+        Intent battery = context.registerReceiver( receiver, filter );
+        if ( battery != null )
+        {
+            pluggedIn = battery.getIntExtra( BatteryManager.EXTRA_PLUGGED, 0 ) != 0;
+        }
+
+        lastPoll = System.currentTimeMillis();
+        lastActive = lastPoll;
+        lastRequests = statistics == null ? 0 : statistics.getTotal().getRequests();
+        update();
+        handler.postDelayed( pollTask, POLL_MS );
+    }
+
+    /**
+     * Stop following the device state and release the wake lock. The server
+     * is left as it is.
+     */
+    public synchronized void stop()
+    {
+        handler.removeCallbacks( pollTask );
+        try
+        {
+            context.unregisterReceiver( receiver );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            Log.d( TAG, "Device state receiver was not registered" );
+        }
+
+        if ( wakeLock != null )
+        {
+            wakeLock.release();
+            wakeLock = null;
+        }
+        current = null;
+    }
+
+    /**
+     * @return the profile in use, null when stopped
+     */
+    public synchronized PerformanceProfile getProfile()
+    {
+        return current;
+    }
+
+    /**
+     * @return the profile that suits the device state
+     */
+    protected synchronized PerformanceProfile selectProfile()
+    {
+        if ( pluggedIn )
+        {
+            return charging;
+        }
+        if ( busy || screenOn )
+        {
+            return interactive;
+        }
+        if ( System.currentTimeMillis() - lastActive < IDLE_AFTER_MS )
+        {
+            return background;
+        }
+        return idle;
+    }
+
+    private synchronized void update()
+    {
+        PerformanceProfile profile = selectProfile();
+        if ( profile != current )
+        {
+            apply( profile );
+        }
+    }
+
+    private void apply( PerformanceProfile profile )
+    {
+        Log.i( TAG, "Performance profile " + (current == null ? "none" : current.getName()) + " -> " + profile );
+
+        if ( threadPool != null )
+        {
+            threadPool.setLimits( profile.getMinThreads(), profile.getMaxThreads(), profile.getThreadIdleMs() );
+        }
+
+        Connector[] connectors = server.getConnectors();
+        for ( int i = 0; connectors != null && i < connectors.length && profile.getConnectorIdleMs() > 0; i++ )
+        {
+            connectors[i].setMaxIdleTime( profile.getConnectorIdleMs() );
+        }
+
+        if ( contextDeployer != null && contextDeployer.getScanInterval() > 0 )
+        {
+            contextDeployer.setScanInterval( profile.getScanIntervalSecs() );
+        }
+
+        if ( current == null || current.getWakeLockType() != profile.getWakeLockType() )
+        {
+            PowerManager.WakeLock old = wakeLock;
+            wakeLock = null;
+            if ( profile.getWakeLockType() != PerformanceProfile.NO_WAKE_LOCK )
+            {
+                PowerManager pm = (PowerManager) context.getSystemService( Context.POWER_SERVICE );
+                wakeLock = pm.newWakeLock( profile.getWakeLockType(), "IJetty" );
+                wakeLock.acquire();
+            }
+            if ( old != null )
+            {
+                old.release();
+            }
+        }
+
+        current = profile;
+    }
+
+    /**
+     * Work out from the request counts whether the server is busy or has had
+     * a request lately.
+     */
+    private synchronized void poll()
+    {
+        if ( statistics == null )
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        RequestStatistics total = statistics.getTotal();
+        long requests = total.getRequests();
+        int active = total.getRequestsActive();
+        double rate = now > lastPoll ? (requests - lastRequests) * 1000.0 / (now - lastPoll) : 0;
+        if ( requests != lastRequests || active > 0 )
+        {
+            lastActive = now;
+        }
+
+        int maxThreads = current == null ? interactive.getMaxThreads() : current.getMaxThreads();
+        busy = rate >= BUSY_REQUESTS_PER_SEC || active > maxThreads / 2;
+        lastRequests = requests;
+        lastPoll = now;
+    }
+
+    private class PollTask implements Runnable
+    {
+        public void run()
+        {
+            synchronized ( PowerProfileManager.this )
+            {
+                if ( current == null )
+                {
+                    return;
+                }
+
+                try
+                {
+                    poll();
+                    update();
+                }
+                catch ( Exception e )
+                {
+                    Log.w( TAG, "Failed to update performance profile", e );
+                }
+                handler.postDelayed( this, POLL_MS );
+            }
+        }
+    }
+
+    private class DeviceStateReceiver extends BroadcastReceiver
+    {
+        @Override
+        public void onReceive( Context context, Intent intent )
+        {
+            synchronized ( PowerProfileManager.this )
+            {
+                String action = intent.getAction();
+                if ( Intent.ACTION_SCREEN_ON.equals( action ) )
+                {
+                    screenOn = true;
+                }
+                else if ( Intent.ACTION_SCREEN_OFF.equals( action ) )
+                {
+                    screenOn = false;
+                    lastActive = System.currentTimeMillis();
+                }
+                else if ( Intent.ACTION_BATTERY_CHANGED.equals( action ) )
+                {
+                    pluggedIn = intent.getIntExtra( BatteryManager.EXTRA_PLUGGED, 0 ) != 0;
+                }
+
+                if ( current != null )
+                {
+                    update();
+                }
+            }
+        }
+    }
+}